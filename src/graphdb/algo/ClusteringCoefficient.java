@@ -1,16 +1,16 @@
 package graphdb.algo;
 
 import graphdb.graph.BufferConfiguration;
-import graphdb.graph.Edge;
+import graphdb.graph.EdgeCursor;
 import graphdb.graph.EdgeDirection;
 import graphdb.graph.Graph;
 import graphdb.graph.GraphManager;
 import graphdb.graph.GraphQueryAlgorithm;
 import graphdb.graph.Node;
+import graphdb.util.LongIntHashMap;
+import graphdb.util.LongIntMap;
 
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -18,6 +18,8 @@ import org.apache.log4j.Logger;
 public class ClusteringCoefficient implements GraphQueryAlgorithm{
 	private static Logger log = Logger.getLogger(ClusteringCoefficient.class.getName());
 	private boolean isDirected;
+	private final EdgeCursor cursor = new EdgeCursor();
+	private final EdgeCursor neighborCursor = new EdgeCursor();
 
 	public double run(Graph g, boolean isDirected){
 		double globalCC = 0.0;
@@ -38,53 +40,51 @@ public class ClusteringCoefficient implements GraphQueryAlgorithm{
 		//cc = \frac{|\{e_{jk}: v_j,v_k \in N_i, e_{jk} \in E\}|}{k_i(k_i-1)}
 		//for bidirectional cc*2
 
-		LinkedList<Node> nhood = new LinkedList<Node>();
+		Graph g = n.getGraph();
 		int numEdges = 0;
 
 		//add out edges
-		for(Edge e : n.getEdges(EdgeDirection.OUT)){
-			nhood.add(e.getDestination());
+		n.getEdges(EdgeDirection.OUT, cursor);
+		long[] nhood = new long[cursor.size() + (isDirected ? n.getNumEdges(EdgeDirection.IN) : 0)];
+		int count = 0;
+		while(cursor.hasNext()){
+			nhood[count++] = cursor.nextNeighborId();
 		}
 
 		//if directed add in edges too
 		if(isDirected){
-			for(Edge e : n.getEdges(EdgeDirection.IN)){
-				nhood.add(e.getDestination());
+			n.getEdges(EdgeDirection.IN, cursor);
+			while(cursor.hasNext()){
+				cursor.nextNeighborId();
+				nhood[count++] = cursor.getDestinationId();
 			}
 		}
 
-		log.trace("CC neighborhood for node" + n + " " + nhood);
+		log.trace("CC neighborhood for node" + n + " " + Arrays.toString(nhood));
 
 		//if number one or no edge exist skip that node
-		if(nhood.size() < 2){
+		if(nhood.length < 2){
 			log.trace("CC calculation for node"+ n + " 0.0");
 			return 0.0;
 		}
 
 		//How big is this nodes neighborhood
-		double size = nhood.size() * (nhood.size()  - 1);
+		double size = nhood.length * (nhood.length  - 1);
 
 		//for each neighbor of n
-		while(nhood.size() > 0){
-			Node n1 = nhood.removeFirst();
+		for (int i = 0; i < nhood.length; i++) {
+			long n1 = nhood[i];
 
-			for (Iterator<Node> it = nhood.iterator(); it.hasNext();) {
-				Node nn = it.next(); // next neighbor
+			for (int j = i + 1; j < nhood.length; j++) {
+				long nn = nhood[j]; // next neighbor
 
 				//if n1 is connected to nn increase
-				for(Edge e : n1.getEdges(EdgeDirection.OUT)){
-					if(e.getDestination().equals(nn))
-						numEdges++;
-				}
+				numEdges += countEdges(g, n1, nn);
 
 				//if g is directed
 				if(isDirected){
 					//if n1 is connected to nn increase
-					for(Edge e : nn.getEdges(EdgeDirection.OUT)){
-						if(e.getDestination().equals(n1))
-							numEdges++;
-						log.trace("CC node"+ n1 + " 's neighbor node" + e.getDestination() + " is in nhood of node" + n);
-					}
+					numEdges += countEdges(g, nn, n1);
 				}
 			}
 		}
@@ -97,14 +97,28 @@ public class ClusteringCoefficient implements GraphQueryAlgorithm{
 		return (double) numEdges / size;
 	}
 
+	//edges from src to dest
+	private int countEdges(Graph g, long src, long dest){
+		int count = 0;
+
+		g.getEdges(src, EdgeDirection.OUT, neighborCursor);
+		while(neighborCursor.hasNext()){
+			if(neighborCursor.nextNeighborId() == dest)
+				count++;
+		}
+		return count;
+	}
+
 	@SuppressWarnings("unused")
 	private double ccOfNode2(Node n){
-		HashSet<Node> nhood = new HashSet<Node>();
+		Graph g = n.getGraph();
+		LongIntMap nhood = new LongIntHashMap();
 		int numEdges = 0;
 
 		//add out edges
-		for(Edge e : n.getEdges(EdgeDirection.OUT)){
-			nhood.add(e.getDestination());
+		n.getEdges(EdgeDirection.OUT, cursor);
+		while(cursor.hasNext()){
+			nhood.put(cursor.nextNeighborId(), 0);
 		}
 
 		log.trace("CC neighborhood for node" + n + " " + nhood);
@@ -120,10 +134,15 @@ public class ClusteringCoefficient implements GraphQueryAlgorithm{
 		log.trace("CC possible edges of node" + n + " "+ possibleEdges);
 
 		//for each neighbor of neighbor of n
-		for(Edge e : n.getEdges(EdgeDirection.OUT)){
-			for(Edge ne : e.getDestination().getEdges(EdgeDirection.OUT)){
-				if(nhood.contains(ne.getDestination())){
-					log.trace("CC node"+ e.getDestination() + " 's neighbor node" + ne.getDestination() + " is in nhood of node"+n);
+		n.getEdges(EdgeDirection.OUT, cursor);
+		while(cursor.hasNext()){
+			long u = cursor.nextNeighborId();
+
+			g.getEdges(u, EdgeDirection.OUT, neighborCursor);
+			while(neighborCursor.hasNext()){
+				long v = neighborCursor.nextNeighborId();
+				if(nhood.containsKey(v)){
+					log.trace("CC node"+ u + " 's neighbor node" + v + " is in nhood of node"+n);
 					numEdges++;
 				}
 			}
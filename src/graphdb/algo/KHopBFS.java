@@ -1,17 +1,17 @@
 package graphdb.algo;
 
 import graphdb.graph.BufferConfiguration;
-import graphdb.graph.Edge;
+import graphdb.graph.EdgeCursor;
 import graphdb.graph.EdgeDirection;
 import graphdb.graph.Graph;
 import graphdb.graph.GraphManager;
 import graphdb.graph.GraphQueryAlgorithm;
 import graphdb.graph.Node;
-import graphdb.util.Pair;
+import graphdb.graph.PagePin;
+import graphdb.util.LongIntHashMap;
+import graphdb.util.LongIntMap;
 
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Arrays;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -20,38 +20,30 @@ public class KHopBFS<T> implements GraphQueryAlgorithm{
 	private static Logger log = Logger.getLogger(KHopBFS.class.getName());
 
 	public Node run(Node root, int maxHops, long targetId){
-		Queue<Pair<Node,Integer>> q = new LinkedList<Pair<Node,Integer>>();
-		HashSet<Long> visited = new HashSet<Long>();
+		Graph g = root.getGraph();
+		HopQueue q = new HopQueue();
+		LongIntMap visited = new LongIntHashMap();
+		EdgeCursor cursor = new EdgeCursor();
 		int hopCount = 0;	// the level, hop count
 
-		q.add(new Pair<Node, Integer>(root,0));
+		q.add(root.getId(), 0);
 
 		while(!q.isEmpty() && hopCount <= maxHops){
-			Pair<Node, Integer> p = q.peek();
-			Node n = p.getLeft();
-			hopCount = p.getRight();
+			long nodeid = q.peekId();
+			hopCount = q.peekHops();
 
-			log.trace("BFS queue for iteration:" + q);
-			log.trace("BFS processing node:"+n + " hopCount:" + hopCount);
+			log.trace("BFS processing node:"+nodeid + " hopCount:" + hopCount);
 
 			//comparison for search element
-			if(Long.valueOf(n.getId()).equals(Long.valueOf(targetId))){
+			if(nodeid == targetId){
 				//result is found return it
-				return n;
+				return g.getNode(nodeid);
 			}
 
-			log.trace("BFS Looking for:"+ targetId + " found:" + n);
+			log.trace("BFS Looking for:"+ targetId + " found:" + nodeid);
 
 			// for each neighbor of n
-			for(Edge e : n.getEdges(EdgeDirection.OUT)){
-				//if the destination is already visited don't bring it again
-				Long u = e.getDestinationId();
-
-				if(!visited.contains(u)){
-					visited.add(u);
-					q.add(new Pair<Node,Integer>(e.getDestination(), hopCount+1));
-				}
-			}
+			expand(g.getNode(nodeid), hopCount, q, visited, cursor);
 
 			//remove n from queue
 			q.poll();
@@ -60,18 +52,18 @@ public class KHopBFS<T> implements GraphQueryAlgorithm{
 		return null;
 	}
 	public Node run(Node root, int maxHops, Node target){
-		Queue<Pair<Node,Integer>> q = new LinkedList<Pair<Node,Integer>>();
-		HashSet<Long> visited = new HashSet<Long>();
+		Graph g = root.getGraph();
+		HopQueue q = new HopQueue();
+		LongIntMap visited = new LongIntHashMap();
+		EdgeCursor cursor = new EdgeCursor();
 		int hopCount = 0;	// the level, hop count
 
-		q.add(new Pair<Node, Integer>(root,0));
+		q.add(root.getId(), 0);
 
 		while(!q.isEmpty() && hopCount <= maxHops){
-			Pair<Node, Integer> p = q.peek();
-			Node n = p.getLeft();
-			hopCount = p.getRight();
+			Node n = g.getNode(q.peekId());
+			hopCount = q.peekHops();
 
-			log.trace("BFS queue for iteration:" + q);
 			log.trace("BFS processing node:"+n + " hopCount:" + hopCount);
 			//comparison for search element
 			if(n.equals(target)){
@@ -82,15 +74,7 @@ public class KHopBFS<T> implements GraphQueryAlgorithm{
 			log.trace("BFS Looking for:"+ target + " found:" + n);
 
 			// for each neighbor of n
-			for(Edge e : n.getEdges(EdgeDirection.OUT)){
-				//if the destination is already visited don't bring it again
-				Long u = e.getDestinationId();
-
-				if(!visited.contains(u)){
-					visited.add(u);
-					q.add(new Pair<Node,Integer>(e.getDestination(), hopCount+1));
-				}
-			}
+			expand(n, hopCount, q, visited, cursor);
 
 			//remove n from queue
 			q.poll();
@@ -99,18 +83,18 @@ public class KHopBFS<T> implements GraphQueryAlgorithm{
 		return null;
 	}
 	public Node run(Node root, int maxHops, String searchPropKey, T searchProp){
-		Queue<Pair<Node,Integer>> q = new LinkedList<Pair<Node,Integer>>();
-		HashSet<Long> visited = new HashSet<Long>();
+		Graph g = root.getGraph();
+		HopQueue q = new HopQueue();
+		LongIntMap visited = new LongIntHashMap();
+		EdgeCursor cursor = new EdgeCursor();
 		int hopCount = 0;	// the level, hop count
 
-		q.add(new Pair<Node, Integer>(root,0));
+		q.add(root.getId(), 0);
 
 		while(!q.isEmpty() && hopCount <= maxHops){
-			Pair<Node, Integer> p = q.peek();
-			Node n = p.getLeft();
-			hopCount = p.getRight();
+			Node n = g.getNode(q.peekId());
+			hopCount = q.peekHops();
 
-			log.trace("BFS queue for iteration:" + q);
 			log.trace("BFS processing node:"+n + " hopCount:" + hopCount);
 			//comparison for search element
 			if(n.getProperty(searchPropKey) != null){
@@ -123,14 +107,7 @@ public class KHopBFS<T> implements GraphQueryAlgorithm{
 			}
 
 			// for each neighbor of n
-			for(Edge e : n.getEdges(EdgeDirection.OUT)){
-				Long u = e.getDestinationId();
-
-				if(!visited.contains(u)){
-					visited.add(u);
-					q.add(new Pair<Node,Integer>(e.getDestination(), hopCount+1));
-				}
-			}
+			expand(n, hopCount, q, visited, cursor);
 
 			//remove n from queue
 			q.poll();
@@ -138,6 +115,72 @@ public class KHopBFS<T> implements GraphQueryAlgorithm{
 
 		return null;
 	}
+
+	//queues the out neighbors of the node which aren't visited yet, the neighbors are brought from the db when they are processed
+	private static void expand(Node n, int hopCount, HopQueue q, LongIntMap visited, EdgeCursor cursor){
+		PagePin pin = n.pin();
+		try {
+			n.getEdges(EdgeDirection.OUT, cursor);
+			while(cursor.hasNext()){
+				long u = cursor.nextNeighborId();
+
+				//if the destination is already visited don't bring it again
+				if(!visited.containsKey(u)){
+					visited.put(u, hopCount+1);
+					q.add(u, hopCount+1);
+				}
+			}
+		} finally {
+			pin.release();
+		}
+	}
+
+	/**
+	 * FIFO queue of node ids with their hop counts, without boxing.
+	 */
+	private static class HopQueue {
+		private long[] ids = new long[16];
+		private int[] hops = new int[16];
+		private int head = 0;
+		private int tail = 0;
+
+		void add(long id, int hopCount){
+			if(tail == ids.length){
+				//drop the polled entries before growing
+				int size = tail - head;
+				if(size < ids.length / 2){
+					System.arraycopy(ids, head, ids, 0, size);
+					System.arraycopy(hops, head, hops, 0, size);
+				}
+				else {
+					ids = Arrays.copyOfRange(ids, head, head + ids.length * 2);
+					hops = Arrays.copyOfRange(hops, head, head + hops.length * 2);
+				}
+				head = 0;
+				tail = size;
+			}
+			ids[tail] = id;
+			hops[tail] = hopCount;
+			tail++;
+		}
+
+		boolean isEmpty(){
+			return head == tail;
+		}
+
+		long peekId(){
+			return ids[head];
+		}
+
+		int peekHops(){
+			return hops[head];
+		}
+
+		void poll(){
+			head++;
+		}
+	}
+
 	public static void main(String[] args){
 		Logger.getRootLogger().setLevel(Level.DEBUG);
 
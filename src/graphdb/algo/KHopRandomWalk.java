@@ -1,12 +1,13 @@
 package graphdb.algo;
 
 import graphdb.graph.BufferConfiguration;
-import graphdb.graph.Edge;
+import graphdb.graph.EdgeCursor;
 import graphdb.graph.EdgeDirection;
 import graphdb.graph.Graph;
 import graphdb.graph.GraphManager;
 import graphdb.graph.GraphQueryAlgorithm;
 import graphdb.graph.Node;
+import graphdb.graph.PagePin;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -30,35 +31,49 @@ public class KHopRandomWalk<T> implements GraphQueryAlgorithm{
 		}
 		log.trace("Random walk looking for:"+ targetId + " found:" + root.getId());
 
+		Graph g = root.getGraph();
+		EdgeCursor cursor = new EdgeCursor();
+		long[] neighbors = new long[16];
+
 		for (int hopCount = 1; hopCount <= maxHops; hopCount++) {
-			List<Node> neighbors = new ArrayList<Node>();
+			int numNeighbors = 0;
 
 			log.trace("Random walk searching at hop count: " + hopCount);
 
 			log.trace("Random walk searching at neighbors of node:" + nextElement);
-			for(Edge e : nextElement.getEdges(EdgeDirection.OUT)){
-				Node u = e.getDestination();
-				neighbors.add(u); // add neighbors to a list
-
-				//comparison for search element on neighbors
-				if(Long.valueOf(u.getId()).equals(Long.valueOf(targetId))){
-					//result is found return it
-					return u;
+			PagePin pin = nextElement.pin();
+			try {
+				nextElement.getEdges(EdgeDirection.OUT, cursor);
+				if(cursor.size() > neighbors.length){
+					neighbors = new long[cursor.size()];
+				}
+
+				while(cursor.hasNext()){
+					long u = cursor.nextNeighborId();
+					neighbors[numNeighbors++] = u; // add neighbors to a list
+
+					//comparison for search element on neighbors
+					if(u == targetId){
+						//result is found return it
+						return g.getNode(u);
+					}
+					log.trace("Random walk looking for:"+ targetId + " found:" + u);
 				}
-				log.trace("Random walk looking for:"+ targetId + " found:" + u.getId());
+			} finally {
+				pin.release();
 			}
 
 
-			log.trace("Random walk next element selection set:" + neighbors);
+			log.trace("Random walk next element selection set size:" + numNeighbors);
 
 			//if no out edges
-			if(neighbors.isEmpty()){
+			if(numNeighbors == 0){
 				log.trace("Random walk cannot proceed since there is no out edges.");
 				return null;
 			}
 			else {
-				//select a neighbor of n randomly
-				nextElement = neighbors.get(rand.nextInt(neighbors.size()));
+				//select a neighbor of n randomly, only the selected one is brought from the db
+				nextElement = g.getNode(neighbors[rand.nextInt(numNeighbors)]);
 				log.trace("Random walk selected next neighbor :" + nextElement);
 			}
 		}
@@ -80,24 +95,34 @@ public class KHopRandomWalk<T> implements GraphQueryAlgorithm{
 			log.trace("Random walk looking for:"+ searchProp + " found:" + root.getProperty(searchPropKey));
 		}
 
+		Graph g = root.getGraph();
+		EdgeCursor cursor = new EdgeCursor();
+
 		for (int hopCount = 1; hopCount <= maxHops; hopCount++) {
 			List<Node> neighbors = new ArrayList<Node>();
 
 			log.trace("Random walk searching at hop count: " + hopCount);
 
 			log.trace("Random walk searching at neighbors of node:" + nextElement);
-			for(Edge e : nextElement.getEdges(EdgeDirection.OUT)){
-				Node u = e.getDestination();
-				neighbors.add(u); // add neighbors to a list
-
-				//comparison for search element on neighbors
-				if(u.getProperty(searchPropKey) != null){
-					log.trace("Random walk looking for:"+ searchProp + " found:" + u.getProperty(searchPropKey));
-					if(u.getProperty(searchPropKey).equals(searchProp)){
-						//result is found return it
-						return u;
+			PagePin pin = nextElement.pin();
+			try {
+				nextElement.getEdges(EdgeDirection.OUT, cursor);
+				while(cursor.hasNext()){
+					//the property of each neighbor is compared, so the neighbors are brought
+					Node u = g.getNode(cursor.nextNeighborId());
+					neighbors.add(u); // add neighbors to a list
+
+					//comparison for search element on neighbors
+					if(u.getProperty(searchPropKey) != null){
+						log.trace("Random walk looking for:"+ searchProp + " found:" + u.getProperty(searchPropKey));
+						if(u.getProperty(searchPropKey).equals(searchProp)){
+							//result is found return it
+							return u;
+						}
 					}
 				}
+			} finally {
+				pin.release();
 			}
 
 
@@ -1,6 +1,6 @@
 package graphdb.algo;
 
-import graphdb.graph.Edge;
+import graphdb.graph.EdgeCursor;
 import graphdb.graph.EdgeDirection;
 import graphdb.graph.Graph;
 import graphdb.graph.GraphQueryAlgorithm;
@@ -27,6 +27,7 @@ public class Pagerank implements GraphQueryAlgorithm{
 	boolean outputReversed;
 	double stepDiff;
 	Graph g;
+	EdgeCursor cursor;
 
 
 	public Pagerank(double dampingFactor, Graph g){
@@ -35,6 +36,7 @@ public class Pagerank implements GraphQueryAlgorithm{
 
 		this.dampingFactor = dampingFactor;
 		this.leafNodeSet = new HashSet<Long>();
+		this.cursor = new EdgeCursor();
 
 		this.currentScore = new HashMap<Long,Double>(numNodes);
 		this.outputScore = new HashMap<Long,Double>(numNodes);
@@ -85,11 +87,14 @@ public class Pagerank implements GraphQueryAlgorithm{
 		//			disappearingPotential += currentScore.get(i);
 		//		}
 
-		for(Edge e : n.getEdges(EdgeDirection.IN)){
-			Node startnode = e.getSource();
+		//the sources are read by id, they aren't brought from the db
+		int outDegree = n.getNumEdges(EdgeDirection.OUT);
+		n.getEdges(EdgeDirection.IN, cursor);
+		while(cursor.hasNext()){
+			long startnode = cursor.nextNeighborId();
 
-			if(!startnode.equals(n) && n.hasEdge(EdgeDirection.OUT)){
-				nSum += (currentScore.get(startnode.getId()).doubleValue() / (double)n.getNumEdges(EdgeDirection.OUT));
+			if(startnode != n.getId() && outDegree > 0){
+				nSum += (currentScore.get(startnode).doubleValue() / (double)outDegree);
 			}
 		}
 
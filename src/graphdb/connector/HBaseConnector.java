@@ -36,6 +36,7 @@ public class HBaseConnector implements DatabaseConnector {
 	private final byte[] GRAPH_TABLE = Bytes.toBytes("graph_index");	// sysprops reside here
 	private final byte[] NODE_TABLE = Bytes.toBytes("node_index");		// graphid+nodeid -> block ids
 	private final byte[] BLOCK_TABLE = Bytes.toBytes("block_index");	// blockid -> block data
+	private final byte[] GROUP_SUFFIX = Bytes.toBytes("G");				// blockid+G -> page list of the group led by the block
 	
 	private final byte[] GLIST_START_ROW = Bytes.toBytes(1);
 	
@@ -225,6 +226,29 @@ public class HBaseConnector implements DatabaseConnector {
 		return block;
 	}
 	
+	@Override
+	public byte[] getPageGroup(long groupid){
+		byte[] group = null;
+		
+		try {
+			byte[] rowkey = Bytes.add(Bytes.toBytes(groupid), GROUP_SUFFIX);
+			
+			Get get = new Get(rowkey);
+			get.addColumn(COL_FAMILY, COL_QUALIFIER);
+			
+			Result r = block_tb.get(get);
+			
+			if(!r.isEmpty()){
+				group = r.getValue(COL_FAMILY, COL_QUALIFIER);
+			}
+			
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		return group;
+	}
+	
 	@Override
 	public void writeGraphList(HashMap<Integer,byte[]> glist){
 		try {
@@ -428,6 +452,20 @@ public class HBaseConnector implements DatabaseConnector {
 		
 	}
 	
+	@Override
+	public void writePageGroup(long groupid, byte[] rawPageList) {
+		try {
+			byte[] rowkey = Bytes.add(Bytes.toBytes(groupid), GROUP_SUFFIX);
+			Put put = new Put(rowkey);
+			put.add(COL_FAMILY, COL_QUALIFIER, rawPageList);
+			
+			block_tb.put(put);
+			
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
 	private void openDb(){
 		try {
 			graph_tb = new HTable(this.conf, GRAPH_TABLE);
@@ -32,6 +32,7 @@ public class LevelDBConnectorJava implements DatabaseConnector {
 	private final String GRAPH_TABLE = "graph_table";
 	private final String NODE_TABLE = "node_table";
 	private final String BLOCK_TABLE = "block_table";
+	private final byte[] GROUP_SUFFIX = {'G'}; // page group entries are kept in the block table after their leading block
 	
 	private DB graph_tb = null;
 	private DB node_tb = null;
@@ -165,6 +166,12 @@ public class LevelDBConnectorJava implements DatabaseConnector {
 		return block;
 	}
 
+	@Override
+	public byte[] getPageGroup(long groupid) {
+		log.debug("Disk access read : getPageGroup");
+		return block_tb.get(Bytes.concat(Longs.toByteArray(groupid), GROUP_SUFFIX));
+	}
+
 	@Override
 	public void writeGraphList(HashMap<Integer, byte[]> glist) {
 		WriteBatch batch = graph_tb.createWriteBatch();
@@ -231,6 +238,12 @@ public class LevelDBConnectorJava implements DatabaseConnector {
 		
 	}
 
+	@Override
+	public void writePageGroup(long groupid, byte[] rawPageList) {
+		log.debug("Disk access write : writePageGroup");
+		block_tb.put(Bytes.concat(Longs.toByteArray(groupid), GROUP_SUFFIX), rawPageList);
+	}
+
 	@Override
 	public void writeBlock(long blockid, byte[] bdata) {
 		log.debug("Disk access write : writeBlock");
@@ -252,8 +265,8 @@ public class LevelDBConnectorJava implements DatabaseConnector {
 				
 			}
 			
-			batch.close();
 			block_tb.write(batch);
+			batch.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -0,0 +1,191 @@
+package graphdb.graph;
+
+import graphdb.util.LongIntHashMap;
+import graphdb.util.LongIntMap;
+
+import java.util.Arrays;
+
+/**
+ * Edges of a node in one direction, kept as the sorted ids of the incident nodes in a
+ * growable long array. Edge objects are only created when the edges are iterated, so
+ * an edge costs 8 bytes instead of a list entry and an Edge object.
+ * <p>
+ * Small lists insert in place. Once a list grows past HASHED_DEGREE by inserts, the
+ * new ids are appended unsorted and a hash set of the ids answers contains, so adding
+ * an edge to a high degree node doesn't shift or scan its list. The unsorted tail is
+ * sorted and merged when the list is read in order. Lists read from a page keep only
+ * the array, their lookups are binary searches until they are written to.
+ */
+public class AdjacencyList {
+	private static final long[] EMPTY = new long[0];
+
+	/**
+	 * Size above which the inserts are appended and the ids are hashed.
+	 */
+	public static final int HASHED_DEGREE = 128;
+
+	private long[] ids;
+	private int size;
+	private int sorted; // ids[0, sorted) are in order
+	private LongIntMap counts; // id -> number of edges to it, only for hashed lists
+
+	public AdjacencyList() {
+		this.ids = EMPTY;
+		this.size = 0;
+		this.sorted = 0;
+	}
+
+	/**
+	 * @param ids Ids of the incident nodes, the array is kept and sorted if it isn't.
+	 */
+	public AdjacencyList(long[] ids) {
+		for (int i = 1; i < ids.length; i++) {
+			if(ids[i - 1] > ids[i]){
+				Arrays.sort(ids);
+				break;
+			}
+		}
+
+		this.ids = ids;
+		this.size = ids.length;
+		this.sorted = ids.length;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	/**
+	 * @return Id of the incident node of the i'th edge, in id order.
+	 */
+	public long get(int i){
+		if(i >= size){
+			throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+		}
+		if(sorted < size){
+			sort();
+		}
+		return ids[i];
+	}
+
+	/**
+	 * Adds an edge to the incident node. Edges mostly come in order, the place of a small
+	 * list's edge is searched from the tail, a hashed list appends it.
+	 */
+	public void add(long id){
+		if(size == ids.length){
+			ids = Arrays.copyOf(ids, Math.max(4, size + (size >> 1)));
+		}
+
+		if(counts == null && size >= HASHED_DEGREE){
+			hash();
+		}
+
+		if(counts != null){
+			if(sorted == size && (size == 0 || ids[size - 1] <= id)){
+				sorted++;
+			}
+			ids[size++] = id;
+
+			int count = counts.get(id);
+			counts.put(id, count == LongIntMap.NO_VALUE ? 1 : count + 1);
+			return;
+		}
+
+		int i = size;
+		while(i > 0 && ids[i - 1] > id){
+			i--;
+		}
+		System.arraycopy(ids, i, ids, i + 1, size - i);
+		ids[i] = id;
+		size++;
+		sorted++;
+	}
+
+	public boolean contains(long id){
+		if(counts != null){
+			return counts.containsKey(id);
+		}
+		return Arrays.binarySearch(ids, 0, size, id) >= 0;
+	}
+
+	/**
+	 * Removes the edges to the incident node.
+	 *
+	 * @return true if an edge was removed.
+	 */
+	public boolean remove(long id){
+		if(counts != null){
+			if(counts.remove(id) == LongIntMap.NO_VALUE){
+				return false;
+			}
+		}
+		if(sorted < size){
+			sort();
+		}
+
+		int i = Arrays.binarySearch(ids, 0, size, id);
+		if(i < 0){
+			return false;
+		}
+
+		int from = i;
+		while(from > 0 && ids[from - 1] == id){
+			from--;
+		}
+		int to = i + 1;
+		while(to < size && ids[to] == id){
+			to++;
+		}
+
+		System.arraycopy(ids, to, ids, from, size - to);
+		size -= to - from;
+		sorted = size;
+		return true;
+	}
+
+	private void hash(){
+		counts = new LongIntHashMap(size * 2);
+		for (int i = 0; i < size; i++) {
+			int count = counts.get(ids[i]);
+			counts.put(ids[i], count == LongIntMap.NO_VALUE ? 1 : count + 1);
+		}
+	}
+
+	//merges the appended ids into the sorted ones, into a new array so a concurrent reader still sees every id
+	private synchronized void sort(){
+		if(sorted == size){
+			return;
+		}
+
+		long[] tail = Arrays.copyOfRange(ids, sorted, size);
+		Arrays.sort(tail);
+
+		long[] merged = new long[ids.length];
+		int i = 0;
+		int j = 0;
+		for (int k = 0; k < size; k++) {
+			if(j == tail.length || (i < sorted && ids[i] <= tail[j])){
+				merged[k] = ids[i++];
+			}
+			else {
+				merged[k] = tail[j++];
+			}
+		}
+
+		ids = merged;
+		sorted = size;
+	}
+
+	@Override
+	public String toString() {
+		if(sorted < size){
+			sort();
+		}
+		return Arrays.toString(Arrays.copyOf(ids, size));
+	}
+}
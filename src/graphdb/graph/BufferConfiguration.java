@@ -1,12 +1,75 @@
 package graphdb.graph;
 
+import graphdb.policy.PageARCEvict;
+import graphdb.policy.PageClockEvict;
+import graphdb.policy.PageCostAwareEvict;
+import graphdb.policy.PageLRUEvict;
+import graphdb.policy.PageTwoQueueEvict;
+
 public class BufferConfiguration {
+	/**
+	 * System property to pick the eviction policy of a deployment. Values are lru, clock, 2q, arc and cost.
+	 */
+	public static final String EVICTION_POLICY_PROPERTY = "graphdb.buffer.eviction";
+
+	/**
+	 * System property to turn on the warm start of a deployment, true or false.
+	 */
+	public static final String WARM_START_PROPERTY = "graphdb.buffer.warmstart";
+
+	/**
+	 * System property to turn on lazy decoding of the read pages, true or false.
+	 */
+	public static final String LAZY_DECODE_PROPERTY = "graphdb.buffer.lazydecode";
+
+	/**
+	 * System property to pick the compression of the written pages. Values are none, lz4 and deflate.
+	 */
+	public static final String PAGE_COMPRESSION_PROPERTY = "graphdb.buffer.compression";
+
+	/**
+	 * System property to pick the checksum verification of the pages. Values are none, first and always.
+	 */
+	public static final String PAGE_CHECKSUM_PROPERTY = "graphdb.buffer.checksum";
+
+	/**
+	 * System property to turn on the per stage latency histograms of the page reads and writes, true or false.
+	 */
+	public static final String STAGE_TIMING_PROPERTY = "graphdb.buffer.stagetiming";
+
+	public static final int DEFAULT_MAX_BLOCK_SIZE = 8*1024*1024; // default size is 80 MB
+	public static final int DEFAULT_MAX_BUFFER_SIZE = 100; // default is 10 blocks in the buffer (800 MB)
+
 	private int maxBufferSize; // number of blocks in buffer
 	private int maxBlockSize; // block size in bytes 
+	private long maxBufferBytes; // memory budget of the buffer in bytes, 0 means no budget
+	private double highWatermark; // fraction of the limits where bulk eviction starts
+	private double lowWatermark; // fraction of the limits where bulk eviction stops
+	private boolean writeBehind; // whether dirty page groups are written by a background flusher
+	private double dirtyHighRatio; // fraction of dirty groups where the flusher starts cleaning
+	private double dirtyLowRatio; // fraction of dirty groups where the flusher stops cleaning
+	private long flushInterval; // milliseconds between flusher checks
+	private int flushBatchSize; // number of page groups written in one connector batch
+	private boolean readAhead; // whether neighbor page groups are prefetched
+	private int readAheadBudget; // max nodes a decoded page group queues for prefetch
+	private long readAheadCacheBytes; // max bytes of prefetched blocks waiting to be used
+	private boolean offHeap; // whether page data is kept in direct buffers
+	private boolean warmStart; // whether the hot set of the last shutdown is preloaded
+	private int warmStartThreads; // number of threads reading the hot set
+	private int warmStartBatchSize; // number of page groups read together
+	private double warmStartRate; // max page groups preloaded per second, 0 means no limit
+	private long warmStartTimeout; // max milliseconds the preload takes, 0 means no limit
+	private int pageFormat; // format version of the written pages
+	private boolean lazyDecode; // whether nodes of a read page are decoded when they are first used
+	private String pageCompression; // codec of the written pages, none to write them raw
+	private String pageChecksum; // when the checksums of the read pages are verified
+	private double scrubRate; // max pages per second the scrubber verifies, 0 means no scrubber
+	private boolean stageTiming; // whether the stages of the page reads and writes are timed
+	private int concurrencyLevel; // number of lock stripes in the buffer's page table
+	private EvictionPolicy evictionPolicy;
 
 	public BufferConfiguration() {
-		maxBlockSize = 8*1024*1024; // default size is 80 MB
-		maxBufferSize = 100; // default is 10 blocks in the buffer (800 MB)
+		this(DEFAULT_MAX_BUFFER_SIZE, DEFAULT_MAX_BLOCK_SIZE);
 	}
 
 	/**
@@ -28,6 +91,31 @@ public class BufferConfiguration {
 		super();
 		this.maxBufferSize = maxBufferSize;
 		this.maxBlockSize = maxBlockSize;
+		this.concurrencyLevel = 16;
+		this.evictionPolicy = createEvictionPolicy(System.getProperty(EVICTION_POLICY_PROPERTY, "lru"));
+		this.maxBufferBytes = 0;
+		this.highWatermark = 0.9;
+		this.lowWatermark = 0.7;
+		this.writeBehind = false;
+		this.dirtyHighRatio = 0.3;
+		this.dirtyLowRatio = 0.1;
+		this.flushInterval = 500;
+		this.flushBatchSize = 8;
+		this.readAhead = false;
+		this.readAheadBudget = 8;
+		this.readAheadCacheBytes = 64*1024*1024;
+		this.offHeap = false;
+		this.warmStart = Boolean.parseBoolean(System.getProperty(WARM_START_PROPERTY, "false"));
+		this.warmStartThreads = 4;
+		this.warmStartBatchSize = 16;
+		this.warmStartRate = 0;
+		this.warmStartTimeout = 30000;
+		this.pageFormat = 1;
+		this.lazyDecode = Boolean.parseBoolean(System.getProperty(LAZY_DECODE_PROPERTY, "false"));
+		this.setPageCompression(System.getProperty(PAGE_COMPRESSION_PROPERTY, "none"));
+		this.setPageChecksum(System.getProperty(PAGE_CHECKSUM_PROPERTY, "none"));
+		this.scrubRate = 0;
+		this.stageTiming = Boolean.parseBoolean(System.getProperty(STAGE_TIMING_PROPERTY, "false"));
 	}
 
 	/**
@@ -61,4 +149,488 @@ public class BufferConfiguration {
 	public void setMaxBlockSize(int maxBlockSize) {
 		this.maxBlockSize = maxBlockSize;
 	}
+
+	/**
+	 * 
+	 * @return Memory budget of the buffer in bytes.
+	 */
+	public long getMaxBufferBytes() {
+		return maxBufferBytes;
+	}
+
+	/**
+	 * A page group is charged for the data of its pages plus the size of its decoded
+	 * subgraph. The block count limit still holds, whichever is hit first triggers eviction.
+	 * 
+	 * @param maxBufferBytes Memory budget of the buffer in bytes, 0 to disable it. (Default: 0)
+	 */
+	public void setMaxBufferBytes(long maxBufferBytes) {
+		if(maxBufferBytes < 0){
+			throw new IllegalArgumentException("Buffer memory budget can't be negative: " + maxBufferBytes);
+		}
+		this.maxBufferBytes = maxBufferBytes;
+	}
+
+	/**
+	 * 
+	 * @return Fraction of the buffer limits where bulk eviction starts.
+	 */
+	public double getHighWatermark() {
+		return highWatermark;
+	}
+
+	/**
+	 * 
+	 * @return Fraction of the buffer limits where bulk eviction stops.
+	 */
+	public double getLowWatermark() {
+		return lowWatermark;
+	}
+
+	/**
+	 * When the buffer goes over the high watermark page groups are evicted until it is
+	 * under the low watermark, so eviction doesn't run on every insert.
+	 * 
+	 * @param lowWatermark Fraction of the limits where eviction stops. (Default: 0.7)
+	 * @param highWatermark Fraction of the limits where eviction starts. (Default: 0.9)
+	 */
+	public void setWatermarks(double lowWatermark, double highWatermark) {
+		if(lowWatermark <= 0 || highWatermark > 1 || lowWatermark > highWatermark){
+			throw new IllegalArgumentException("Watermarks must satisfy 0 < low <= high <= 1: " + lowWatermark + ", " + highWatermark);
+		}
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+	}
+
+	/**
+	 * 
+	 * @return true if dirty page groups are written by the background flusher.
+	 */
+	public boolean isWriteBehind() {
+		return writeBehind;
+	}
+
+	/**
+	 * With write-behind a background thread writes dirty page groups to the database
+	 * in LRU order, so eviction mostly finds clean victims and doesn't encode on the
+	 * caller's thread. It is used when the buffer is (re)initialized.
+	 * 
+	 * @param writeBehind (Default: false)
+	 */
+	public void setWriteBehind(boolean writeBehind) {
+		this.writeBehind = writeBehind;
+	}
+
+	/**
+	 * 
+	 * @return Fraction of dirty page groups in the buffer where the flusher starts cleaning.
+	 */
+	public double getDirtyHighRatio() {
+		return dirtyHighRatio;
+	}
+
+	/**
+	 * 
+	 * @return Fraction of dirty page groups in the buffer where the flusher stops cleaning.
+	 */
+	public double getDirtyLowRatio() {
+		return dirtyLowRatio;
+	}
+
+	/**
+	 * 
+	 * @param dirtyLowRatio Fraction of dirty groups where the flusher stops. (Default: 0.1)
+	 * @param dirtyHighRatio Fraction of dirty groups where the flusher starts. (Default: 0.3)
+	 */
+	public void setDirtyRatios(double dirtyLowRatio, double dirtyHighRatio) {
+		if(dirtyLowRatio < 0 || dirtyHighRatio > 1 || dirtyLowRatio > dirtyHighRatio){
+			throw new IllegalArgumentException("Dirty ratios must satisfy 0 <= low <= high <= 1: " + dirtyLowRatio + ", " + dirtyHighRatio);
+		}
+		this.dirtyLowRatio = dirtyLowRatio;
+		this.dirtyHighRatio = dirtyHighRatio;
+	}
+
+	/**
+	 * 
+	 * @return Milliseconds between two checks of the flusher.
+	 */
+	public long getFlushInterval() {
+		return flushInterval;
+	}
+
+	/**
+	 * 
+	 * @param flushInterval Milliseconds between two checks of the flusher. (Default: 500)
+	 */
+	public void setFlushInterval(long flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+	/**
+	 * 
+	 * @return Number of page groups the flusher writes in one database batch.
+	 */
+	public int getFlushBatchSize() {
+		return flushBatchSize;
+	}
+
+	/**
+	 * 
+	 * @param flushBatchSize Number of page groups written in one database batch. (Default: 8)
+	 */
+	public void setFlushBatchSize(int flushBatchSize) {
+		this.flushBatchSize = flushBatchSize;
+	}
+
+	/**
+	 * 
+	 * @return true if the page groups of cross edge destinations are prefetched.
+	 */
+	public boolean isReadAhead() {
+		return readAhead;
+	}
+
+	/**
+	 * With read-ahead, when a page group is decoded the page groups holding the
+	 * destinations of its cross edges are read from the database in the background,
+	 * so a traversal reaching them doesn't wait for the database.
+	 * 
+	 * @param readAhead (Default: false)
+	 */
+	public void setReadAhead(boolean readAhead) {
+		this.readAhead = readAhead;
+	}
+
+	/**
+	 * 
+	 * @return Max number of nodes a decoded page group queues for prefetch.
+	 */
+	public int getReadAheadBudget() {
+		return readAheadBudget;
+	}
+
+	/**
+	 * 
+	 * @param readAheadBudget Max number of nodes a decoded page group queues for prefetch. (Default: 8)
+	 */
+	public void setReadAheadBudget(int readAheadBudget) {
+		this.readAheadBudget = readAheadBudget;
+	}
+
+	/**
+	 * 
+	 * @return Max bytes of prefetched blocks kept until they are used.
+	 */
+	public long getReadAheadCacheBytes() {
+		return readAheadCacheBytes;
+	}
+
+	/**
+	 * 
+	 * @param readAheadCacheBytes Max bytes of prefetched blocks kept until they are used. (Default: 64 MB)
+	 */
+	public void setReadAheadCacheBytes(long readAheadCacheBytes) {
+		this.readAheadCacheBytes = readAheadCacheBytes;
+	}
+
+	/**
+	 * 
+	 * @return Whether page data is kept off-heap.
+	 */
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	/**
+	 * Page data is allocated from slabs of the page arena. Off-heap slabs keep the
+	 * large blocks out of the garbage collected heap. It can only be changed while
+	 * the buffer is empty.
+	 * 
+	 * @param offHeap (Default: false)
+	 */
+	public void setOffHeap(boolean offHeap) {
+		this.offHeap = offHeap;
+	}
+
+	/**
+	 * 
+	 * @return Whether the hot set of the last shutdown is preloaded when a database is opened.
+	 */
+	public boolean isWarmStart() {
+		return warmStart;
+	}
+
+	/**
+	 * At shutdown the page groups in the buffer are recorded in recency order. With
+	 * warm start they are loaded back when the database is opened again, before the
+	 * graph is used, instead of faulting in one by one.
+	 * 
+	 * @param warmStart (Default: false, or the graphdb.buffer.warmstart system property)
+	 */
+	public void setWarmStart(boolean warmStart) {
+		this.warmStart = warmStart;
+	}
+
+	/**
+	 * 
+	 * @return Number of threads reading the hot set from the database.
+	 */
+	public int getWarmStartThreads() {
+		return warmStartThreads;
+	}
+
+	/**
+	 * 
+	 * @param warmStartThreads Number of threads reading the hot set from the database. (Default: 4)
+	 */
+	public void setWarmStartThreads(int warmStartThreads) {
+		this.warmStartThreads = warmStartThreads;
+	}
+
+	/**
+	 * 
+	 * @return Number of page groups read together by the warm start.
+	 */
+	public int getWarmStartBatchSize() {
+		return warmStartBatchSize;
+	}
+
+	/**
+	 * 
+	 * @param warmStartBatchSize Number of page groups read together by the warm start. (Default: 16)
+	 */
+	public void setWarmStartBatchSize(int warmStartBatchSize) {
+		this.warmStartBatchSize = warmStartBatchSize;
+	}
+
+	/**
+	 * 
+	 * @return Max page groups preloaded per second, 0 means no limit.
+	 */
+	public double getWarmStartRate() {
+		return warmStartRate;
+	}
+
+	/**
+	 * 
+	 * @param warmStartRate Max page groups preloaded per second, 0 means no limit. (Default: 0)
+	 */
+	public void setWarmStartRate(double warmStartRate) {
+		this.warmStartRate = warmStartRate;
+	}
+
+	/**
+	 * 
+	 * @return Max milliseconds the warm start takes, 0 means no limit.
+	 */
+	public long getWarmStartTimeout() {
+		return warmStartTimeout;
+	}
+
+	/**
+	 * The warm start runs on the thread opening the database, outside the lock of
+	 * GraphManager.getInstance. The rest of the hot set faults in as it is used.
+	 * 
+	 * @param warmStartTimeout Max milliseconds the warm start takes, 0 means no limit. (Default: 30000)
+	 */
+	public void setWarmStartTimeout(long warmStartTimeout) {
+		if(warmStartTimeout < 0){
+			throw new IllegalArgumentException("Warm start timeout can't be negative: " + warmStartTimeout);
+		}
+		this.warmStartTimeout = warmStartTimeout;
+	}
+
+	/**
+	 * 
+	 * @return Format version of the written pages.
+	 */
+	public int getPageFormat() {
+		return pageFormat;
+	}
+
+	/**
+	 * Version 2 sorts the adjacency lists and writes the ids as varint deltas, which
+	 * makes the pages several times smaller. Pages of both versions are always read,
+	 * version 1 is the one older releases write.
+	 * 
+	 * @param pageFormat 1 or 2. (Default: 1)
+	 */
+	public void setPageFormat(int pageFormat) {
+		if(pageFormat != 1 && pageFormat != 2){
+			throw new IllegalArgumentException("Unknown page format: " + pageFormat);
+		}
+		this.pageFormat = pageFormat;
+	}
+
+	/**
+	 * 
+	 * @return Whether the nodes of a read page are decoded when they are first used.
+	 */
+	public boolean isLazyDecode() {
+		return lazyDecode;
+	}
+
+	/**
+	 * With lazy decoding only the nodes of a read page are created, their offsets in the
+	 * page are recorded and the edges and properties of a node are decoded when the node
+	 * is first used. A point query on a large subgraph then decodes a single node instead
+	 * of the whole page group. A subgraph is fully decoded before it is changed. Only
+	 * version 2 pages are read lazily.
+	 * 
+	 * @param lazyDecode (Default: false, or the graphdb.buffer.lazydecode system property)
+	 */
+	public void setLazyDecode(boolean lazyDecode) {
+		this.lazyDecode = lazyDecode;
+	}
+
+	/**
+	 * 
+	 * @return Name of the codec the pages are compressed with when they are written.
+	 */
+	public String getPageCompression() {
+		return pageCompression;
+	}
+
+	/**
+	 * Pages are compressed on their way to the database and decompressed when they are
+	 * read, the buffer holds them raw. Every compressed page names its codec, so a
+	 * database can hold pages of any codec and they are all read. lz4 is fast enough to
+	 * pay off whenever the disk is slower than memory, deflate writes smaller pages for
+	 * slow disks. Other codecs can be added with PageCompression.register. Databases
+	 * created by older releases have headerless pages and are never compressed.
+	 * 
+	 * @param pageCompression none, lz4, deflate or a registered codec. (Default: none, or the graphdb.buffer.compression system property)
+	 */
+	public void setPageCompression(String pageCompression) {
+		//fail on unknown names here rather than at the first write
+		PageCompression.getCodec(pageCompression);
+		this.pageCompression = pageCompression;
+	}
+
+	/**
+	 * 
+	 * @return When the checksums of the read pages are verified, none, first or always.
+	 */
+	public String getPageChecksum() {
+		return pageChecksum;
+	}
+
+	/**
+	 * Pages are written with a CRC32 unless it is none. With always every page read from
+	 * the database is verified, with first only the first read of a page after startup
+	 * is, later reads of the page trust the database. A page failing its checksum isn't
+	 * loaded, a PageCorruptedException is thrown instead. Pages written without a
+	 * checksum and the headerless pages of older databases are never verified.
+	 * 
+	 * @param pageChecksum none, first or always. (Default: none, or the graphdb.buffer.checksum system property)
+	 */
+	public void setPageChecksum(String pageChecksum) {
+		pageChecksum = pageChecksum.toLowerCase();
+		if(!pageChecksum.equals("none") && !pageChecksum.equals("first") && !pageChecksum.equals("always")){
+			throw new IllegalArgumentException("Unknown page checksum: " + pageChecksum);
+		}
+		this.pageChecksum = pageChecksum;
+	}
+
+	/**
+	 * 
+	 * @return Max pages per second the scrubber verifies, 0 if there is no scrubber.
+	 */
+	public double getScrubRate() {
+		return scrubRate;
+	}
+
+	/**
+	 * The scrubber goes over every page of the database in the background, verifies
+	 * their checksums and logs the corrupted ones. It starts over when it is done. Keep
+	 * the rate low enough not to compete with the page faults.
+	 * 
+	 * @param scrubRate (Default: 0)
+	 */
+	public void setScrubRate(double scrubRate) {
+		this.scrubRate = scrubRate;
+	}
+
+	/**
+	 * 
+	 * @return Whether the stages of the page reads and writes are timed.
+	 */
+	public boolean isStageTiming() {
+		return stageTiming;
+	}
+
+	/**
+	 * The time of every page read and write is split into the stages of PageStage, each
+	 * recorded into its own histogram of BufferMetrics. Decoding and encoding read the
+	 * clock a few times per node, turn it off to save that on very small nodes.
+	 * 
+	 * @param stageTiming (Default: false, or the graphdb.buffer.stagetiming system property)
+	 */
+	public void setStageTiming(boolean stageTiming) {
+		this.stageTiming = stageTiming;
+	}
+
+	/**
+	 * 
+	 * @return Number of lock stripes the buffer's page table is partitioned into.
+	 */
+	public int getConcurrencyLevel() {
+		return concurrencyLevel;
+	}
+
+	/**
+	 * Set it around the number of threads accessing the graph concurrently. It is
+	 * used when the buffer is (re)initialized.
+	 * 
+	 * @param concurrencyLevel Number of lock stripes in the page table. (Default: 16)
+	 */
+	public void setConcurrencyLevel(int concurrencyLevel) {
+		this.concurrencyLevel = concurrencyLevel;
+	}
+
+	/**
+	 * 
+	 * @return The policy deciding which page group is evicted when the buffer is full.
+	 */
+	public EvictionPolicy getEvictionPolicy() {
+		return evictionPolicy;
+	}
+
+	/**
+	 * To change the policy of a running buffer pass the configuration to
+	 * GraphManager.setBufferConfiguration so the buffered pages are handed over.
+	 * 
+	 * @param evictionPolicy Eviction policy of the buffer. (Default: value of graphdb.buffer.eviction or lru)
+	 */
+	public void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+		this.evictionPolicy = evictionPolicy;
+	}
+
+	/**
+	 * 
+	 * @param name One of lru, clock, 2q, arc or cost.
+	 */
+	public void setEvictionPolicy(String name) {
+		this.evictionPolicy = createEvictionPolicy(name);
+	}
+
+	public static EvictionPolicy createEvictionPolicy(String name) {
+		if("lru".equalsIgnoreCase(name)){
+			return new PageLRUEvict();
+		}
+		else if("clock".equalsIgnoreCase(name)){
+			return new PageClockEvict();
+		}
+		else if("2q".equalsIgnoreCase(name)){
+			return new PageTwoQueueEvict();
+		}
+		else if("arc".equalsIgnoreCase(name)){
+			return new PageARCEvict();
+		}
+		else if("cost".equalsIgnoreCase(name)){
+			return new PageCostAwareEvict();
+		}
+
+		throw new IllegalArgumentException("Unknown eviction policy: " + name);
+	}
 }
@@ -0,0 +1,159 @@
+package graphdb.graph;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Background thread which writes dirty page groups of the buffer to the database
+ * before they are chosen for eviction. It wakes up every flush interval and, when
+ * the fraction of dirty groups is over the high dirty ratio, cleans groups in LRU
+ * order until it is under the low dirty ratio.
+ *
+ * A flush of every dirty group can be requested with flushAll, which blocks until
+ * the flusher has done it.
+ */
+public class BufferFlusher implements Runnable {
+	private static Logger log = Logger.getLogger(BufferFlusher.class.getName());
+
+	private final BufferManager bm;
+	private Thread thread;
+	private volatile boolean running;
+
+	//full flush requests, guarded by this
+	private long requestedPass;
+	private long completedPass;
+
+	public BufferFlusher(BufferManager bm) {
+		this.bm = bm;
+		this.requestedPass = 0;
+		this.completedPass = 0;
+	}
+
+	public synchronized void start(){
+		if(running){
+			return;
+		}
+
+		running = true;
+		thread = new Thread(this, "graphdb-buffer-flusher");
+		thread.setDaemon(true);
+		thread.start();
+
+		log.info("Buffer flusher started.");
+	}
+
+	/**
+	 * Stops the flusher after its current batch and waits for the thread to end.
+	 */
+	public void stop(){
+		Thread t = null;
+
+		synchronized (this) {
+			if(!running){
+				return;
+			}
+
+			running = false;
+			t = thread;
+			thread = null;
+			notifyAll();
+		}
+
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		log.info("Buffer flusher stopped.");
+	}
+
+	public boolean isRunning(){
+		return running;
+	}
+
+	/**
+	 * Makes the flusher check the dirty ratio now instead of at the end of its interval.
+	 */
+	public synchronized void wakeUp(){
+		notifyAll();
+	}
+
+	/**
+	 * Makes the flusher write every dirty page group in the buffer and waits for it.
+	 * Groups changed while they are written stay dirty.
+	 *
+	 * @param timeout Max milliseconds to wait, 0 waits until it is done.
+	 * @return false if the flusher is not running or didn't finish in time.
+	 */
+	public synchronized boolean flushAll(long timeout){
+		if(!running){
+			return false;
+		}
+
+		long ticket = ++requestedPass;
+		notifyAll();
+
+		long deadline = System.currentTimeMillis() + timeout;
+		while(running && completedPass < ticket){
+			long wait = timeout == 0 ? 0 : deadline - System.currentTimeMillis();
+			if(timeout != 0 && wait <= 0){
+				return false;
+			}
+
+			try {
+				wait(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+
+		return completedPass >= ticket;
+	}
+
+	@Override
+	public void run() {
+		while(true){
+			long pass;
+
+			synchronized (this) {
+				if(running && requestedPass == completedPass && bm.getDirtyRatio() <= bm.getBufferConf().getDirtyHighRatio()){
+					try {
+						wait(bm.getBufferConf().getFlushInterval());
+					} catch (InterruptedException e) {
+						running = false;
+					}
+				}
+
+				if(!running){
+					break;
+				}
+
+				pass = requestedPass;
+			}
+
+			try {
+				if(pass > completedPass){
+					bm.cleanDirtyGroups(0.0, true);
+				}
+				else if(bm.getDirtyRatio() > bm.getBufferConf().getDirtyHighRatio()){
+					bm.cleanDirtyGroups(bm.getBufferConf().getDirtyLowRatio(), false);
+				}
+			} catch (RuntimeException e) {
+				log.error("Buffer flusher failed to write dirty pages.", e);
+			}
+
+			synchronized (this) {
+				if(pass > completedPass){
+					completedPass = pass;
+				}
+				notifyAll();
+			}
+		}
+
+		//release the waiters
+		synchronized (this) {
+			notifyAll();
+		}
+	}
+}
@@ -1,20 +1,25 @@
 package graphdb.graph;
 
 import graphdb.connector.LevelDBConnectorJava;
-import graphdb.util.DoublyLinkedList;
+import graphdb.util.PageCodec;
 import graphdb.util.Property;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
@@ -23,21 +28,41 @@ public class BufferManager {
 	private static Logger log = Logger.getLogger(BufferManager.class.getName());
 	private DatabaseConnector db = null;
 
-	public int bytesWritten;
-	public int bytesRead;
+	private Queue<Page> readRequests;
+	private BufferPool pool; //buffer for pages
+	private EvictionPolicy policy;
+
+	//two most recently accessed page groups, they are kept while a subgraph is worked on
+	private volatile Page lastAccessed;
+	private volatile Page prevAccessed;
+
+	private BufferMetrics metrics;
+
+	//logical clock stamping the leading pages of the accessed groups
+	private final AtomicLong accessClock = new AtomicLong(0);
+
+	private BufferFlusher flusher;
+	private PagePrefetcher prefetcher;
+	private volatile PageArena arena; // memory of the page data
+	private BufferWarmer warmer;
+	private PageScrubber scrubber;
 
-	public long writeTime;
-	public long readTime;
+	//pages whose checksum is verified since startup
+	private final Set<Long> verifiedPages = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
 
-	public long invalidateTime;
-	public long validateTime;
+	//guards eviction and admission, buffer hits don't need it
+	private final Object evictionLock = new Object();
 
-	private LinkedList<Page> readRequests;
-	public DoublyLinkedList<Page> buff; //buffer for pages
+	//leading pages of the pinned groups, guarded by evictionLock
+	private final Set<Page> pinned = new HashSet<Page>();
 
-	private HashMap<Long, DoublyLinkedList.Node<Page>> elementIndex;
+	//bytes charged for the buffered groups, see getBufferedBytes, guarded by evictionLock
+	private long bufferedBytes;
 
 	Property sysprops; //system properties
+
+	//whether the pages of the database start with a PageCompression header, see FRAMED_PAGES_PROPERTY
+	private volatile boolean framedPages;
 	BufferConfiguration buffConf;
 
 	private BufferManager(){
@@ -48,8 +73,14 @@ public class BufferManager {
 		log.info("BufferManager created.");
 		this.buffConf = new BufferConfiguration();
 
-		this.bytesRead = 0;
-		this.bytesWritten = 0;
+		this.metrics = new BufferMetrics(this);
+		this.metrics.register();
+
+		this.flusher = new BufferFlusher(this);
+		this.prefetcher = new PagePrefetcher();
+		this.arena = new PageArena(buffConf.isOffHeap(), buffConf.getMaxBlockSize());
+		this.warmer = new BufferWarmer(this);
+		this.scrubber = new PageScrubber(this);
 
 		//initialize bm fields
 		initialize();
@@ -64,9 +95,10 @@ public class BufferManager {
 	}
 
 	public void initialize(){
-		this.buff = new DoublyLinkedList<Page>();
-		this.elementIndex = new HashMap<Long, DoublyLinkedList.Node<Page>>();
-		this.readRequests = new LinkedList<Page>();
+		this.pool = new BufferPool(buffConf.getConcurrencyLevel());
+		this.policy = buffConf.getEvictionPolicy();
+		this.policy.initialize(buffConf.getMaxBufferSize());
+		this.readRequests = new ConcurrentLinkedQueue<Page>();
 
 
 		if(db == null){
@@ -83,29 +115,24 @@ public class BufferManager {
 		}
 
 
+		if(buffConf.isWriteBehind()){
+			flusher.start();
+		}
+
+		if(buffConf.isReadAhead()){
+			startReadAhead();
+		}
+
+		if(buffConf.getScrubRate() > 0){
+			scrubber.start();
+		}
+
 		log.info("BufferManager initialized.");
 		getSystemProperties();
 	}
 
 	public byte[] initGraphDb(){
-		byte[] syspropdata = null;
-
-		try {
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			ObjectOutputStream oos = new ObjectOutputStream(baos);
-			Property sysprop = new Property();
-
-			sysprop.setProperty("pageIdCount", new Long(0));
-			//write to output stream
-			oos.writeObject(sysprop);
-
-			syspropdata = baos.toByteArray();
-
-			oos.close();
-			baos.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		byte[] syspropdata = GraphCatalog.encodeSystemProperties(0, new long[0], true);
 
 		//put initialized values into the database
 		db.initGraphDb(syspropdata);
@@ -125,17 +152,16 @@ public class BufferManager {
 		}
 
 		try {
-			ByteArrayInputStream bais = new ByteArrayInputStream(syspropdata);
-			ObjectInputStream ois = new ObjectInputStream(bais);
-
-			sysprops = (Property) ois.readObject();
+			sysprops = GraphCatalog.decodeSystemProperties(syspropdata);
 
 			//send page id count to page manager
 			long pageIdCount = (Long) sysprops.getProperty("pageIdCount");
 			PageManager.getInstance().setPageIdCount(pageIdCount);
 
-			ois.close();
-			bais.close();
+			framedPages = Boolean.TRUE.equals(sysprops.getProperty(PageCompression.FRAMED_PAGES_PROPERTY));
+			if(!framedPages && (!"none".equals(buffConf.getPageCompression()) || !"none".equals(buffConf.getPageChecksum()))){
+				log.warn("Pages of the database have no headers, they are written without compression and checksum.");
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		} catch (ClassNotFoundException e) {
@@ -151,57 +177,342 @@ public class BufferManager {
 	}
 
 	private void issueReadRequests(){
-		for (Iterator<Page> it = readRequests.iterator(); it.hasNext();) {
+		Page request = null;
+		while((request = readRequests.poll()) != null) {
 			//TODO: first page may not needed here iterator can be fetched only
-			Page firstpage = it.next().getAdjacentPagesList().getFirstElement(); //get the first element in the list
+			Page firstpage = request.getAdjacentPagesList().getFirstElement(); //get the first element in the list
 
-			bytesRead = 0;
-			readTime = System.currentTimeMillis();
+			int pagesRead = 0;
+			long bytesRead = 0;
+			long corrupted = -1;
+			long readTime = System.nanoTime();
+			StageTimer timer = new StageTimer(this, PageStage.CONNECTOR_READ);
 
 			//go over the adj page list of the requested page and bring the pages
 			for (Iterator<Page> it2 = firstpage.getAdjacentPagesList().iterator(); it2.hasNext();) {
 				Page p = it2.next();
 
-				//go and read the page from database to the buffer.
-				byte[] pagedata = db.getBlock(p.getId());
-
-				bytesRead += pagedata.length;
+				//go and read the page from database to the buffer, unless it is prefetched
+				timer.enter(PageStage.CONNECTOR_READ);
+				byte[] pagedata = prefetcher.takeBlock(p.getId());
+				if(pagedata == null){
+					pagedata = db.getBlock(p.getId());
+				}
 
 				//set its data
 				if(pagedata != null){
-					p.setData(pagedata);
+					pagesRead++;
+					bytesRead += pagedata.length;
+
+					timer.enter(PageStage.VERIFY);
+					if(!verifyPage(p.getId(), pagedata, false)){
+						corrupted = p.getId();
+						break;
+					}
+
+					timer.enter(PageStage.DECOMPRESS);
+					if(!framedPages){
+						p.setData(PageCompression.copy(pagedata, arena));
+					}
+					else {
+						try {
+							p.setData(PageCompression.decompress(p.getId(), pagedata, arena));
+						} catch (PageCorruptedException e) {
+							log.error(e.getMessage());
+							corrupted = p.getId();
+							break;
+						}
+					}
 				}
 			}
-			readTime = System.currentTimeMillis() - readTime;
+			timer.record();
+			readTime = System.nanoTime() - readTime;
+			metrics.recordRead(pagesRead, bytesRead, readTime);
+
+			if(corrupted != -1){
+				//take the half read group out of the buffer, it has no nodes yet
+				synchronized (evictionLock) {
+					evictGroup(firstpage);
+				}
+
+				throw new PageCorruptedException(corrupted, "Page " + corrupted + " of graph " + firstpage.getGraphId()
+						+ " is corrupted in the database.");
+			}
 
-			it.remove();
+			//decode time is added by the page manager
+			firstpage.setLoadCost(readTime);
+
+			//size of the group is known after it is read
+			reclaim(firstpage);
 		}
 
 	}
 
 	private void addToBuffer(Page p){
-		if(!elementIndex.containsKey(p.getId())){
-			log.debug("Page "+ p.getId() + " is requested to be added to buffer.");
+		synchronized (evictionLock) {
+			if(!pool.contains(p.getId())){
+				log.debug("Page "+ p.getId() + " is requested to be added to buffer.");
+
+				//if buffer is full get rid of the victims first
+				Page leader = p.getAdjacentPagesList().getFirstElement();
+				reclaim(leader);
+
+				while(pool.getSize() >= buffConf.getMaxBufferSize()){
+					log.debug("Buffer is full. Initiating LRU page action.");
+
+					//the groups in use aren't evicted under the page being added, the buffer goes over its limit until reclaim
+					Page victim = selectVictim(leader, false);
+					if(victim == null){
+						if(leader.getAdjacentPagesList().getSize() >= buffConf.getMaxBufferSize() && pool.getSize() == buffConf.getMaxBufferSize()){
+							log.warn("Page group of " + leader + " has more pages than the buffer holds (" + buffConf.getMaxBufferSize() + "), consider a larger buffer.");
+						}
+						else {
+							log.debug("Buffer is full of page groups in use, it is over its limit with " + pool.getSize() + " pages.");
+						}
+						break;
+					}
+					evictGroup(victim);
+				}
 
-			//if buffer is not full prepend to the list
-			if(buff.getSize() < buffConf.getMaxBufferSize()){
 				log.debug("Page "+ p.getId() + " is added to buffer.");
+				pool.add(p);
+
+				leader.setLastAccess(accessClock.incrementAndGet());
+				if(leader == p){
+					policy.admit(p);
+				}
+				else {
+					//a new page of a partitioned group
+					policy.access(leader);
+				}
+			}
+		}
+	}
 
-				DoublyLinkedList.Node<Page> element = buff.prependElement(p);
-				elementIndex.put(p.getId(), element);
+	public void writeLruPageToDb(){
+		synchronized (evictionLock) {
+			evictLruPage();
+		}
+	}
+
+	/**
+	 * Pins the group of the page so it isn't evicted until the pin is released.
+	 * Pins are counted, a group can be pinned more than once.
+	 * 
+	 * @return The pin, null if the page is not in the buffer.
+	 */
+	public PagePin pin(Page p){
+		Page leader = p.getAdjacentPagesList().getFirstElement();
+
+		synchronized (evictionLock) {
+			if(!pool.contains(leader.getId()) || PageManager.getInstance().getPage(leader.getId()) != leader){
+				return null;
 			}
-			else {
-				log.debug("Buffer is full. Initiating LRU page action.");
-				//get rid of the LRU page
-				writeLruPageToDb();
 
-				//try to add p again
-				addToBuffer(p);
+			leader.setPinCount(leader.getPinCount() + 1);
+			pinned.add(leader);
+		}
+
+		return new PagePin(leader);
+	}
+
+	void unpin(Page leader){
+		synchronized (evictionLock) {
+			if(leader.getPinCount() == 0){
+				return;
+			}
+
+			leader.setPinCount(leader.getPinCount() - 1);
+			if(leader.getPinCount() == 0){
+				pinned.remove(leader);
 			}
 		}
 	}
 
-	public void writeLruPageToDb(){
+	public boolean isPinned(Page p){
+		Page leader = p.getAdjacentPagesList().getFirstElement();
+
+		synchronized (evictionLock) {
+			return leader.getPinCount() > 0;
+		}
+	}
+
+	/**
+	 * @return Number of the pinned page groups.
+	 */
+	public int getPinnedGroupCount(){
+		synchronized (evictionLock) {
+			return pinned.size();
+		}
+	}
+
+	/**
+	 * Evicts page groups in bulk when the buffer crosses its high watermark of pages
+	 * or bytes, until it is under the low watermarks. Groups in use are not evicted,
+	 * if only those are left the buffer stays over the watermark.
+	 * 
+	 * @param keep Leading page of the group being brought in.
+	 */
+	private void reclaim(Page keep){
+		synchronized (evictionLock) {
+			int maxPages = buffConf.getMaxBufferSize();
+			long maxBytes = buffConf.getMaxBufferBytes();
+
+			//the group being brought in is the one whose size changed
+			if(keep != null){
+				charge(keep);
+			}
+
+			boolean overPages = pool.getSize() >= maxPages;
+			boolean overBytes = maxBytes > 0 && bufferedBytes > (long) (maxBytes * buffConf.getHighWatermark());
+
+			if(!overPages && !overBytes){
+				return;
+			}
+
+			int pageTarget = Math.min(maxPages - 1, (int) (maxPages * buffConf.getLowWatermark()));
+			long byteTarget = (long) (maxBytes * buffConf.getLowWatermark());
+
+			log.debug("Buffer is over its high watermark (" + pool.getSize() + " pages, " + bufferedBytes + " bytes). Bulk eviction initiated.");
+
+			//victims are cheaper to evict if they are clean
+			flusher.wakeUp();
+
+			while(pool.getSize() > pageTarget || (maxBytes > 0 && bufferedBytes > byteTarget)){
+				Page victim = selectVictim(keep, false);
+				if(victim == null){
+					log.debug("No more page groups can be evicted, buffer has " + pool.getSize() + " pages, " + bufferedBytes + " bytes.");
+					break;
+				}
+
+				evictGroup(victim);
+			}
+		}
+	}
+
+	/**
+	 * Counts the group in the buffered bytes with its current footprint. The caller holds
+	 * the lock of the group's graph, the decoded subgraph is measured.
+	 */
+	private void charge(Page leader){
+		if(!pool.contains(leader.getId())){
+			return;
+		}
+
+		long footprint = getGroupFootprint(leader);
+		bufferedBytes += footprint - leader.getCharge();
+		leader.setCharge(footprint);
+	}
+
+	/**
+	 * Charges a group after it is decoded and evicts others if the buffer is over its watermark.
+	 */
+	void chargeGroup(Page leader){
+		reclaim(leader.getAdjacentPagesList().getFirstElement());
+	}
+
+	/**
+	 * @return Bytes held by the buffered pages plus the estimated heap size of their decoded
+	 * subgraphs. A group is measured when it is read or gets a new page, and when it is
+	 * written by the flusher, so a group growing in between is counted with its older size.
+	 */
+	public long getBufferedBytes(){
+		synchronized (evictionLock) {
+			return bufferedBytes;
+		}
+	}
+
+	/**
+	 * @return Bytes of the pages of the group plus its decoded subgraph.
+	 */
+	public long getGroupFootprint(Page leader){
+		long total = getDecodedSize(leader);
+
+		for (Iterator<Page> it = leader.getAdjacentPagesList().iterator(); it.hasNext();) {
+			total += it.next().getDataSize();
+		}
+
+		return total;
+	}
+
+	private long getDecodedSize(Page leader){
+		SuperGraph superg = null;
+		try {
+			superg = (SuperGraph) GraphManager.getInstance().getGraph(leader.getGraphId());
+		} catch (NoSuchElementException e) {
+			return 0;
+		}
+
+		SubGraph sg = superg.getSubgraph(leader.getSubgraphId());
+		if(sg == null){
+			return 0;
+		}
+
+		return sg.getHeapSize();
+	}
+
+	/**
+	 * @param keep Leading page of a group which must not be chosen, can be null.
+	 * @param force If true the groups in use are chosen too when nothing else is left.
+	 */
+	private Page selectVictim(Page keep, boolean force){
+		Set<Page> excluded = new HashSet<Page>(pinned);
+		if(keep != null){
+			excluded.add(keep);
+		}
+		if(lastAccessed != null){
+			excluded.add(lastAccessed);
+		}
+		if(prevAccessed != null){
+			excluded.add(prevAccessed);
+		}
+
+		Page victim = policy.selectVictim(excluded);
+		if(victim == null && force){
+			//buffer is too small to keep the groups in use, pinned ones are still kept
+			victim = policy.selectVictim(new HashSet<Page>(pinned));
+		}
+
+		return victim;
+	}
+
+	private void evictLruPage(){
+		Page victim = selectVictim(null, true);
+
+		if(victim == null){
+			if(!pinned.isEmpty()){
+				throw new IllegalStateException("Buffer is full of pinned pages, release some pins or enlarge the buffer. Pinned : " + pinned);
+			}
+			throw new RuntimeException("Eviction policy couldn't find a page to evict. Buffer :" + pool);
+		}
+
+		evictGroup(victim);
+	}
+
+	/**
+	 * @return Footprint of the evicted group.
+	 */
+	private long evictGroup(Page victim){
+		Graph graph = null;
+		try {
+			graph = GraphManager.getInstance().getGraph(victim.getGraphId());
+		} catch (NoSuchElementException e) {
+			//the graph is deleted, nothing else uses its pages
+		}
+
+		//the flusher may be encoding a subgraph of the graph
+		if(graph == null){
+			return evictLockedGroup(victim);
+		}
+		graph.lock.lock();
+		try {
+			return evictLockedGroup(victim);
+		} finally {
+			graph.lock.unlock();
+		}
+	}
+
+	private long evictLockedGroup(Page lastPageAccSubgraph){
 		//		DoublyLinkedList.Node<Page> lastListNode = buff.getLastNode();
 
 		//		//if the adjacent block list is as big as the buffer
@@ -241,38 +552,20 @@ public class BufferManager {
 		//			}
 		//		}
 
-		//performance improvement to above O(n^2) code
-		Page lastPageAccSubgraph = null;
-		HashSet<Integer> sgInBuff = new HashSet<Integer>();
-
-		for (Iterator<Page> it = buff.iterator(); it.hasNext();) {
-			Page p = it.next();
-
-			if(!sgInBuff.contains(p.getSubgraphId())){
-				lastPageAccSubgraph = p;
-				sgInBuff.add(p.getSubgraphId());
-			}
-
-		}
-
-
 		//		Page lastpage = lastListNode.data.getAdjacentPagesList().getFirstElement();
 		Page lastpage = lastPageAccSubgraph.getAdjacentPagesList().getFirstElement();
 		int graphid = lastpage.getGraphId();
+		long footprint = lastpage.getCharge();
 
-		if(lastpage.getAdjacentPagesList().getSize() == buffConf.getMaxBufferSize()){
-			throw new RuntimeException("Buffer size is not enough to handle this graph. "
-					+ "Please set the buffer size more than " + buff.getSize());
-		}
-
-		if(lastpage.isDirty()){
-			log.trace("Buffer's last state before LRU :" + buff);
+		boolean dirty = lastpage.isDirty();
+		if(dirty){
+			log.trace("Buffer's last state before LRU :" + pool);
 
 			if(((SuperGraph) GraphManager.getInstance().getGraph(graphid)).getSubgraph(lastpage.getSubgraphId()) != null){
 				//read subgraph into page/s
-				invalidateTime = System.currentTimeMillis();
+				long encodeTime = System.nanoTime();
 				List<Long> nodeList = PageManager.getInstance().invalidatePage(lastpage);
-				invalidateTime = System.currentTimeMillis() - invalidateTime;
+				metrics.recordEncode(System.nanoTime() - encodeTime);
 
 				List<Long> pageList = new LinkedList<Long>();
 
@@ -282,32 +575,39 @@ public class BufferManager {
 				//if nodelist is empty don't write anything on db
 				if(!nodeList.isEmpty()){
 					//if the page is dirty then write it to the storage
-					bytesWritten = 0;
-					writeTime = System.currentTimeMillis();
+					PageCodec codec = PageCompression.getCodec(buffConf.getPageCompression());
+					boolean checksum = !"none".equals(buffConf.getPageChecksum());
+					long bytesWritten = 0;
+					long writeTime = System.nanoTime();
+					StageTimer timer = new StageTimer(this, PageStage.COMPRESS);
 
 					for (Iterator<Page> it = lastpage.getAdjacentPagesList().iterator(); it.hasNext();) {
 						Page page = it.next();
 
-						if(page.getData() != null){
+						if(page.hasData()){
 							pageList.add(page.getId());
 
-							bytesWritten += page.getData().length;
+							//the connector needs the data on the heap, it is compressed into a heap array
+							timer.enter(PageStage.COMPRESS);
+							byte[] block = encodeBlock(page.getDataBuffer(), codec, checksum);
+							bytesWritten += block.length;
 
 							//write the page into database
-							db.writeBlock(page.getId(), page.getData());
+							timer.enter(PageStage.CONNECTOR_WRITE);
+							db.writeBlock(page.getId(), block);
+							prefetcher.invalidateBlock(page.getId());
 						}
 						log.debug(page + " is written to db.");
 
 						// remove the page from buffer
-						buff.removeNode(elementIndex.get(page.getId()));;
-
-						//remove from the page -> buffer-node index
-						elementIndex.remove(page.getId());
+						pool.remove(page.getId());
 					}
-					writeTime = System.currentTimeMillis() - writeTime;
+					metrics.recordWrite(pageList.size(), bytesWritten, System.nanoTime() - writeTime);
 
 					log.trace("Page list written to db: " + pageList);
+					timer.enter(PageStage.CONNECTOR_WRITE);
 					writeNodeBlockList(nodeList, pageList, graphid);
+					timer.record();
 				}
 			}
 			else {
@@ -324,7 +624,7 @@ public class BufferManager {
 		}
 		else {
 			log.trace("No change in " + lastpage + ", nothing will be written to database.");
-			log.trace("Buffer's last state before LRU :" + buff);
+			log.trace("Buffer's last state before LRU :" + pool);
 
 			PageManager.getInstance(). removeNodesOfPage(lastpage);
 
@@ -333,204 +633,647 @@ public class BufferManager {
 				Page page = it.next();
 
 				// remove the page from buffer
-				buff.removeNode(elementIndex.get(page.getId()));;
-
-				//remove from the page -> buffer-node index
-				elementIndex.remove(page.getId());
+				pool.remove(page.getId());
 			}
 		}
 
+		//give the memory of the pages back to the arena
+		for (Iterator<Page> it = lastpage.getAdjacentPagesList().iterator(); it.hasNext();) {
+			Page page = it.next();
+
+			pool.remove(page.getId());
+			page.releaseData();
+		}
+		metrics.recordEviction(dirty);
+
+		policy.remove(lastpage);
+		bufferedBytes -= footprint;
+		lastpage.setCharge(0);
+		if(lastAccessed == lastpage){
+			lastAccessed = null;
+		}
+		if(prevAccessed == lastpage){
+			prevAccessed = null;
+		}
+
 		//remove the pm index/es of page/s
 		PageManager.getInstance().remove(lastpage);
+
+		return footprint;
 	}
 
-	public synchronized void issueAccessToBuffer(long pageid){
+	public void issueAccessToBuffer(long pageid){
 		Page p = PageManager.getInstance().getPage(pageid);
 		if(p == null){
 			throw new NoSuchElementException("Page doesn't exist :"+pageid);
 		}
-		buff.moveNodeToFront(elementIndex.get(p.getAdjacentPagesList().getFirstElement().getId()));
+		issueAccessToBuffer(p);
 
 		log.trace("Access to " + pageid + " is issued.");
 	}
 
-	public synchronized void issueAccessToBuffer(Page p){
-		buff.moveNodeToFront(elementIndex.get(p.getAdjacentPagesList().getFirstElement().getId()));
+	public void issueAccessToBuffer(Page p){
+		Page leader = p.getAdjacentPagesList().getFirstElement();
+
+		leader.setLastAccess(accessClock.incrementAndGet());
+		policy.access(leader);
+
+		if(leader != lastAccessed){
+			prevAccessed = lastAccessed;
+			lastAccessed = leader;
+		}
 	}
 
-	public synchronized void flushBuffer(){
+	public void flushBuffer(){
 		log.debug("Buffer flush initiated.");
+
+		//let the flusher write the dirty groups first, the eviction below then finds them clean
+		if(flusher.isRunning() && !Thread.holdsLock(evictionLock) && !holdsGraphLock()){
+			flusher.flushAll(0);
+		}
+
 		//write all elements in the buffer to the database
-		while(!buff.isEmpty()){
-			writeLruPageToDb();
+		synchronized (evictionLock) {
+			//every group leaves the buffer, pins can't be kept
+			if(!pinned.isEmpty()){
+				log.warn("Buffer is flushed with " + pinned.size() + " pinned page groups, their pins are dropped.");
+
+				for (Page leader : pinned) {
+					leader.setPinCount(0);
+				}
+				pinned.clear();
+			}
+
+			while(!pool.isEmpty()){
+				evictLruPage();
+			}
 		}
 	}
 
-	public synchronized HashMap<Integer, SuperGraph> getGraphList(){
-		HashMap<Integer, byte[]> rawGraphList = null;
-		HashMap<Integer, SuperGraph> gmap = new HashMap<Integer, SuperGraph>();
-		int maxGraphId = 0; // min graph id can only be 1 it is automatically increased in the first usage
-
-		rawGraphList = db.getGraphList();
+	//the flusher would wait for a graph lock held by the thread waiting for it
+	private boolean holdsGraphLock(){
+		for (SuperGraph g : GraphManager.getInstance().getLoadedGraphs()) {
+			if(g.lock.isHeldByCurrentThread()){
+				return true;
+			}
+		}
+		return false;
+	}
 
+	/**
+	 * The entries of the graphs are decoded when a graph is first asked for.
+	 */
+	public synchronized GraphCatalog getGraphList(){
+		HashMap<Integer, byte[]> rawGraphList = db.getGraphList();
+		rawGraphList.remove(0); // system properties
 
 		log.debug("Graph list from db is being loaded.");
-		for (Iterator<Integer> it = rawGraphList.keySet().iterator(); it.hasNext();) {
-			int key = it.next();
+		GraphCatalog catalog = new GraphCatalog(rawGraphList);
 
-			try {
-				ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(rawGraphList.get(key)));
+		// min graph id can only be 1 it is automatically increased in the first usage
+		GraphManager.getInstance().setGraphIdCount(catalog.getMaxGraphId());
+
+		return catalog;
+	}
+
+	public void writeGraphList(){
+		HashMap<Integer, byte[]> rawglist = new HashMap<Integer, byte[]>();
+
+		//write sysprop
+		rawglist.put(0, GraphCatalog.encodeSystemProperties(PageManager.getInstance().getPageIdCount(), getHotPages(), framedPages));
+
+		//now write graphs, the ones which weren't loaded are unchanged in the db
+		for(SuperGraph g: GraphManager.getInstance().getLoadedGraphs()) {
+			rawglist.put(g.getId(), GraphCatalog.encodeGraph(g));
+		}
+		//send to the db
+		db.writeGraphList(rawglist);
+	}
 
-				if(key != 0) {
-					Property gprops = (Property) ois.readObject();
+	public List<Long> getPageListFromDb(long nodeid, int graphid) {
+		List<Long> prefetched = prefetcher.takePageList(nodeid, graphid);
+		if(prefetched != null){
+			return prefetched;
+		}
 
-					long nodeIdCnt = (Long) gprops.getProperty("nodeIdCount");
-					long nodeCnt = (Long) gprops.getProperty("nodeCount");
-					String graphName = (String) gprops.getProperty("graphName");
+		List<Long> pageList = PageDirectory.readPageList(db, db.getBlockList(nodeid, graphid));
+		return pageList != null ? pageList : new LinkedList<Long>();
+	}
 
-					log.debug("Graph " + key + " = nodeIdCnt:" + nodeIdCnt + ", nodeCnt:" + nodeCnt);
+	public List<Long> getAllNodeList(int graphid){
+		return db.getNodeList(graphid);
+	}
 
-					//					SuperGraph tempg = GraphManager.getInstance().createSuperGraph(key, nodeIdCnt, edgeIdCnt, nodeCnt);
+	public void addPageToBuffer(Page p) {
+		addToBuffer(p);
+	}
 
-					SuperGraph tempg = new SuperGraph(key, graphName, nodeIdCnt, nodeCnt);
+	/**
+	 * Points the nodes to their page group. The page list is written once for the group,
+	 * under the id of its leading page, and the node entries only name the group.
+	 */
+	public void writeNodeBlockList(List<Long> nodeList, List<Long> pageList, int graphid){
+		long groupid = pageList.get(0);
 
-					maxGraphId = key > maxGraphId ? key : maxGraphId;
+		//the group is written first, so a node entry never names a missing group
+		db.writePageGroup(groupid, PageDirectory.encodePageList(pageList));
+		db.writeNodeBlockList(nodeList, PageDirectory.encodeNodeEntry(groupid), graphid);
+		prefetcher.invalidatePageLists(nodeList);
+	}
+
+	public Iterator<Long> getAllNodes(int graphid) {
+		return db.getNodeList2(graphid);
+	}
+
+	public BufferConfiguration getBufferConf(){
+		return buffConf;
+	}
+
+	public BufferPool getBufferPool(){
+		return pool;
+	}
 
-					gmap.put(key, tempg);
+	/**
+	 * Replaces the eviction policy of the buffer. Page groups already in the buffer
+	 * are handed over to the new policy.
+	 */
+	public void setEvictionPolicy(EvictionPolicy newPolicy){
+		synchronized (evictionLock) {
+			newPolicy.initialize(buffConf.getMaxBufferSize());
+
+			for (Page p : pool) {
+				if(p.getAdjacentPagesList().getFirstElement() == p){
+					newPolicy.admit(p);
 				}
-			} catch (IOException e) {
-				e.printStackTrace();
-			} catch (ClassNotFoundException e) {
-				e.printStackTrace();
 			}
+
+			buffConf.setEvictionPolicy(newPolicy);
+			this.policy = newPolicy;
 		}
 
-		GraphManager.getInstance().setGraphIdCount(maxGraphId);
+		log.info("Eviction policy is set to " + newPolicy.getClass().getSimpleName());
+	}
 
-		return gmap;
+	/**
+	 * Queues the page groups of the nodes for read-ahead if it is on. The budget of the
+	 * configuration limits how many nodes a decoded page group can queue.
+	 */
+	public void readAhead(int graphid, List<Long> nodeIds){
+		if(prefetcher.isRunning() && !nodeIds.isEmpty()){
+			prefetcher.prefetch(graphid, nodeIds);
+		}
 	}
 
-	public void writeGraphList(){
-		HashMap<Integer, byte[]> rawglist = new HashMap<Integer, byte[]>();
+	/**
+	 * Turns the read-ahead of the neighbor page groups on or off.
+	 */
+	public void setReadAhead(boolean readAhead){
+		buffConf.setReadAhead(readAhead);
 
-		//write sysprop
-		try {
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			ObjectOutputStream oos = new ObjectOutputStream(baos);
-			Property sysprop = new Property();
+		if(readAhead){
+			startReadAhead();
+		}
+		else {
+			prefetcher.stop();
+		}
+	}
 
-			sysprop.setProperty("pageIdCount", new Long(PageManager.getInstance().getPageIdCount()));
-			//write to output stream
-			oos.writeObject(sysprop);
+	private void startReadAhead(){
+		prefetcher.start(db, 4 * buffConf.getReadAheadBudget(), buffConf.getReadAheadCacheBytes());
+	}
 
+	public PagePrefetcher getPrefetcher(){
+		return prefetcher;
+	}
 
-			//put into rawglist
-			rawglist.put(0, baos.toByteArray());
+	/**
+	 * Turns the background flusher on or off.
+	 */
+	public void setWriteBehind(boolean writeBehind){
+		buffConf.setWriteBehind(writeBehind);
 
-			oos.close();
-			baos.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+		if(writeBehind){
+			flusher.start();
+		}
+		else {
+			flusher.stop();
 		}
+	}
 
-		//now write graphs
-		Iterable<Graph> iter = GraphManager.getInstance().getGraphList();
-		for(Graph g: iter) {
-			//write graphs
-			try {
-				ByteArrayOutputStream baos = new ByteArrayOutputStream();
-				ObjectOutputStream oos = new ObjectOutputStream(baos);
-				Property gprops = new Property();
-				SuperGraph tempsuperg = (SuperGraph) g;
+	DatabaseConnector getDatabase(){
+		return db;
+	}
+
+	/**
+	 * @return Whether the pages of the database start with a PageCompression header.
+	 */
+	boolean hasFramedPages(){
+		return framedPages;
+	}
+
+	/**
+	 * Checks the checksum of a page read from the database, as the checksum mode of the
+	 * configuration says. A failure is logged and counted. The pages of a database
+	 * without framed pages have no checksum and always pass.
+	 * 
+	 * @param force Verify even if the mode is none or the page is already verified.
+	 * @return false if the page fails its checksum.
+	 */
+	boolean verifyPage(long pageid, byte[] stored, boolean force){
+		if(!framedPages){
+			return true;
+		}
 
-				gprops.setProperty("nodeIdCount", new Long(tempsuperg.getNodeIdCount()));
-				gprops.setProperty("nodeCount", new Long(tempsuperg.getNumNodes()));
-				gprops.setProperty("graphName", tempsuperg.getName());
+		String mode = buffConf.getPageChecksum();
+		if(!force && (mode.equals("none") || (mode.equals("first") && verifiedPages.contains(pageid)))){
+			return true;
+		}
+
+		if(!PageCompression.verify(stored)){
+			metrics.recordChecksumFailure();
+			log.error("Page " + pageid + " fails its checksum, it is corrupted in the database.");
+			return false;
+		}
 
-				//write to output stream
-				oos.writeObject(gprops);
+		if(PageCompression.hasChecksum(stored)){
+			verifiedPages.add(pageid);
+		}
+		return true;
+	}
+
+	/**
+	 * Turns the background scrubber on or off, it is on when the rate is over 0.
+	 */
+	public void setScrubRate(double scrubRate){
+		buffConf.setScrubRate(scrubRate);
+
+		if(scrubRate > 0){
+			scrubber.start();
+		}
+		else {
+			scrubber.stop();
+		}
+	}
+
+	public PageScrubber getScrubber(){
+		return scrubber;
+	}
+
+	/**
+	 * @return (graph id, leading page id, node id) of the groups in the buffer, most recently used first.
+	 */
+	private long[] getHotPages(){
+		List<Page> leaders = new ArrayList<Page>();
+		for (Page p : pool.snapshot()) {
+			if(p.getAdjacentPagesList().getFirstElement() == p){
+				leaders.add(p);
+			}
+		}
+
+		Collections.sort(leaders, new Comparator<Page>() {
+			@Override
+			public int compare(Page p1, Page p2) {
+				return p1.getLastAccess() > p2.getLastAccess() ? -1 : (p1.getLastAccess() == p2.getLastAccess() ? 0 : 1);
+			}
+		});
 
-				//put into rawglist
-				rawglist.put(g.getId(), baos.toByteArray());
+		List<Long> hot = new ArrayList<Long>();
+		for (Page leader : leaders) {
+			SubGraph sg = null;
+			try {
+				sg = ((SuperGraph) GraphManager.getInstance().getGraph(leader.getGraphId())).getSubgraph(leader.getSubgraphId());
+			} catch (NoSuchElementException e) {
+				continue;
+			}
 
-			} catch (IOException e) {
-				e.printStackTrace();
+			//any node of the group brings the whole group
+			if(sg == null || sg.nodeMap.isEmpty()){
+				continue;
 			}
 
+			hot.add((long) leader.getGraphId());
+			hot.add(leader.getId());
+			hot.add(sg.nodeMap.keySet().iterator().next());
 		}
-		//send to the db
-		db.writeGraphList(rawglist);
+
+		long[] hotPages = new long[hot.size()];
+		for (int i = 0; i < hotPages.length; i++) {
+			hotPages[i] = hot.get(i);
+		}
+		return hotPages;
 	}
 
-	public List<Long> getPageListFromDb(long nodeid, int graphid) {
-		byte[] rawdata = db.getBlockList(nodeid, graphid);
-		List<Long> blocklist = new LinkedList<Long>();
+	/**
+	 * Preloads the page groups which were in the buffer when the database was last
+	 * closed. It must finish before the graph is used, stopWarmUp ends it early.
+	 * 
+	 * @param timeout Max milliseconds to spend, 0 means no limit.
+	 * @return Number of page groups loaded.
+	 */
+	public long warmUp(long timeout){
+		if(sysprops == null || !(sysprops.getProperty(BufferWarmer.HOT_PAGES_PROPERTY) instanceof long[])){
+			return 0;
+		}
 
-		try {
-			ByteArrayInputStream dais = new ByteArrayInputStream(rawdata);
-			ObjectInputStream ois = new ObjectInputStream(dais);
+		return warmer.warm((long[]) sysprops.getProperty(BufferWarmer.HOT_PAGES_PROPERTY), timeout);
+	}
 
-			int elemNum = ois.readInt();
+	public void stopWarmUp(){
+		warmer.stop();
+	}
 
-			for (int i = 0; i < elemNum; i++) {
-				blocklist.add(ois.readLong());
+	public PageArena getPageArena(){
+		return arena;
+	}
+
+	/**
+	 * Recreates the page arena for the current block size with on or off-heap slabs.
+	 * 
+	 * @return false if the buffer is not empty, then the arena is kept.
+	 */
+	public boolean setOffHeap(boolean offHeap){
+		synchronized (evictionLock) {
+			if(!pool.isEmpty()){
+				if(offHeap != arena.isDirect()){
+					log.warn("Page arena can't be changed while the buffer holds pages.");
+				}
+				return false;
 			}
 
-			ois.close();
-			dais.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+			buffConf.setOffHeap(offHeap);
+			arena = new PageArena(offHeap, buffConf.getMaxBlockSize());
+			return true;
 		}
+	}
+
+	public BufferFlusher getFlusher(){
+		return flusher;
+	}
+
+	/**
+	 * @return Fraction of the page groups in the buffer which are dirty.
+	 */
+	public double getDirtyRatio(){
+		int groups = 0;
+		int dirty = 0;
+
+		for (Page p : pool) {
+			if(p.getAdjacentPagesList().getFirstElement() == p){
+				groups++;
 
+				if(p.isDirty()){
+					dirty++;
+				}
+			}
+		}
 
-		return blocklist;
+		if(groups == 0){
+			return 0.0;
+		}
+		return (double) dirty / (double) groups;
 	}
 
-	public List<Long> getAllNodeList(int graphid){
-		return db.getNodeList(graphid);
+	//a dirty page group encoded by the flusher, waiting to be written
+	private static class FlushRecord {
+		Page leader;
+		SubGraph sg;
+		int modCount;
+		List<Long> nodeList;
+		List<ByteBuffer> blocks;
+		List<byte[]> stored; // blocks as they are written to the database
 	}
 
-	public void addPageToBuffer(Page p) {
-		addToBuffer(p);
+	/**
+	 * Writes dirty page groups to the database in LRU order without evicting them. Groups
+	 * are encoded under the lock of their graph, not the eviction lock, and written in
+	 * batches. A group which is changed or evicted before its batch is written is skipped,
+	 * it stays dirty.
+	 * 
+	 * @param targetRatio Groups are cleaned until this fraction of the groups is dirty.
+	 * @param all If true every dirty group is written, including the ones in use.
+	 * @return Number of groups cleaned.
+	 */
+	public int cleanDirtyGroups(double targetRatio, boolean all){
+		List<Page> dirtyGroups = new ArrayList<Page>();
+		int groups = 0;
+
+		for (Page p : pool) {
+			if(p.getAdjacentPagesList().getFirstElement() == p){
+				groups++;
+
+				if(p.isDirty() && (all || (p != lastAccessed && p != prevAccessed))){
+					dirtyGroups.add(p);
+				}
+			}
+		}
+
+		Collections.sort(dirtyGroups, new Comparator<Page>() {
+			@Override
+			public int compare(Page p1, Page p2) {
+				return p1.getLastAccess() < p2.getLastAccess() ? -1 : (p1.getLastAccess() == p2.getLastAccess() ? 0 : 1);
+			}
+		});
+
+		int toClean = all ? dirtyGroups.size() : dirtyGroups.size() - (int) (targetRatio * groups);
+		int cleaned = 0;
+
+		List<FlushRecord> batch = new ArrayList<FlushRecord>();
+		for (Iterator<Page> it = dirtyGroups.iterator(); it.hasNext() && cleaned + batch.size() < toClean;) {
+			FlushRecord rec = encodeGroup(it.next());
+
+			if(rec != null){
+				batch.add(rec);
+			}
+
+			if(batch.size() >= buffConf.getFlushBatchSize()){
+				cleaned += writeBatch(batch);
+				batch.clear();
+			}
+		}
+
+		if(!batch.isEmpty()){
+			cleaned += writeBatch(batch);
+		}
+
+		if(cleaned > 0){
+			metrics.recordFlush(cleaned);
+			log.debug(cleaned + " dirty page groups are written by the flusher.");
+		}
+
+		return cleaned;
 	}
 
-	public void writeNodeBlockList(List<Long> nodeList, List<Long> pageList, int graphid){
-		//writeNodeBlockList
-		byte[] rawPageListData = null;
+	private FlushRecord encodeGroup(Page leader){
+		SuperGraph superg = null;
+		try {
+			superg = (SuperGraph) GraphManager.getInstance().getGraph(leader.getGraphId());
+		} catch (NoSuchElementException e) {
+			return null;
+		}
+
+		SubGraph sg = superg.getSubgraph(leader.getSubgraphId());
+		if(sg == null){
+			return null;
+		}
 
+		FlushRecord rec = new FlushRecord();
+		rec.leader = leader;
+		rec.sg = sg;
+
+		//the changes of the graph wait for the encoding, the node index and the records stay consistent
+		superg.lock.lock();
 		try {
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			ObjectOutputStream oos = new ObjectOutputStream(baos);
+			if(!leader.isDirty() || superg.getSubgraph(sg.getId()) != sg){
+				return null;
+			}
+
+			rec.modCount = sg.getModCount();
+			long encodeTime = System.nanoTime();
+			rec.nodeList = new LinkedList<Long>();
+			rec.blocks = sg.encodeBlocks(rec.nodeList);
+			metrics.recordEncode(System.nanoTime() - encodeTime);
+		} catch (RuntimeException e) {
+			log.warn("Flush of " + leader + " is skipped: " + e);
+			return null;
+		} finally {
+			superg.lock.unlock();
+		}
+
+		//new pages are needed, leave it to eviction
+		if(rec.blocks.size() > leader.getAdjacentPagesList().getSize()){
+			releaseBlocks(rec.blocks);
+			return null;
+		}
+
+		//compressed here rather than under the lock of the batch write
+		PageCodec codec = PageCompression.getCodec(buffConf.getPageCompression());
+		boolean checksum = !"none".equals(buffConf.getPageChecksum());
+		StageTimer timer = new StageTimer(this, PageStage.COMPRESS);
+		rec.stored = new ArrayList<byte[]>(rec.blocks.size());
+		for (ByteBuffer block : rec.blocks) {
+			rec.stored.add(encodeBlock(block, codec, checksum));
+		}
+		timer.record();
+
+		return rec;
+	}
+
+	/**
+	 * @return The page as it is written to the database, raw if the database has no framed pages.
+	 */
+	private byte[] encodeBlock(ByteBuffer block, PageCodec codec, boolean checksum){
+		if(!framedPages){
+			byte[] stored = new byte[block.remaining()];
+			block.duplicate().get(stored);
+			return stored;
+		}
+		return PageCompression.compress(block, codec, checksum);
+	}
+
+	private int writeBatch(List<FlushRecord> batch){
+		int cleaned = 0;
+
+		synchronized (evictionLock) {
+			HashMap<Long, byte[]> blockList = new HashMap<Long, byte[]>();
+			List<FlushRecord> written = new ArrayList<FlushRecord>();
 
-			//write block list size first
-			oos.writeInt(pageList.size());
+			for (FlushRecord rec : batch) {
+				//skip if it is evicted or changed since it was encoded
+				if(!pool.contains(rec.leader.getId()) || PageManager.getInstance().getPage(rec.leader.getId()) != rec.leader
+						|| rec.sg.getGraph().getSubgraph(rec.sg.getId()) != rec.sg || rec.sg.getModCount() != rec.modCount){
+					releaseBlocks(rec.blocks);
+					continue;
+				}
+
+				Iterator<Page> pages = rec.leader.getAdjacentPagesList().iterator();
+				Iterator<byte[]> stored = rec.stored.iterator();
+				long dataDelta = 0;
+				for (ByteBuffer block : rec.blocks) {
+					Page page = pages.next();
+
+					//the page owns the buffer from now on
+					dataDelta -= page.getDataSize();
+					page.setData(block);
+					dataDelta += page.getDataSize();
+					blockList.put(page.getId(), stored.next());
+				}
 
-			//turn page list into byte array
-			for (Iterator<Long> it = pageList.iterator(); it.hasNext();) {
-				long pid = it.next();
+				//the subgraph isn't measured here, the flusher doesn't hold the graph lock
+				bufferedBytes += dataDelta;
+				rec.leader.setCharge(rec.leader.getCharge() + dataDelta);
 
-				//write each element's id
-				oos.writeLong(pid);
+				written.add(rec);
 			}
 
-			oos.close();
-			baos.close();
+			if(written.isEmpty()){
+				return 0;
+			}
 
-			rawPageListData = baos.toByteArray();
-		} catch (IOException e) {
-			e.printStackTrace();
+			long bytesWritten = 0;
+			for (byte[] block : blockList.values()) {
+				bytesWritten += block.length;
+			}
+
+			long writeTime = System.nanoTime();
+			StageTimer timer = new StageTimer(this, PageStage.CONNECTOR_WRITE);
+			db.writeBlockList(blockList);
+			metrics.recordWrite(blockList.size(), bytesWritten, System.nanoTime() - writeTime);
+
+			for (Long pid : blockList.keySet()) {
+				prefetcher.invalidateBlock(pid);
+			}
+
+			for (FlushRecord rec : written) {
+				List<Long> pageList = new LinkedList<Long>();
+
+				for (Iterator<Page> it = rec.leader.getAdjacentPagesList().iterator(); it.hasNext();) {
+					Page page = it.next();
+
+					if(page.hasData()){
+						pageList.add(page.getId());
+					}
+				}
+
+				writeNodeBlockList(rec.nodeList, pageList, rec.leader.getGraphId());
+
+				if(rec.sg.markClean(rec.modCount)){
+					cleaned++;
+				}
+			}
+			timer.record();
 		}
 
-		db.writeNodeBlockList(nodeList,rawPageListData, graphid);
+		return cleaned;
+	}
 
+	private void releaseBlocks(List<ByteBuffer> blocks){
+		for (ByteBuffer block : blocks) {
+			arena.release(block);
+		}
 	}
 
-	public Iterator<Long> getAllNodes(int graphid) {
-		return db.getNodeList2(graphid);
+	public BufferMetrics getMetrics(){
+		return metrics;
 	}
 
-	public BufferConfiguration getBufferConf(){
-		return buffConf;
+	public long getHitCount(){
+		return metrics.getHitCount();
+	}
+
+	public long getMissCount(){
+		return metrics.getMissCount();
+	}
+
+	/**
+	 * @return Ratio of the buffer accesses which didn't need a page to be read from the database.
+	 */
+	public double getHitRatio(){
+		return metrics.getHitRatio();
+	}
+
+	public void resetStatistics(){
+		metrics.reset();
+		prefetcher.resetStatistics();
 	}
 
 	public void changeDB(String dbName) {
@@ -541,15 +1284,34 @@ public class BufferManager {
 
 		//write all subgraphs on the memory to the db.
 		flushBuffer();
+		flusher.stop();
+		prefetcher.stop();
+		scrubber.stop();
 
 		//close the database;
 		db.closeDb();
 
 		this.db = new LevelDBConnectorJava(dbName);
+		verifiedPages.clear();
+
+		this.pool = new BufferPool(buffConf.getConcurrencyLevel());
+		this.bufferedBytes = 0;
+		this.policy.initialize(buffConf.getMaxBufferSize());
+		this.readRequests = new ConcurrentLinkedQueue<Page>();
+		this.lastAccessed = null;
+		this.prevAccessed = null;
+
+		if(buffConf.isWriteBehind()){
+			flusher.start();
+		}
 
-		this.buff = new DoublyLinkedList<Page>();
-		this.elementIndex = new HashMap<Long, DoublyLinkedList.Node<Page>>();
-		this.readRequests = new LinkedList<Page>();
+		if(buffConf.isReadAhead()){
+			startReadAhead();
+		}
+
+		if(buffConf.getScrubRate() > 0){
+			scrubber.start();
+		}
 
 		log.info("BufferManager reinitialized.");
 		getSystemProperties();
@@ -562,10 +1324,18 @@ public class BufferManager {
 
 		//write all subgraphs on the memory to the db.
 		flushBuffer();
+		flusher.stop();
+		prefetcher.stop();
+		scrubber.stop();
 
 		//close the database;
 		db.closeDb();
 
+		log.info("Buffer metrics: " + metrics);
+		if(buffConf.isReadAhead()){
+			log.info("Read-ahead requests: " + prefetcher.getRequestCount() + ", prefetched pages: " + prefetcher.getPrefetchedPageCount()
+					+ ", used: " + prefetcher.getHitCount() + ", wasted: " + prefetcher.getWastedCount() + ", accuracy: " + prefetcher.getAccuracy());
+		}
 		log.info("Done.");
 	}
 }
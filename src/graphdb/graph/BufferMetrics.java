@@ -0,0 +1,371 @@
+package graphdb.graph;
+
+import graphdb.util.LatencyHistogram;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Cumulative counters and latency histograms of the buffer and its database I/O.
+ * Recording only touches atomics, so the metrics are always on. They are read
+ * through BufferManager.getMetrics or over JMX as graphdb:type=BufferMetrics.
+ */
+public class BufferMetrics implements BufferMetricsMBean {
+	private static Logger log = Logger.getLogger(BufferMetrics.class.getName());
+
+	public static final String OBJECT_NAME = "graphdb:type=BufferMetrics";
+
+	private final BufferManager bm;
+
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+
+	private final AtomicLong evictions;
+	private final AtomicLong dirtyEvictions;
+	private final AtomicLong flushedGroups; // groups cleaned by the flusher
+
+	private final AtomicLong pagesRead;
+	private final AtomicLong bytesRead;
+	private final AtomicLong pagesWritten;
+	private final AtomicLong bytesWritten;
+
+	private final AtomicLong splits;
+	private final AtomicLong splitSubgraphs; // subgraphs resulting from the splits
+
+	private final AtomicLong checksumFailures;
+
+	private final LatencyHistogram readLatency; // database read of a page group
+	private final LatencyHistogram writeLatency; // database write of a page group or a flush batch
+	private final LatencyHistogram encodeLatency; // subgraph -> page data
+	private final LatencyHistogram decodeLatency; // page data -> subgraph
+	private final EnumMap<PageStage, LatencyHistogram> stageLatency; // filled once, read without locking
+
+	BufferMetrics(BufferManager bm) {
+		this.bm = bm;
+
+		hits = new AtomicLong(0);
+		misses = new AtomicLong(0);
+		evictions = new AtomicLong(0);
+		dirtyEvictions = new AtomicLong(0);
+		flushedGroups = new AtomicLong(0);
+		pagesRead = new AtomicLong(0);
+		bytesRead = new AtomicLong(0);
+		pagesWritten = new AtomicLong(0);
+		bytesWritten = new AtomicLong(0);
+		splits = new AtomicLong(0);
+		splitSubgraphs = new AtomicLong(0);
+		checksumFailures = new AtomicLong(0);
+
+		readLatency = new LatencyHistogram();
+		writeLatency = new LatencyHistogram();
+		encodeLatency = new LatencyHistogram();
+		decodeLatency = new LatencyHistogram();
+
+		stageLatency = new EnumMap<PageStage, LatencyHistogram>(PageStage.class);
+		for (PageStage stage : PageStage.values()) {
+			stageLatency.put(stage, new LatencyHistogram());
+		}
+	}
+
+	/**
+	 * Registers the metrics to the platform MBean server. Failing to register
+	 * doesn't stop the buffer, the metrics are still available through the API.
+	 */
+	void register(){
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+
+			if(!server.isRegistered(name)){
+				server.registerMBean(this, name);
+			}
+		} catch (JMException e) {
+			log.warn("Buffer metrics couldn't be registered to JMX: " + e);
+		} catch (SecurityException e) {
+			log.warn("Buffer metrics couldn't be registered to JMX: " + e);
+		}
+	}
+
+	void recordHit(){
+		hits.incrementAndGet();
+	}
+
+	void recordMiss(){
+		misses.incrementAndGet();
+	}
+
+	void recordEviction(boolean dirty){
+		evictions.incrementAndGet();
+
+		if(dirty){
+			dirtyEvictions.incrementAndGet();
+		}
+	}
+
+	void recordFlush(int groups){
+		flushedGroups.addAndGet(groups);
+	}
+
+	void recordRead(int pages, long bytes, long nanos){
+		pagesRead.addAndGet(pages);
+		bytesRead.addAndGet(bytes);
+		readLatency.record(nanos);
+	}
+
+	void recordWrite(int pages, long bytes, long nanos){
+		pagesWritten.addAndGet(pages);
+		bytesWritten.addAndGet(bytes);
+		writeLatency.record(nanos);
+	}
+
+	void recordChecksumFailure(){
+		checksumFailures.incrementAndGet();
+	}
+
+	void recordEncode(long nanos){
+		encodeLatency.record(nanos);
+	}
+
+	void recordDecode(long nanos){
+		decodeLatency.record(nanos);
+	}
+
+	/**
+	 * Records the time a page group spent in a stage, see BufferConfiguration.setStageTiming.
+	 */
+	void recordStage(PageStage stage, long nanos){
+		stageLatency.get(stage).record(nanos);
+	}
+
+	/**
+	 * @param subgraphs Number of subgraphs the split subgraph is divided into.
+	 */
+	public void recordSplit(int subgraphs){
+		splits.incrementAndGet();
+		splitSubgraphs.addAndGet(subgraphs);
+	}
+
+	@Override
+	public long getHitCount(){
+		return hits.get();
+	}
+
+	@Override
+	public long getMissCount(){
+		return misses.get();
+	}
+
+	/**
+	 * @return Ratio of the node lookups which found the node's page group in the buffer. A lookup
+	 * is counted once, the accesses to the group while the node is used are not.
+	 */
+	@Override
+	public double getHitRatio(){
+		long h = hits.get();
+		long m = misses.get();
+
+		if(h + m == 0){
+			return 0.0;
+		}
+		return (double) h / (double) (h + m);
+	}
+
+	@Override
+	public long getEvictionCount(){
+		return evictions.get();
+	}
+
+	@Override
+	public long getDirtyEvictionCount(){
+		return dirtyEvictions.get();
+	}
+
+	@Override
+	public long getFlushedGroupCount(){
+		return flushedGroups.get();
+	}
+
+	@Override
+	public long getPagesRead(){
+		return pagesRead.get();
+	}
+
+	@Override
+	public long getBytesRead(){
+		return bytesRead.get();
+	}
+
+	@Override
+	public double getReadLatencyMean(){
+		return readLatency.getMean();
+	}
+
+	@Override
+	public long getReadLatency99th(){
+		return readLatency.getPercentile(0.99);
+	}
+
+	@Override
+	public long getPagesWritten(){
+		return pagesWritten.get();
+	}
+
+	@Override
+	public long getBytesWritten(){
+		return bytesWritten.get();
+	}
+
+	@Override
+	public double getWriteLatencyMean(){
+		return writeLatency.getMean();
+	}
+
+	@Override
+	public long getWriteLatency99th(){
+		return writeLatency.getPercentile(0.99);
+	}
+
+	@Override
+	public double getEncodeLatencyMean(){
+		return encodeLatency.getMean();
+	}
+
+	@Override
+	public long getEncodeLatency99th(){
+		return encodeLatency.getPercentile(0.99);
+	}
+
+	@Override
+	public double getDecodeLatencyMean(){
+		return decodeLatency.getMean();
+	}
+
+	@Override
+	public long getDecodeLatency99th(){
+		return decodeLatency.getPercentile(0.99);
+	}
+
+	@Override
+	public long getSplitCount(){
+		return splits.get();
+	}
+
+	@Override
+	public double getSubgraphsPerSplit(){
+		long s = splits.get();
+
+		if(s == 0){
+			return 0.0;
+		}
+		return (double) splitSubgraphs.get() / (double) s;
+	}
+
+	/**
+	 * @return Pages which failed their checksum on a read or a scrub.
+	 */
+	@Override
+	public long getChecksumFailureCount(){
+		return checksumFailures.get();
+	}
+
+	public LatencyHistogram getReadLatency(){
+		return readLatency;
+	}
+
+	public LatencyHistogram getWriteLatency(){
+		return writeLatency;
+	}
+
+	public LatencyHistogram getEncodeLatency(){
+		return encodeLatency;
+	}
+
+	public LatencyHistogram getDecodeLatency(){
+		return decodeLatency;
+	}
+
+	public LatencyHistogram getStageLatency(PageStage stage){
+		return stageLatency.get(stage);
+	}
+
+	@Override
+	public double getStageLatencyMean(String stage){
+		return stageLatency.get(PageStage.valueOf(stage)).getMean();
+	}
+
+	@Override
+	public long getStageLatency99th(String stage){
+		return stageLatency.get(PageStage.valueOf(stage)).getPercentile(0.99);
+	}
+
+	@Override
+	public long getStageLatencyMax(String stage){
+		return stageLatency.get(PageStage.valueOf(stage)).getMax();
+	}
+
+	@Override
+	public int getBufferedPages(){
+		return bm.getBufferPool().getSize();
+	}
+
+	@Override
+	public long getBufferedBytes(){
+		return bm.getBufferedBytes();
+	}
+
+	@Override
+	public double getDirtyRatio(){
+		return bm.getDirtyRatio();
+	}
+
+	@Override
+	public void reset(){
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+		dirtyEvictions.set(0);
+		flushedGroups.set(0);
+		pagesRead.set(0);
+		bytesRead.set(0);
+		pagesWritten.set(0);
+		bytesWritten.set(0);
+		splits.set(0);
+		splitSubgraphs.set(0);
+		checksumFailures.set(0);
+
+		readLatency.reset();
+		writeLatency.reset();
+		encodeLatency.reset();
+		decodeLatency.reset();
+		for (LatencyHistogram h : stageLatency.values()) {
+			h.reset();
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder stages = new StringBuilder();
+		for (PageStage stage : PageStage.values()) {
+			LatencyHistogram h = stageLatency.get(stage);
+			if(h.getCount() > 0){
+				stages.append("\n ").append(stage.name().toLowerCase()).append(": ").append(h);
+			}
+		}
+
+		return "hits=" + getHitCount() + " misses=" + getMissCount() + " hitRatio=" + getHitRatio()
+				+ " evictions=" + getEvictionCount() + " dirtyEvictions=" + getDirtyEvictionCount() + " flushedGroups=" + getFlushedGroupCount()
+				+ " pagesRead=" + getPagesRead() + " bytesRead=" + getBytesRead()
+				+ " pagesWritten=" + getPagesWritten() + " bytesWritten=" + getBytesWritten()
+				+ " splits=" + getSplitCount() + " subgraphsPerSplit=" + getSubgraphsPerSplit()
+				+ " checksumFailures=" + getChecksumFailureCount()
+				+ "\n read: " + readLatency + "\n write: " + writeLatency
+				+ "\n encode: " + encodeLatency + "\n decode: " + decodeLatency + stages;
+	}
+}
@@ -0,0 +1,47 @@
+package graphdb.graph;
+
+/**
+ * JMX view of the buffer metrics. Latencies are in microseconds.
+ */
+public interface BufferMetricsMBean {
+	public long getHitCount();
+	public long getMissCount();
+	public double getHitRatio();
+
+	public long getEvictionCount();
+	public long getDirtyEvictionCount();
+	public long getFlushedGroupCount();
+
+	public long getPagesRead();
+	public long getBytesRead();
+	public double getReadLatencyMean();
+	public long getReadLatency99th();
+
+	public long getPagesWritten();
+	public long getBytesWritten();
+	public double getWriteLatencyMean();
+	public long getWriteLatency99th();
+
+	public double getEncodeLatencyMean();
+	public long getEncodeLatency99th();
+	public double getDecodeLatencyMean();
+	public long getDecodeLatency99th();
+
+	/**
+	 * @param stage Name of a PageStage, e.g. DECODE_PROPERTIES.
+	 */
+	public double getStageLatencyMean(String stage);
+	public long getStageLatency99th(String stage);
+	public long getStageLatencyMax(String stage);
+
+	public long getSplitCount();
+	public double getSubgraphsPerSplit();
+
+	public long getChecksumFailureCount();
+
+	public int getBufferedPages();
+	public long getBufferedBytes();
+	public double getDirtyRatio();
+
+	public void reset();
+}
@@ -0,0 +1,142 @@
+package graphdb.graph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Page table of the buffer. Pages are partitioned into lock stripes by their id so
+ * that threads touching different pages do not contend on a single monitor.
+ * Recency is not kept here, it is the job of the configured EvictionPolicy.
+ */
+public class BufferPool implements Iterable<Page> {
+	private final Stripe[] stripes;
+	private final int stripeMask;
+
+	private final AtomicInteger size;
+
+	private static class Stripe {
+		final ReentrantLock lock = new ReentrantLock();
+		final HashMap<Long, Page> pages = new HashMap<Long, Page>();
+	}
+
+	/**
+	 * @param concurrencyLevel Number of stripes of the page table. It is rounded up to a power of two.
+	 */
+	public BufferPool(int concurrencyLevel) {
+		int n = 1;
+		while(n < concurrencyLevel){
+			n <<= 1;
+		}
+
+		stripes = new Stripe[n];
+		for (int i = 0; i < n; i++) {
+			stripes[i] = new Stripe();
+		}
+		stripeMask = n - 1;
+
+		size = new AtomicInteger(0);
+	}
+
+	private Stripe stripeOf(long pageid){
+		int h = (int) (pageid ^ (pageid >>> 32));
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return stripes[h & stripeMask];
+	}
+
+	public boolean contains(long pageid){
+		Stripe s = stripeOf(pageid);
+		s.lock.lock();
+		try {
+			return s.pages.containsKey(pageid);
+		} finally {
+			s.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return false if the page was already in the buffer.
+	 */
+	public boolean add(Page p){
+		Stripe s = stripeOf(p.getId());
+		s.lock.lock();
+		try {
+			if(s.pages.containsKey(p.getId())){
+				return false;
+			}
+			s.pages.put(p.getId(), p);
+			size.incrementAndGet();
+		} finally {
+			s.lock.unlock();
+		}
+
+		return true;
+	}
+
+	public Page remove(long pageid){
+		Stripe s = stripeOf(pageid);
+		s.lock.lock();
+		try {
+			Page p = s.pages.remove(pageid);
+			if(p != null){
+				size.decrementAndGet();
+			}
+			return p;
+		} finally {
+			s.lock.unlock();
+		}
+	}
+
+	public int getSize(){
+		return size.get();
+	}
+
+	public boolean isEmpty(){
+		return size.get() == 0;
+	}
+
+	/**
+	 * @return A point in time copy of the pages in the buffer. Each stripe is locked only while it is copied.
+	 */
+	public List<Page> snapshot(){
+		List<Page> pages = new ArrayList<Page>(size.get());
+
+		for (Stripe s : stripes) {
+			s.lock.lock();
+			try {
+				pages.addAll(s.pages.values());
+			} finally {
+				s.lock.unlock();
+			}
+		}
+
+		return pages;
+	}
+
+	public void clear(){
+		for (Stripe s : stripes) {
+			s.lock.lock();
+			try {
+				size.addAndGet(-s.pages.size());
+				s.pages.clear();
+			} finally {
+				s.lock.unlock();
+			}
+		}
+	}
+
+	@Override
+	public Iterator<Page> iterator() {
+		return snapshot().iterator();
+	}
+
+	@Override
+	public String toString() {
+		return snapshot().toString();
+	}
+}
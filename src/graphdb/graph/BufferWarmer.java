@@ -0,0 +1,229 @@
+package graphdb.graph;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Preloads the page groups which were in the buffer at the last shutdown. The hot
+ * set is kept in the system properties as (graph id, leading page id, node id)
+ * triples, most recently used first.
+ *
+ * Blocks of a batch are read from the database in parallel and handed to the read
+ * cache of the prefetcher, then the groups are decoded one by one on the calling
+ * thread through the usual bringNode path. The graph structures are not thread-safe,
+ * so the preload has to finish before the graph is used.
+ *
+ * It stops when the hot set is done, the buffer reaches its low watermark, the time
+ * is up or stop is called. The number of groups loaded per second can be limited.
+ */
+public class BufferWarmer {
+	private static Logger log = Logger.getLogger(BufferWarmer.class.getName());
+
+	public static final String HOT_PAGES_PROPERTY = "hotPages";
+
+	private static class Fetched {
+		int graphid;
+		long nodeid;
+		List<Long> pageList;
+		Map<Long, byte[]> blocks;
+	}
+
+	private final BufferManager bm;
+	private volatile boolean stopped;
+
+	private long loadedGroups;
+	private long skippedGroups;
+
+	public BufferWarmer(BufferManager bm) {
+		this.bm = bm;
+	}
+
+	/**
+	 * Makes a running preload stop after its current group.
+	 */
+	public void stop(){
+		stopped = true;
+	}
+
+	/**
+	 * @param hotPages Hot set triples as they were written at shutdown.
+	 * @param timeout Max milliseconds to spend, 0 means no limit.
+	 * @return Number of page groups loaded.
+	 */
+	public long warm(long[] hotPages, long timeout){
+		stopped = false;
+		loadedGroups = 0;
+		skippedGroups = 0;
+
+		if(hotPages == null || hotPages.length < 3){
+			return 0;
+		}
+
+		final BufferConfiguration conf = bm.getBufferConf();
+		final DatabaseConnector db = bm.getDatabase();
+		long start = System.currentTimeMillis();
+		long deadline = timeout == 0 ? Long.MAX_VALUE : start + timeout;
+		int batchSize = Math.max(1, conf.getWarmStartBatchSize());
+
+		ExecutorService readers = Executors.newFixedThreadPool(Math.max(1, conf.getWarmStartThreads()), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "graphdb-warm-start");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		log.info("Warm start of " + (hotPages.length / 3) + " page groups initiated.");
+
+		try {
+			for (int i = 0; i + 2 < hotPages.length && !isDone(deadline); i += 3 * batchSize) {
+				//read the blocks of the batch in parallel
+				List<Future<Fetched>> batch = new ArrayList<Future<Fetched>>();
+
+				for (int j = i; j + 2 < hotPages.length && j < i + 3 * batchSize; j += 3) {
+					final int graphid = (int) hotPages[j];
+					final long nodeid = hotPages[j + 2];
+
+					//the group is already in the buffer
+					if(bm.getBufferPool().contains(hotPages[j + 1])){
+						skippedGroups++;
+						continue;
+					}
+
+					batch.add(readers.submit(new Callable<Fetched>() {
+						@Override
+						public Fetched call() throws Exception {
+							return fetch(db, graphid, nodeid);
+						}
+					}));
+				}
+
+				//decode them here
+				for (Iterator<Future<Fetched>> it = batch.iterator(); it.hasNext();) {
+					Fetched f = null;
+					try {
+						f = it.next().get();
+					} catch (ExecutionException e) {
+						log.warn("Warm start read failed: " + e.getCause());
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						stopped = true;
+					}
+
+					if(isDone(deadline) || bufferIsFull(conf)){
+						stopped = true;
+						break;
+					}
+
+					if(f == null || !load(f)){
+						skippedGroups++;
+						continue;
+					}
+					loadedGroups++;
+
+					throttle(start, conf.getWarmStartRate());
+				}
+			}
+		} finally {
+			readers.shutdownNow();
+		}
+
+		log.info("Warm start loaded " + loadedGroups + " page groups, skipped " + skippedGroups
+				+ " in " + (System.currentTimeMillis() - start) + "ms.");
+
+		return loadedGroups;
+	}
+
+	private boolean isDone(long deadline){
+		return stopped || System.currentTimeMillis() > deadline;
+	}
+
+	//don't evict hot groups to load colder ones
+	private boolean bufferIsFull(BufferConfiguration conf){
+		return bm.getBufferPool().getSize() >= conf.getLowWatermark() * conf.getMaxBufferSize()
+				|| (conf.getMaxBufferBytes() > 0 && bm.getBufferedBytes() >= conf.getLowWatermark() * conf.getMaxBufferBytes());
+	}
+
+	private Fetched fetch(DatabaseConnector db, int graphid, long nodeid){
+		byte[] rawPageList = db.getBlockList(nodeid, graphid);
+		if(rawPageList == null){
+			return null;
+		}
+
+		Fetched f = new Fetched();
+		f.graphid = graphid;
+		f.nodeid = nodeid;
+		f.pageList = PageDirectory.readPageList(db, rawPageList);
+		if(f.pageList == null){
+			return null;
+		}
+		f.blocks = new LinkedHashMap<Long, byte[]>();
+
+		for (Iterator<Long> it = f.pageList.iterator(); it.hasNext();) {
+			long pid = it.next();
+
+			byte[] data = db.getBlock(pid);
+			if(data == null){
+				return null;
+			}
+			f.blocks.put(pid, data);
+		}
+		return f;
+	}
+
+	private boolean load(Fetched f){
+		SuperGraph superg = null;
+		try {
+			superg = (SuperGraph) GraphManager.getInstance().getGraph(f.graphid);
+		} catch (NoSuchElementException e) {
+			return false;
+		}
+
+		//already brought by an earlier group
+		if(superg.hasNode(f.nodeid)){
+			return false;
+		}
+
+		bm.getPrefetcher().offer(f.graphid, f.nodeid, f.pageList, f.blocks);
+		PageManager.getInstance().bringNode(f.nodeid, superg);
+		return true;
+	}
+
+	private void throttle(long start, double rate){
+		if(rate <= 0){
+			return;
+		}
+
+		long due = start + (long) (loadedGroups * 1000 / rate);
+		long wait = due - System.currentTimeMillis();
+		if(wait > 0){
+			try {
+				Thread.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				stopped = true;
+			}
+		}
+	}
+
+	public long getLoadedGroupCount(){
+		return loadedGroups;
+	}
+
+	public long getSkippedGroupCount(){
+		return skippedGroups;
+	}
+}
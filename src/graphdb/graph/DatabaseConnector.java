@@ -15,10 +15,12 @@ public interface DatabaseConnector {
 	
 	public byte[] getBlockList(long nodeid, int graphid);
 	public byte[] getBlock(long pageid);
+	public byte[] getPageGroup(long groupid);
 	
 	public void writeGraphList(HashMap<Integer,byte[]> glist);
 	public void writeNodeBlockList(HashMap<Long, byte[]> nodeBlockList, int graphid);
 	public void writeNodeBlockList(List<Long> nodeList, byte[] rawBlockList, int graphid);
+	public void writePageGroup(long groupid, byte[] rawPageList);
 	public void writeBlock(long blockid, byte[] bdata);
 	public void writeBlockList(HashMap<Long, byte[]> blist);
 	
@@ -30,6 +30,17 @@ public class Edge {
 		this.direction = EdgeDirection.OUT;
 	}
 	
+	/**
+	 * Edge of an adjacency list, the nodes aren't looked up.
+	 */
+	Edge(SuperGraph g, long srcId, long destId){
+		this.g = g;
+		this.srcId = srcId;
+		this.destId = destId;
+
+		this.direction = EdgeDirection.OUT;
+	}
+	
 	public Node getSource() {
 		return g.getNode(srcId);
 	}
@@ -0,0 +1,139 @@
+package graphdb.graph;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Reusable cursor over the edges of a node which reads the adjacency lists of the
+ * node's subgraph directly, no Edge or Node objects are created while it moves.
+ * It is positioned on a node by Graph.getEdges(node, direction, cursor), then
+ *
+ * <pre>
+ * while(cursor.hasNext()){
+ *     long neighbor = cursor.nextNeighborId();
+ *     ...
+ * }
+ * </pre>
+ *
+ * For both directions the incoming edges come first, as getEdges returns them. The
+ * cursor reads the lists in place, the node should be pinned while the cursor is used
+ * so the subgraph isn't evicted or changed meanwhile.
+ */
+public class EdgeCursor {
+	private SuperGraph g;
+	private long nodeid;
+	private AdjacencyList in;
+	private AdjacencyList out;
+	private int index;
+	private boolean incoming; // the list being read is the incoming edges
+	private boolean currentIncoming; // the current edge is incoming
+	private long neighborId;
+
+	public EdgeCursor() {
+	}
+
+	/**
+	 * Positions the cursor before the first edge of the node.
+	 */
+	void reset(SuperGraph g, long nodeid, AdjacencyList in, AdjacencyList out){
+		this.g = g;
+		this.nodeid = nodeid;
+		this.in = in;
+		this.out = out;
+		this.index = 0;
+		this.incoming = in != null;
+		this.neighborId = -1;
+	}
+
+	public boolean hasNext(){
+		if(incoming){
+			if(index < in.size()){
+				return true;
+			}
+			//continue with the outgoing edges
+			incoming = false;
+			index = 0;
+		}
+		return out != null && index < out.size();
+	}
+
+	/**
+	 * Moves to the next edge.
+	 *
+	 * @return Id of the node at the other end of the edge.
+	 */
+	public long nextNeighborId(){
+		if(!hasNext()){
+			throw new NoSuchElementException();
+		}
+
+		currentIncoming = incoming;
+		neighborId = incoming ? in.get(index++) : out.get(index++);
+		return neighborId;
+	}
+
+	/**
+	 * @return Number of edges the cursor goes over in total.
+	 */
+	public int size(){
+		return (in == null ? 0 : in.size()) + (out == null ? 0 : out.size());
+	}
+
+	/**
+	 * @return Id of the node whose edges are iterated.
+	 */
+	public long getNodeId(){
+		return nodeid;
+	}
+
+	/**
+	 * @return true if the current edge ends at the node, its neighbor is the source.
+	 */
+	public boolean isIncoming(){
+		return currentIncoming;
+	}
+
+	public long getSourceId(){
+		return currentIncoming ? neighborId : nodeid;
+	}
+
+	public long getDestinationId(){
+		return currentIncoming ? nodeid : neighborId;
+	}
+
+	//the property is read with the source, it may not be decoded yet if it is the neighbor
+	public boolean hasProperty(){
+		if(g.edgeProps.isEmpty()){
+			return false;
+		}
+		g.decodeNode(getSourceId());
+		return g.edgeProps.contains(getSourceId(), getDestinationId());
+	}
+
+	public Object getProperty(String key){
+		g.decodeNode(getSourceId());
+		return g.edgeProps.get(getSourceId(), getDestinationId(), key);
+	}
+
+	/**
+	 * @return The numeric property of the edge, defaultValue if the edge doesn't have it.
+	 */
+	public long getLongProperty(String key, long defaultValue){
+		g.decodeNode(getSourceId());
+		return g.edgeProps.getLong(getSourceId(), getDestinationId(), key, defaultValue);
+	}
+
+	/**
+	 * @return The numeric property of the edge, defaultValue if the edge doesn't have it.
+	 */
+	public double getDoubleProperty(String key, double defaultValue){
+		g.decodeNode(getSourceId());
+		return g.edgeProps.getDouble(getSourceId(), getDestinationId(), key, defaultValue);
+	}
+
+	/**
+	 * @return The current edge as an object, it is created on each call.
+	 */
+	public Edge getEdge(){
+		return new Edge(g, getSourceId(), getDestinationId());
+	}
+}
@@ -0,0 +1,618 @@
+package graphdb.graph;
+
+import graphdb.util.LongIntMap;
+import graphdb.util.LongPairIntHashMap;
+import graphdb.util.Property;
+import graphdb.util.PropertyCodec;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Properties of the edges of a graph, kept by column rather than as a Property object
+ * per edge. An edge with properties gets a slot, the slots are found by (source id,
+ * destination id) in a primitive hash table. Each property key is in the key dictionary
+ * once and has a column indexed by slot: long, int, double and boolean values are kept
+ * in primitive arrays, a key holding any other type, or values of mixed types, has a
+ * generic column of objects.
+ * <p>
+ * The encoded size of each slot's entries is kept up to date as the values are set, and
+ * the slots are encoded straight into the PropertyCodec format the pages store, so the
+ * pages are the same as they were with Property objects. The methods are synchronized,
+ * the write-behind flusher encodes the slots while the graph changes.
+ */
+public class EdgePropertyStore {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int FREE = -1;
+
+	private final LongPairIntHashMap index; // (source id, destination id) -> slot
+	private final HashMap<String, Integer> keyIds; // key dictionary, key -> column
+	private final ArrayList<Column> columns;
+	private final SlotSink sink;
+
+	private int[] entryCounts; // number of keys of the slot, FREE if the slot isn't used
+	private int[] entrySizes; // encoded size of the slot's entries
+	private int slotCount; // slots handed out, the free ones included
+	private int[] freeSlots;
+	private int freeCount;
+
+	public EdgePropertyStore() {
+		index = new LongPairIntHashMap();
+		keyIds = new HashMap<String, Integer>();
+		columns = new ArrayList<Column>();
+		sink = new SlotSink();
+
+		entryCounts = new int[16];
+		entrySizes = new int[16];
+		freeSlots = new int[16];
+	}
+
+	/**
+	 * @return Number of edges with properties.
+	 */
+	public synchronized int size(){
+		return index.size();
+	}
+
+	public synchronized boolean isEmpty(){
+		return index.isEmpty();
+	}
+
+	public synchronized boolean contains(long src, long dest){
+		return index.containsKey(src, dest);
+	}
+
+	/**
+	 * @return The value of the edge's property, null if the edge doesn't have it.
+	 */
+	public synchronized Object get(long src, long dest, String key){
+		int slot = index.get(src, dest);
+		Column column = column(key);
+		if(slot == LongIntMap.NO_VALUE || column == null || !column.has(slot)){
+			return null;
+		}
+		return column.get(slot);
+	}
+
+	/**
+	 * Reads a numeric property without boxing it if its column is a long column.
+	 */
+	public synchronized long getLong(long src, long dest, String key, long defaultValue){
+		int slot = index.get(src, dest);
+		Column column = column(key);
+		if(slot == LongIntMap.NO_VALUE || column == null || !column.has(slot)){
+			return defaultValue;
+		}
+
+		if(column instanceof LongColumn){
+			return ((LongColumn) column).values[slot];
+		}
+		Object value = column.get(slot);
+		return value instanceof Number ? ((Number) value).longValue() : defaultValue;
+	}
+
+	/**
+	 * Reads a numeric property without boxing it if its column is a double column.
+	 */
+	public synchronized double getDouble(long src, long dest, String key, double defaultValue){
+		int slot = index.get(src, dest);
+		Column column = column(key);
+		if(slot == LongIntMap.NO_VALUE || column == null || !column.has(slot)){
+			return defaultValue;
+		}
+
+		if(column instanceof DoubleColumn){
+			return ((DoubleColumn) column).values[slot];
+		}
+		Object value = column.get(slot);
+		return value instanceof Number ? ((Number) value).doubleValue() : defaultValue;
+	}
+
+	/**
+	 * Sets a property of the edge, the edge gets a slot if it has none.
+	 */
+	public synchronized void set(long src, long dest, String key, Object value){
+		int slot = index.get(src, dest);
+		if(slot == LongIntMap.NO_VALUE){
+			slot = allocate(src, dest);
+		}
+		set(slot, key, value);
+	}
+
+	/**
+	 * Adds the properties of the edge if it has none yet.
+	 */
+	public synchronized void put(long src, long dest, Property prop){
+		if(index.containsKey(src, dest)){
+			return;
+		}
+
+		int slot = allocate(src, dest);
+		for (String key : prop.propertyKeySet()) {
+			set(slot, key, prop.getProperty(key));
+		}
+	}
+
+	/**
+	 * Adds the properties of the edge as they are read from a page, if it has none yet.
+	 *
+	 * @param data A property object written by encode, Property.writePropertyObject or Java serialization.
+	 */
+	public synchronized void read(long src, long dest, byte[] data) throws IOException, ClassNotFoundException {
+		if(index.containsKey(src, dest)){
+			return;
+		}
+
+		if(PropertyCodec.isSerialized(data)){
+			put(src, dest, Property.readPropertyObject(data));
+			return;
+		}
+
+		sink.slot = allocate(src, dest);
+		boolean read = false;
+		try {
+			PropertyCodec.decode(data, sink);
+			read = true;
+		} finally {
+			if(!read){
+				remove(src, dest);
+			}
+		}
+	}
+
+	/**
+	 * @return The properties of the edge as a new Property object, null if it has none.
+	 */
+	public synchronized Property getProperty(long src, long dest){
+		int slot = index.get(src, dest);
+		if(slot == LongIntMap.NO_VALUE){
+			return null;
+		}
+
+		Property prop = new Property();
+		for (int i = 0; i < columns.size(); i++) {
+			Column column = columns.get(i);
+			if(column.has(slot)){
+				prop.setProperty(column.key, column.get(slot));
+			}
+		}
+		return prop;
+	}
+
+	/**
+	 * @return Number of properties of the edge.
+	 */
+	public synchronized int getEntryCount(long src, long dest){
+		int slot = index.get(src, dest);
+		return slot == LongIntMap.NO_VALUE ? 0 : entryCounts[slot];
+	}
+
+	/**
+	 * @return Number of bytes encode writes for the edge, -1 if the edge has no properties.
+	 */
+	public synchronized int getObjectSize(long src, long dest){
+		int slot = index.get(src, dest);
+		return slot == LongIntMap.NO_VALUE ? -1 : objectSize(slot);
+	}
+
+	/**
+	 * @return The properties of the edge in the PropertyCodec format, null if it has none.
+	 */
+	public synchronized byte[] encode(long src, long dest){
+		int slot = index.get(src, dest);
+		if(slot == LongIntMap.NO_VALUE){
+			return null;
+		}
+
+		ByteBuffer bb;
+		try {
+			bb = ByteBuffer.allocate(objectSize(slot));
+			put(bb, slot);
+		} catch (BufferOverflowException e) {
+			//a value was changed in place after it was set
+			resize(slot);
+			bb = ByteBuffer.allocate(objectSize(slot));
+			put(bb, slot);
+		}
+
+		if(bb.position() < bb.capacity()){
+			return Arrays.copyOf(bb.array(), bb.position());
+		}
+		return bb.array();
+	}
+
+	/**
+	 * @return true if the edge had properties.
+	 */
+	public synchronized boolean remove(long src, long dest){
+		int slot = index.remove(src, dest);
+		if(slot == LongIntMap.NO_VALUE){
+			return false;
+		}
+
+		for (int i = 0; i < columns.size(); i++) {
+			columns.get(i).clear(slot);
+		}
+		entryCounts[slot] = FREE;
+		entrySizes[slot] = 0;
+
+		if(freeCount == freeSlots.length){
+			freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+		}
+		freeSlots[freeCount++] = slot;
+		return true;
+	}
+
+	private int allocate(long src, long dest){
+		int slot;
+		if(freeCount > 0){
+			slot = freeSlots[--freeCount];
+		}
+		else {
+			slot = slotCount++;
+			if(slot == entryCounts.length){
+				entryCounts = Arrays.copyOf(entryCounts, slot * 2);
+				entrySizes = Arrays.copyOf(entrySizes, slot * 2);
+			}
+		}
+
+		entryCounts[slot] = 0;
+		entrySizes[slot] = 0;
+		index.put(src, dest, slot);
+		return slot;
+	}
+
+	private void set(int slot, String key, Object value){
+		Integer keyId = keyIds.get(key);
+		if(keyId == null){
+			keyId = columns.size();
+			keyIds.put(key, keyId);
+			columns.add(Column.create(key, value));
+		}
+
+		Column column = columns.get(keyId);
+		if(!column.accepts(value)){
+			//values of different types, the key is kept as objects from now on
+			column = new ObjectColumn(column);
+			columns.set(keyId, column);
+		}
+
+		if(column.has(slot)){
+			entrySizes[slot] -= column.entrySize(slot);
+		}
+		else {
+			entryCounts[slot]++;
+		}
+		column.set(slot, value);
+		entrySizes[slot] += column.entrySize(slot);
+	}
+
+	private Column column(String key){
+		Integer keyId = keyIds.get(key);
+		return keyId == null ? null : columns.get(keyId);
+	}
+
+	private int objectSize(int slot){
+		return PropertyCodec.headerSize(entryCounts[slot]) + entrySizes[slot];
+	}
+
+	private void put(ByteBuffer bb, int slot){
+		PropertyCodec.putHeader(bb, entryCounts[slot]);
+		for (int i = 0; i < columns.size(); i++) {
+			Column column = columns.get(i);
+			if(column.has(slot)){
+				PropertyCodec.putKey(bb, column.keyBytes);
+				column.put(bb, slot);
+			}
+		}
+	}
+
+	//measures the entries from scratch, for values which were changed in place
+	private void resize(int slot){
+		entrySizes[slot] = 0;
+		for (int i = 0; i < columns.size(); i++) {
+			Column column = columns.get(i);
+			if(column.has(slot)){
+				entrySizes[slot] += column.entrySize(slot);
+			}
+		}
+	}
+
+	//puts the decoded entries into the slot being read
+	private class SlotSink implements PropertyCodec.EntrySink {
+		int slot;
+
+		@Override
+		public void put(String key, Object value) {
+			set(slot, key, value);
+		}
+	}
+
+	/**
+	 * Values of a key by slot, a bit per slot tells whether the slot has the key.
+	 */
+	private abstract static class Column {
+		final String key;
+		final byte[] keyBytes;
+		final int keySize;
+		private long[] present;
+
+		Column(String key) {
+			this.key = key;
+			this.keyBytes = key.getBytes(UTF8);
+			this.keySize = PropertyCodec.keySize(key);
+			this.present = new long[1];
+		}
+
+		static Column create(String key, Object value){
+			if(value instanceof Long){
+				return new LongColumn(key);
+			}
+			else if(value instanceof Integer){
+				return new IntColumn(key);
+			}
+			else if(value instanceof Double){
+				return new DoubleColumn(key);
+			}
+			else if(value instanceof Boolean){
+				return new BooleanColumn(key);
+			}
+			return new ObjectColumn(key);
+		}
+
+		boolean has(int slot){
+			int word = slot >>> 6;
+			return word < present.length && (present[word] & (1L << slot)) != 0;
+		}
+
+		void set(int slot, Object value){
+			int word = slot >>> 6;
+			if(word >= present.length){
+				present = Arrays.copyOf(present, Math.max(word + 1, present.length * 2));
+			}
+			present[word] |= 1L << slot;
+			setValue(slot, value);
+		}
+
+		void clear(int slot){
+			int word = slot >>> 6;
+			if(word < present.length){
+				present[word] &= ~(1L << slot);
+			}
+		}
+
+		int entrySize(int slot){
+			return keySize + valueSize(slot);
+		}
+
+		//length of the value array which holds the slot
+		static int capacity(int slot, int length){
+			return Math.max(slot + 1, Math.max(16, length + (length >> 1)));
+		}
+
+		abstract boolean accepts(Object value);
+
+		abstract Object get(int slot);
+
+		abstract void setValue(int slot, Object value);
+
+		//bytes of the value after its type tag
+		abstract int valueSize(int slot);
+
+		//writes the type tag and the value
+		abstract void put(ByteBuffer bb, int slot);
+	}
+
+	private static class LongColumn extends Column {
+		long[] values = new long[0];
+
+		LongColumn(String key) {
+			super(key);
+		}
+
+		@Override
+		boolean accepts(Object value) {
+			return value instanceof Long;
+		}
+
+		@Override
+		Object get(int slot) {
+			return values[slot];
+		}
+
+		@Override
+		void setValue(int slot, Object value) {
+			if(slot >= values.length){
+				values = Arrays.copyOf(values, capacity(slot, values.length));
+			}
+			values[slot] = (Long) value;
+		}
+
+		@Override
+		int valueSize(int slot) {
+			return PropertyCodec.valueSize(values[slot]);
+		}
+
+		@Override
+		void put(ByteBuffer bb, int slot) {
+			PropertyCodec.putValue(bb, values[slot]);
+		}
+	}
+
+	private static class IntColumn extends Column {
+		int[] values = new int[0];
+
+		IntColumn(String key) {
+			super(key);
+		}
+
+		@Override
+		boolean accepts(Object value) {
+			return value instanceof Integer;
+		}
+
+		@Override
+		Object get(int slot) {
+			return values[slot];
+		}
+
+		@Override
+		void setValue(int slot, Object value) {
+			if(slot >= values.length){
+				values = Arrays.copyOf(values, capacity(slot, values.length));
+			}
+			values[slot] = (Integer) value;
+		}
+
+		@Override
+		int valueSize(int slot) {
+			return PropertyCodec.valueSize(values[slot]);
+		}
+
+		@Override
+		void put(ByteBuffer bb, int slot) {
+			PropertyCodec.putValue(bb, values[slot]);
+		}
+	}
+
+	private static class DoubleColumn extends Column {
+		double[] values = new double[0];
+
+		DoubleColumn(String key) {
+			super(key);
+		}
+
+		@Override
+		boolean accepts(Object value) {
+			return value instanceof Double;
+		}
+
+		@Override
+		Object get(int slot) {
+			return values[slot];
+		}
+
+		@Override
+		void setValue(int slot, Object value) {
+			if(slot >= values.length){
+				values = Arrays.copyOf(values, capacity(slot, values.length));
+			}
+			values[slot] = (Double) value;
+		}
+
+		@Override
+		int valueSize(int slot) {
+			return PropertyCodec.valueSize(values[slot]);
+		}
+
+		@Override
+		void put(ByteBuffer bb, int slot) {
+			PropertyCodec.putValue(bb, values[slot]);
+		}
+	}
+
+	private static class BooleanColumn extends Column {
+		long[] bits = new long[0];
+
+		BooleanColumn(String key) {
+			super(key);
+		}
+
+		@Override
+		boolean accepts(Object value) {
+			return value instanceof Boolean;
+		}
+
+		boolean value(int slot){
+			return (bits[slot >>> 6] & (1L << slot)) != 0;
+		}
+
+		@Override
+		Object get(int slot) {
+			return value(slot);
+		}
+
+		@Override
+		void setValue(int slot, Object value) {
+			int word = slot >>> 6;
+			if(word >= bits.length){
+				bits = Arrays.copyOf(bits, capacity(word, bits.length));
+			}
+			if((Boolean) value){
+				bits[word] |= 1L << slot;
+			}
+			else {
+				bits[word] &= ~(1L << slot);
+			}
+		}
+
+		@Override
+		int valueSize(int slot) {
+			return PropertyCodec.valueSize(value(slot));
+		}
+
+		@Override
+		void put(ByteBuffer bb, int slot) {
+			PropertyCodec.putValue(bb, value(slot));
+		}
+	}
+
+	private static class ObjectColumn extends Column {
+		Object[] values = new Object[0];
+
+		ObjectColumn(String key) {
+			super(key);
+		}
+
+		//takes over the values of a typed column
+		ObjectColumn(Column column) {
+			super(column.key);
+			for (int slot = 0; slot < column.present.length << 6; slot++) {
+				if(column.has(slot)){
+					set(slot, column.get(slot));
+				}
+			}
+		}
+
+		@Override
+		boolean accepts(Object value) {
+			return true;
+		}
+
+		@Override
+		Object get(int slot) {
+			return values[slot];
+		}
+
+		@Override
+		void setValue(int slot, Object value) {
+			if(slot >= values.length){
+				values = Arrays.copyOf(values, capacity(slot, values.length));
+			}
+			values[slot] = value;
+		}
+
+		@Override
+		void clear(int slot) {
+			super.clear(slot);
+			if(slot < values.length){
+				values[slot] = null;
+			}
+		}
+
+		@Override
+		int valueSize(int slot) {
+			return PropertyCodec.valueSize(values[slot]);
+		}
+
+		@Override
+		void put(ByteBuffer bb, int slot) {
+			PropertyCodec.putValue(bb, values[slot]);
+		}
+	}
+}
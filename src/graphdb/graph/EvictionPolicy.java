@@ -0,0 +1,38 @@
+package graphdb.graph;
+
+import java.util.Set;
+
+/**
+ * Decides which page group leaves the buffer when it is full. Policies work on page
+ * groups, every page passed to them is the leading page of its group (the first
+ * element of its adjacent pages list).
+ */
+public interface EvictionPolicy {
+	/**
+	 * Called when the buffer is (re)initialized. Previously tracked groups are dropped.
+	 * 
+	 * @param capacity Number of pages the buffer can hold.
+	 */
+	public void initialize(int capacity);
+
+	/**
+	 * A page group is brought into the buffer.
+	 */
+	public void admit(Page leader);
+
+	/**
+	 * A page group in the buffer is accessed.
+	 */
+	public void access(Page leader);
+
+	/**
+	 * A page group has left the buffer.
+	 */
+	public void remove(Page leader);
+
+	/**
+	 * @param excluded Groups which are in use and must not be chosen.
+	 * @return Leading page of the group to be evicted next, null if every tracked group is excluded.
+	 */
+	public Page selectVictim(Set<Page> excluded);
+}
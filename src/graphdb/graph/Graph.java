@@ -1,13 +1,16 @@
 package graphdb.graph;
 
 import graphdb.util.CollectionsIterator;
+import graphdb.util.LongIntHashMap;
+import graphdb.util.LongIntMap;
 import graphdb.util.Property;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.lang.NotImplementedException;
 import org.apache.log4j.Logger;
@@ -23,22 +26,27 @@ public class Graph {
 	private static Logger log = Logger.getLogger(Graph.class.getName());
 
 	protected HashMap<Integer, SubGraph> subgraphMap; // id -> subgraph
-	public HashMap<Long, Integer> nodeIndex; // node id -> subgraph
-	public HashSet<Edge> edgeSet; // edge
+	public LongIntMap nodeIndex; // node id -> subgraph
 
-	protected HashMap<Long, Property> nodeProps;
-	protected HashMap<Edge, Property> edgeProps;
+	//concurrent since the write-behind flusher reads them while encoding
+	protected ConcurrentHashMap<Long, Property> nodeProps;
+	protected EdgePropertyStore edgeProps;
+
+	//times pin tries to load and pin a group before it gives up
+	public static final int PIN_ATTEMPTS = 8;
+
+	//held by the changes of the graph, the page reads and evictions, and by the flusher while it encodes a subgraph
+	final ReentrantLock lock = new ReentrantLock();
 
 	protected Graph(int gid, String graphName, long nodeIdCounter, long nodeCounter) {
 		this.gid = gid;
 		this.graphName = graphName;
 
 		subgraphMap = new HashMap<Integer, SubGraph>();
-		edgeSet =  new HashSet<Edge>();
-		nodeIndex = new HashMap<Long, Integer>();
+		nodeIndex = new LongIntHashMap();
 
-		nodeProps = new HashMap<Long, Property>();
-		edgeProps = new HashMap<Edge, Property>();
+		nodeProps = new ConcurrentHashMap<Long, Property>();
+		edgeProps = new EdgePropertyStore();
 
 		this.nodeIdCounter = nodeIdCounter;
 		this.nodeCounter = nodeCounter;
@@ -68,15 +76,19 @@ public class Graph {
 	}
 
 	public Node getNode(long nodeid) {
-		if(nodeIndex.containsKey(nodeid) && subgraphMap.get(nodeIndex.get(nodeid)) != null){
-			return subgraphMap.get(nodeIndex.get(nodeid)).getNode(nodeid);
+		SubGraph sg = ((SuperGraph) this).getSubgraphOfNode(nodeid);
+		if(sg != null){
+			//a miss is counted by the page manager as the node is brought
+			BufferManager.getInstance().getMetrics().recordHit();
+			return sg.getNode(nodeid);
 		}
 		else {
 			//request the node from database
 			GraphManager.getInstance().bringNode(nodeid, gid);
 
-			if(nodeIndex.containsKey(nodeid)){
-				return subgraphMap.get(nodeIndex.get(nodeid)).getNode(nodeid);
+			int sgid = nodeIndex.get(nodeid);
+			if(sgid != LongIntMap.NO_VALUE){
+				return subgraphMap.get(sgid).getNode(nodeid);
 			}
 			else {
 				throw new RuntimeException("Error bringing node from db : "+ nodeid);
@@ -127,12 +139,70 @@ public class Graph {
 	public Iterable<Edge> getEdges(Node node, EdgeDirection direction){
 		log.trace("Directional edges of node" + node + " is requested: " + direction);
 
+		return residentSubgraphOf(node).getEdges(node,direction);
+	}
+
+	/**
+	 * Positions the cursor on the edges of the node, see EdgeCursor. Traversals reuse
+	 * one cursor instead of creating an iterator and an Edge per edge.
+	 */
+	public EdgeCursor getEdges(Node node, EdgeDirection direction, EdgeCursor cursor){
+		return residentSubgraphOf(node).getEdges(node, direction, cursor);
+	}
+
+	/**
+	 * Returns the subgraph holding the node, its page group is brought from the
+	 * database if it was evicted.
+	 */
+	private SubGraph residentSubgraphOf(Node node){
 		SubGraph sg = ((SuperGraph) this).getSubgraphOfNode(node);
 		if(sg == null){
-			System.out.println("subgraph " + nodeIndex.get(node.getId()) +" for node "+ node.getId() + "is full");
-			throw new NullPointerException();
+			sg = ((SuperGraph) this).getSubgraphOfNode(getNode(node.getId()).getId());
+			if(sg == null){
+				log.error("Subgraph of node " + node.getId() + " couldn't be brought to graph " + gid);
+				throw new NoSuchElementException("Node " + node.getId() + " is not in graph " + gid);
+			}
 		}
-		return sg.getEdges(node,direction);
+		return sg;
+	}
+
+	/**
+	 * Positions the cursor on the edges of the node with the id, it is brought from the
+	 * database if needed.
+	 */
+	public EdgeCursor getEdges(long nodeid, EdgeDirection direction, EdgeCursor cursor){
+		return getEdges(getNode(nodeid), direction, cursor);
+	}
+
+	/**
+	 * Pins the page group holding the node, it is loaded first if needed. While the
+	 * pin is held iterating the node's edges can't be broken by an eviction.
+	 * 
+	 * @throws IllegalStateException If the group leaves the buffer before every one of PIN_ATTEMPTS pins.
+	 */
+	public PagePin pin(Node node){
+		for (int attempt = 0; attempt < PIN_ATTEMPTS; attempt++) {
+			SubGraph sg = ((SuperGraph) this).getSubgraphOfNode(node);
+			if(sg == null){
+				//its group was evicted, it is brought back
+				sg = ((SuperGraph) this).getSubgraphOfNode(getNode(node.getId()).getId());
+				if(sg == null){
+					throw new NoSuchElementException("Node " + node.getId() + " doesn't exist.");
+				}
+			}
+
+			PagePin pin = sg.pin();
+			if(pin != null){
+				//the node may have been moved by a split before the pin
+				if(((SuperGraph) this).getSubgraphOfNode(node.getId()) == sg){
+					return pin;
+				}
+				pin.release();
+			}
+		}
+
+		throw new IllegalStateException("Page group of node " + node.getId() + " couldn't be pinned in " + PIN_ATTEMPTS
+				+ " attempts, the buffer may be too small for the groups in use.");
 	}
 
 	public int getNumEdges(Node node, EdgeDirection direction){
@@ -140,138 +210,149 @@ public class Graph {
 	}
 
 	public Node addNode(){
-		SubGraph sg = GraphManager.getInstance().getSubgraphSelectPolicy().select(null, (SuperGraph) this);
+		lock.lock();
+		try {
+			SubGraph sg = GraphManager.getInstance().getSubgraphSelectPolicy().select(null, (SuperGraph) this);
 
-		//for counting number of nodes;
-		nodeCounter++;
-		long nodeId = nodeIdCounter++;
+			//for counting number of nodes;
+			nodeCounter++;
+			long nodeId = nodeIdCounter++;
 
-		//relate node and selected subgraph
-		nodeIndex.put(nodeId, sg.getId());
+			//relate node and selected subgraph
+			nodeIndex.put(nodeId, sg.getId());
 
-		//add node to subgraph
-		Node n = sg.addNode(new Node((SuperGraph) this, nodeId));
+			//add node to subgraph
+			Node n = sg.addNode(new Node((SuperGraph) this, nodeId));
 
-		log.trace("Node added :" + n);
+			log.trace("Node added :" + n);
 
-		return n;
+			return n;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	public Edge addEdge(Node src, Node dest){
-		if(src != null && dest != null){
-			log.trace("An edge requested to be added: "+ src + "(isDummy:" + src.isDummy() + ")" + " -> " + dest + "(isDummy:" + dest.isDummy() + ")");
+		lock.lock();
+		try {
+			if(src != null && dest != null){
+				log.trace("An edge requested to be added: "+ src + "(isDummy:" + src.isDummy() + ")" + " -> " + dest + "(isDummy:" + dest.isDummy() + ")");
 
-			SubGraph srcsg = ((SuperGraph)this).getSubgraphOfNode(src);
+				SubGraph srcsg = ((SuperGraph)this).getSubgraphOfNode(src);
 
-			//if the edge already exists dont add it
-			Edge e = srcsg.findEdge(src.getId(),dest.getId());
-			if(e != null){
-				return e;
-			}
+				//if the edge already exists dont add it
+				Edge e = srcsg.findEdge(src.getId(),dest.getId());
+				if(e != null){
+					return e;
+				}
 
-			//add edge to the source subgraph
-			Edge newEdge = new Edge(src, dest);
-			srcsg.addOutgoingEdge(newEdge);
+				//add edge to the source subgraph
+				Edge newEdge = new Edge(src, dest);
+				srcsg.addOutgoingEdge(newEdge);
 
-			SubGraph destsg = ((SuperGraph)this).getSubgraphOfNode(dest);
-			destsg.addIncomingEdge(newEdge);
+				SubGraph destsg = ((SuperGraph)this).getSubgraphOfNode(dest);
+				destsg.addIncomingEdge(newEdge);
 
-			GraphManager.getInstance().getSubgraphSplitPolicy().addEdgeAction(newEdge);
+				GraphManager.getInstance().getSubgraphSplitPolicy().addEdgeAction(newEdge);
 
-			log.trace("An edge added : "+ newEdge);
-			return newEdge;
-		}
+				log.trace("An edge added : "+ newEdge);
+				return newEdge;
+			}
 
-		return null;
+			return null;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	public Node setProperty(Node node, String key, Object value){
-		int oldPropSize = 0;
-		int newPropSize = 0;
+		lock.lock();
+		try {
+			((SuperGraph)this).decodeNode(node.getId());
+			SubGraph sg = ((SuperGraph)this).getSubgraphOfNode(node);
 
-		//if node already have a property object
-		if(nodeProps.containsKey(node.getId())){
-			Property prop = nodeProps.get(node.getId());
+			//if node already have a property object
+			if(nodeProps.containsKey(node.getId())){
+				Property prop = nodeProps.get(node.getId());
 
-			//if this is an update and new value and old value differs
-			if(prop.getProperty(key) != null && !prop.getProperty(key).equals(value)){
-				//get old property size
-				oldPropSize = prop.getObjectSize();
+				//nothing changes if the value is the same
+				if(value != null && value.equals(prop.getProperty(key))){
+					return node;
+				}
 
-				//add the key and value to existing property
+				//add the key and value to existing property, only its size changes in the record
+				int oldPropSize = SubGraph.propertySize(prop);
+				long oldEntries = prop.size();
 				prop.setProperty(key, value);
-
-				//get new property size
-				newPropSize = prop.getObjectSize();
+				sg.resizeProperty(node.getId(), SubGraph.propertySize(prop) - oldPropSize,
+						(int) (prop.size() - oldEntries) * SubGraph.propertyEntryHeapCost);
 			}
-		}
-		else {
-			Property prop = new Property();
-			prop.setProperty(key, value);
-
-			//set new property object
-			nodeProps.put(node.getId(), prop);
+			else {
+				Property prop = new Property();
+				prop.setProperty(key, value);
 
-			//get new property size
-			newPropSize = prop.getObjectSize();
-		}
+				//set new property object
+				nodeProps.put(node.getId(), prop);
 
-		((SuperGraph)this).getSubgraphOfNode(node).incByteCount(newPropSize - oldPropSize);
+				sg.updateNode(node.getId());
+			}
 
-		return node;
+			return node;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	public Edge setProperty(Edge edge, String key, Object value){
-		int oldPropSize = 0;
-		int newPropSize = 0;
+		lock.lock();
+		try {
+			((SuperGraph)this).decodeNodes(edge);
 
-		if(edgeProps.containsKey(edge)) {
-			Property prop = edgeProps.get(edge);
+			// both src and dest is requested if they are both in the buffer
+			// nothing happens but if one of them is not in the buffer, it is brought
+			// and it is updated when it is being read.
+			SubGraph srcsg = ((SuperGraph)this).getSubgraphOfNode(edge.getSource());
+			SubGraph destsg = ((SuperGraph)this).getSubgraphOfNode(edge.getDestination());
 
-			//if this is an update and new value and old value differs
-			if(prop.getProperty(key) != null && !edgeProps.get(edge).getProperty(key).equals(value)){
+			long srcId = edge.getSourceId();
+			long destId = edge.getDestinationId();
+			int oldLength = edgeProps.getObjectSize(srcId, destId);
 
-				//get old property size
-				oldPropSize = prop.getObjectSize();
+			if(oldLength >= 0) {
+				//nothing changes if the value is the same
+				if(value != null && value.equals(edgeProps.get(srcId, destId, key))){
+					return edge;
+				}
 
-				//add the key and value to existing property
-				prop.setProperty(key, value);
+				//add the key and value to existing property, only its size changes in the records
+				int oldEntries = edgeProps.getEntryCount(srcId, destId);
+				edgeProps.set(srcId, destId, key, value);
+				int delta = SubGraph.propertySize(edgeProps.getObjectSize(srcId, destId)) - SubGraph.propertySize(oldLength);
+				int heapDelta = (edgeProps.getEntryCount(srcId, destId) - oldEntries) * SubGraph.edgePropertyEntryHeapCost;
 
-				//get new property size
-				newPropSize = prop.getObjectSize();
+				//the source always writes the property, the destination if the source is in another subgraph
+				srcsg.resizeProperty(edge.getSourceId(), delta, heapDelta);
+				if(destsg != srcsg){
+					destsg.resizeProperty(edge.getDestinationId(), delta, 0);
+				}
 			}
-		}
-		else {
-			//create a new property object
-			Property prop = new Property();
-			prop.setProperty(key, value);
-
-			edgeProps.put(edge, prop);
-
-			newPropSize = prop.getObjectSize();
-		}
-
-		// both src and dest is requested if they are both in the buffer
-		// nothing happens but if one of them is not in the buffer, it is brought
-		// and it is updated when it is being read.
-
-		SubGraph srcsg = ((SuperGraph)this).getSubgraphOfNode(edge.getSource());
+			else {
+				//the edge gets its first property
+				edgeProps.set(srcId, destId, key, value);
 
-		//if src and destination subgraphs are identical
-		if(srcsg.nodeMap.containsKey(edge.getDestinationId())){
-			srcsg.incByteCount(2 * (newPropSize - oldPropSize));
-		}
-		else {
-			srcsg.incByteCount(newPropSize - oldPropSize);
+				srcsg.updateNode(edge.getSourceId());
+				destsg.updateNode(edge.getDestinationId());
+			}
 
-			SubGraph destsg = ((SuperGraph)this).getSubgraphOfNode(edge.getDestination());
-			destsg.incByteCount(newPropSize - oldPropSize);
+			return edge;
+		} finally {
+			lock.unlock();
 		}
-
-		return edge;
 	}
 
 	public Object getProperty(Node node, String key) {
+		((SuperGraph)this).decodeNode(node.getId());
+
 		Property props = nodeProps.get(node.getId());
 		if(props == null){
 			return null;
@@ -286,25 +367,19 @@ public class Graph {
 	}
 
 	public Object getProperty(Edge edge, String key) {
-		Property props = edgeProps.get(edge);
-		if(props == null){
-			return null;
-		}
-
-		Object prop = props.getProperty(key);
-		if(prop == null){
-			return null;
-		}
+		((SuperGraph)this).decodeNodes(edge);
 
-		return prop;
+		return edgeProps.get(edge.getSourceId(), edge.getDestinationId(), key);
 	}
 
 	public boolean hasProperty(Node node){
+		((SuperGraph)this).decodeNode(node.getId());
 		return nodeProps.containsKey(node.getId());
 	}
 
 	public boolean hasProperty(Edge edge){
-		return edgeProps.containsKey(edge);
+		((SuperGraph)this).decodeNodes(edge);
+		return edgeProps.contains(edge.getSourceId(), edge.getDestinationId());
 	}
 
 	public boolean removeProperty(Edge edge, String key){
@@ -316,50 +391,57 @@ public class Graph {
 	}
 
 	public void remove(Node src, Node dest){
-		SuperGraph superg = (SuperGraph) this;
-		boolean state = true;
-
-		//delete edge from src's subgraph
-		SubGraph srcsg = superg.getSubgraphOfNode(src);
-		srcsg.removeEdge(src, dest);
+		lock.lock();
+		try {
+			SuperGraph superg = (SuperGraph) this;
 
-		SubGraph destsg = superg.getSubgraphOfNode(src);
+			//delete edge from src's subgraph
+			SubGraph srcsg = superg.getSubgraphOfNode(src);
+			srcsg.removeEdge(src, dest);
 
-		//delete edge from dest's subgraph if on different subgraph
-		if(!srcsg.equals(destsg))
-			state = destsg.removeEdge(src, dest);
+			SubGraph destsg = superg.getSubgraphOfNode(src);
 
-		if(!state){
-			Edge temp = new Edge(src,dest);
-			edgeSet.remove(temp);
+			//delete edge from dest's subgraph if on different subgraph
+			if(!srcsg.equals(destsg))
+				destsg.removeEdge(src, dest);
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	public void remove(Edge edge){
-		SuperGraph superg = (SuperGraph) this;
-
-		//delete edge from src's subgraph
-		SubGraph srcsg = superg.getSubgraphOfNode(edge.getSource());
-		srcsg.removeEdge(edge.getSource(), edge.getDestination());
+		lock.lock();
+		try {
+			SuperGraph superg = (SuperGraph) this;
 
-		SubGraph destsg = superg.getSubgraphOfNode(edge.getDestination());
+			//delete edge from src's subgraph
+			SubGraph srcsg = superg.getSubgraphOfNode(edge.getSource());
+			srcsg.removeEdge(edge.getSource(), edge.getDestination());
 
-		//delete edge from dest's subgraph if on different subgraph
-		if(!srcsg.equals(destsg))
-			destsg.removeEdge(edge.getSource(), edge.getDestination());
+			SubGraph destsg = superg.getSubgraphOfNode(edge.getDestination());
 
-		edgeSet.remove(edge);
+			//delete edge from dest's subgraph if on different subgraph
+			if(!srcsg.equals(destsg))
+				destsg.removeEdge(edge.getSource(), edge.getDestination());
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	public void remove(Node node) {
-		//get node's subgraph
-		SuperGraph superg = (SuperGraph) this;
+		lock.lock();
+		try {
+			//get node's subgraph
+			SuperGraph superg = (SuperGraph) this;
 
-		SubGraph sg = superg.getSubgraphOfNode(node);
-		sg.removeNode(node);
+			SubGraph sg = superg.getSubgraphOfNode(node);
+			sg.removeNode(node);
 
-		nodeIndex.remove(node.getId());
-		nodeProps.remove(node.getId());
+			nodeIndex.remove(node.getId());
+			nodeProps.remove(node.getId());
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	public HashMap<Integer,SubGraph> getSubgraphMap(){
@@ -379,6 +461,7 @@ public class Graph {
 		System.out.println("=== Subgraph Summary Starting===");
 		for (Iterator<SubGraph> it = subgraphMap.values().iterator(); it.hasNext();) {
 			SubGraph sg = it.next();
+			sg.decodeAllNodes();
 
 			System.out.println("Nodes in Subgraph " + sg.getId() + " (size=" + sg.getTotalSize() + ", size2=" + sg.getTotalSize2() + "Page"+ sg.pageid + ")");
 			for (Iterator<Node> it2 = sg.nodeMap.values().iterator(); it2.hasNext();) {
@@ -0,0 +1,275 @@
+package graphdb.graph;
+
+import graphdb.util.Property;
+import graphdb.util.VarInt;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Graphs of the database, their entries in the graph table are only decoded when a
+ * graph is first asked for, so opening a database with many graphs doesn't load all
+ * of them. The entries of the graph table are written in a versioned binary format:
+ *
+ * <pre>
+ * system properties: 'C', version, varint page id count, varint hot page count, varint hot pages
+ * graph entry:       'C', version, varint name length, UTF-8 name, varint node id count, varint node count
+ * </pre>
+ *
+ * Entries of older releases are Property objects in Java serialization, they are
+ * still read and rewritten in the new format when the graph list is written.
+ */
+public class GraphCatalog {
+	private static Logger log = Logger.getLogger(GraphCatalog.class.getName());
+
+	private static final byte CATALOG = 'C';
+	private static final byte VERSION = 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final HashMap<Integer, byte[]> entries; // graph id -> entry not decoded yet
+	private final HashMap<Integer, SuperGraph> graphs; // graph id -> loaded graph
+	private HashMap<String, Integer> names; // graph name -> graph id, built on the first lookup by name
+	private final int maxGraphId;
+
+	/**
+	 * @param entries Graph table entries by graph id, without the system properties.
+	 */
+	public GraphCatalog(HashMap<Integer, byte[]> entries) {
+		this.entries = new HashMap<Integer, byte[]>(entries);
+		this.graphs = new HashMap<Integer, SuperGraph>();
+
+		int max = 0;
+		for (Integer gid : entries.keySet()) {
+			max = gid > max ? gid : max;
+		}
+		this.maxGraphId = max;
+	}
+
+	/**
+	 * @return The largest graph id in the database when the catalog was read.
+	 */
+	public int getMaxGraphId(){
+		return maxGraphId;
+	}
+
+	public synchronized boolean containsKey(int gid){
+		return graphs.containsKey(gid) || entries.containsKey(gid);
+	}
+
+	/**
+	 * Decodes the entry of the graph if it isn't loaded yet.
+	 *
+	 * @return The graph, null if there is no graph with the id.
+	 */
+	public synchronized SuperGraph get(int gid){
+		SuperGraph g = graphs.get(gid);
+		if(g != null){
+			return g;
+		}
+
+		byte[] entry = entries.remove(gid);
+		if(entry == null){
+			return null;
+		}
+
+		g = decodeGraph(gid, entry);
+		if(g != null){
+			graphs.put(gid, g);
+			log.debug("Graph " + gid + " = nodeIdCnt:" + g.getNodeIdCount() + ", nodeCnt:" + g.getNumNodes());
+		}
+		return g;
+	}
+
+	/**
+	 * @return The graph with the name, null if there is none.
+	 */
+	public synchronized SuperGraph get(String graphName){
+		if(names == null){
+			names = new HashMap<String, Integer>();
+			for (Map.Entry<Integer, byte[]> entry : entries.entrySet()) {
+				String name = decodeGraphName(entry.getValue());
+				if(name != null){
+					names.put(name, entry.getKey());
+				}
+			}
+			for (SuperGraph g : graphs.values()) {
+				names.put(g.getName(), g.getId());
+			}
+		}
+
+		Integer gid = names.get(graphName);
+		return gid == null ? null : get(gid);
+	}
+
+	public synchronized void put(int gid, SuperGraph g){
+		entries.remove(gid);
+		graphs.put(gid, g);
+
+		if(names != null){
+			names.put(g.getName(), gid);
+		}
+	}
+
+	/**
+	 * @return Every graph of the database, the graphs not loaded yet are decoded.
+	 */
+	public synchronized HashMap<Integer, SuperGraph> getAll(){
+		for (Iterator<Integer> it = new ArrayList<Integer>(entries.keySet()).iterator(); it.hasNext();) {
+			get(it.next());
+		}
+		return new HashMap<Integer, SuperGraph>(graphs);
+	}
+
+	/**
+	 * @return The graphs which were asked for, only they can have changed.
+	 */
+	public synchronized Collection<SuperGraph> getLoaded(){
+		return new ArrayList<SuperGraph>(graphs.values());
+	}
+
+	/**
+	 * @param hotPages (graph id, leading page id, node id) of the hot page groups.
+	 * @param framedPages Whether all the pages of the database start with a PageCompression header.
+	 */
+	public static byte[] encodeSystemProperties(long pageIdCount, long[] hotPages, boolean framedPages){
+		int size = 3 + VarInt.varLongSize(pageIdCount) + VarInt.varIntSize(hotPages.length);
+		for (int i = 0; i < hotPages.length; i++) {
+			size += VarInt.varLongSize(hotPages[i]);
+		}
+
+		ByteBuffer bb = ByteBuffer.allocate(size);
+		bb.put(CATALOG);
+		bb.put(VERSION);
+		VarInt.putVarLong(bb, pageIdCount);
+		VarInt.putVarInt(bb, hotPages.length);
+		for (int i = 0; i < hotPages.length; i++) {
+			VarInt.putVarLong(bb, hotPages[i]);
+		}
+		bb.put((byte) (framedPages ? 1 : 0));
+		return bb.array();
+	}
+
+	/**
+	 * @return The system properties as a property object with the pageIdCount, hotPages and framedPages keys.
+	 */
+	public static Property decodeSystemProperties(byte[] data) throws IOException, ClassNotFoundException {
+		if(!isCatalogEntry(data)){
+			return readSerialized(data);
+		}
+
+		try {
+			ByteBuffer bb = ByteBuffer.wrap(data, 2, data.length - 2);
+			Property sysprop = new Property();
+
+			sysprop.setProperty("pageIdCount", VarInt.getVarLong(bb));
+
+			long[] hotPages = new long[VarInt.getVarInt(bb)];
+			for (int i = 0; i < hotPages.length; i++) {
+				hotPages[i] = VarInt.getVarLong(bb);
+			}
+			sysprop.setProperty(BufferWarmer.HOT_PAGES_PROPERTY, hotPages);
+
+			//missing in the entries written before pages were framed
+			sysprop.setProperty(PageCompression.FRAMED_PAGES_PROPERTY, bb.hasRemaining() && bb.get() == 1);
+
+			return sysprop;
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Malformed system properties in the graph table.");
+		}
+	}
+
+	public static byte[] encodeGraph(SuperGraph g){
+		byte[] name = g.getName().getBytes(UTF8);
+		long nodeIdCount = g.getNodeIdCount();
+		long nodeCount = g.getNumNodes();
+
+		ByteBuffer bb = ByteBuffer.allocate(2 + VarInt.varIntSize(name.length) + name.length
+				+ VarInt.varLongSize(nodeIdCount) + VarInt.varLongSize(nodeCount));
+		bb.put(CATALOG);
+		bb.put(VERSION);
+		VarInt.putVarInt(bb, name.length);
+		bb.put(name);
+		VarInt.putVarLong(bb, nodeIdCount);
+		VarInt.putVarLong(bb, nodeCount);
+		return bb.array();
+	}
+
+	/**
+	 * @return The graph, null if the entry can't be read.
+	 */
+	public static SuperGraph decodeGraph(int gid, byte[] data){
+		try {
+			if(!isCatalogEntry(data)){
+				Property gprops = readSerialized(data);
+				return new SuperGraph(gid, (String) gprops.getProperty("graphName"),
+						(Long) gprops.getProperty("nodeIdCount"), (Long) gprops.getProperty("nodeCount"));
+			}
+
+			ByteBuffer bb = ByteBuffer.wrap(data, 2, data.length - 2);
+			String name = getName(bb);
+			long nodeIdCount = VarInt.getVarLong(bb);
+			long nodeCount = VarInt.getVarLong(bb);
+
+			return new SuperGraph(gid, name, nodeIdCount, nodeCount);
+		} catch (IOException e) {
+			log.error("Graph " + gid + " can't be read from the graph table.", e);
+		} catch (ClassNotFoundException e) {
+			log.error("Graph " + gid + " can't be read from the graph table.", e);
+		} catch (RuntimeException e) {
+			log.error("Graph " + gid + " can't be read from the graph table.", e);
+		}
+		return null;
+	}
+
+	//the name is the first field of an entry, the counters aren't decoded
+	private static String decodeGraphName(byte[] data){
+		try {
+			if(!isCatalogEntry(data)){
+				return (String) readSerialized(data).getProperty("graphName");
+			}
+			return getName(ByteBuffer.wrap(data, 2, data.length - 2));
+		} catch (IOException e) {
+			return null;
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static String getName(ByteBuffer bb){
+		int length = VarInt.getVarInt(bb);
+		if(length < 0 || length > bb.remaining()){
+			throw new BufferUnderflowException();
+		}
+
+		String name = new String(bb.array(), bb.position(), length, UTF8);
+		bb.position(bb.position() + length);
+		return name;
+	}
+
+	private static boolean isCatalogEntry(byte[] data){
+		return data.length >= 2 && data[0] == CATALOG && data[1] == VERSION;
+	}
+
+	//entries of older releases
+	private static Property readSerialized(byte[] data) throws IOException, ClassNotFoundException {
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data));
+		try {
+			return (Property) ois.readObject();
+		} finally {
+			ois.close();
+		}
+	}
+}
@@ -4,6 +4,7 @@ import graphdb.policy.SubgraphFirstAvailableSelect;
 import graphdb.policy.SubgraphHalfSplit;
 import graphdb.util.Property;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -13,11 +14,12 @@ import org.apache.log4j.Logger;
 
 public class GraphManager {
 	private int graphIdCount;
-	private static boolean initialized = false;
+	private static volatile boolean initialized = false;
+	private static boolean initializing = false; // guarded by the class lock, the graph list read calls getInstance
 	private static SubGraphSplitPolicy splitPol;
 	private static SubGraphSelectPolicy selectPol;
 
-	private static HashMap<Integer, SuperGraph> gmap; // graphid -> graph
+	private static GraphCatalog gmap; // graphid -> graph
 
 	private static Logger log = Logger.getLogger(GraphManager.class.getName());
 
@@ -37,16 +39,38 @@ public class GraphManager {
 		private static final GraphManager INSTANCE = new GraphManager();
 	}
 
-	public static synchronized GraphManager getInstance(){
-		//get graph list from buffer manager
+	public static GraphManager getInstance(){
 		if(!initialized){
-			initialized = true;
+			initialize();
+		}
+		return GraphManagerLoader.INSTANCE;
+	}
+
+	private static void initialize(){
+		synchronized (GraphManager.class) {
+			if(initialized || initializing){
+				return;
+			}
+			initializing = true;
+
+			//get graph list from buffer manager
 			gmap = BufferManager.getInstance().getGraphList();
 
 			splitPol = new SubgraphHalfSplit();
 			selectPol = new SubgraphFirstAvailableSelect();
+
+			initialized = true;
+		}
+
+		//the preload holds no lock of the graph manager, other callers don't wait for it
+		warmStart();
+	}
+
+	private static void warmStart(){
+		BufferConfiguration conf = BufferManager.getInstance().getBufferConf();
+		if(conf.isWarmStart()){
+			BufferManager.getInstance().warmUp(conf.getWarmStartTimeout());
 		}
-		return GraphManagerLoader.INSTANCE;
 	}
 
 	//user API call
@@ -73,6 +97,7 @@ public class GraphManager {
 				Property newProp = new Property(oldProp);
 
 				newg.nodeProps.put(nn.getId(), newProp);
+				updateNode(newg, nn.getId());
 			}
 		}
 
@@ -81,11 +106,13 @@ public class GraphManager {
 				Node nn = newg.getNode(n.getId());
 				Edge ne = nn.addEdge(newg.getNode(oe.getDestinationId()));
 
-				if(oldg.edgeProps.containsKey(oe)){
-					Property oldProp = oldg.edgeProps.get(oe);
+				Property oldProp = oldg.edgeProps.getProperty(oe.getSourceId(), oe.getDestinationId());
+				if(oldProp != null){
 					Property newProp = new Property(oldProp);
 
-					newg.edgeProps.put(ne, newProp);
+					newg.edgeProps.put(ne.getSourceId(), ne.getDestinationId(), newProp);
+					updateNode(newg, ne.getSourceId());
+					updateNode(newg, ne.getDestinationId());
 				}
 			}
 		}
@@ -93,6 +120,14 @@ public class GraphManager {
 		return newg.getGraph();
 	}
 
+	//the sizes of a node are measured again after a property is copied to it
+	private static void updateNode(SuperGraph g, long nodeid){
+		SubGraph sg = g.getSubgraphOfNode(nodeid);
+		if(sg != null){
+			sg.updateNode(nodeid);
+		}
+	}
+
 	private SuperGraph createSuperGraph(){
 		return createSuperGraph(String.valueOf(graphIdCount+1));
 	}
@@ -154,16 +189,9 @@ public class GraphManager {
 	}
 
 	public Graph getGraph(String graphName){
-		SuperGraph g = null;
-
 		changeDB(graphName);
 
-		for (Iterator<SuperGraph> it = gmap.values().iterator(); it.hasNext();) {
-			SuperGraph tempg = it.next();
-			if(graphName.equals(tempg.getName())){
-				g = tempg;
-			}
-		}
+		SuperGraph g = gmap.get(graphName);
 
 		if(g == null)
 			throw new NoSuchElementException("There is no graph with name " + graphName);
@@ -178,14 +206,24 @@ public class GraphManager {
 			@Override
 			public Iterator<Graph> iterator() {
 				//gmap is in the super graph type
-				HashMap<Integer, Graph> graphmap = new HashMap<Integer, Graph>(gmap);
+				HashMap<Integer, Graph> graphmap = new HashMap<Integer, Graph>(gmap.getAll());
 				return graphmap.values().iterator();
 			}
 		};
 	}
 
+	/**
+	 * Every graph of the database is loaded, getGraph loads only the one asked for.
+	 */
 	public HashMap<Integer,SuperGraph> getGmap(){
-		return gmap;
+		return gmap.getAll();
+	}
+
+	/**
+	 * @return The graphs loaded since the database was opened.
+	 */
+	Collection<SuperGraph> getLoadedGraphs(){
+		return gmap.getLoaded();
 	}
 
 	public List<Long> getNodeList(int graphid){
@@ -239,6 +277,7 @@ public class GraphManager {
 
 		gmap = BufferManager.getInstance().getGraphList();
 
+		warmStart();
 	}
 
 	public void deleteEverything(){
@@ -255,6 +294,16 @@ public class GraphManager {
 
 	}
 
+	/**
+	 * Preloads the hot set of the last shutdown, see BufferConfiguration.setWarmStart.
+	 * 
+	 * @param timeout Max milliseconds to spend, 0 means no limit.
+	 * @return Number of page groups loaded.
+	 */
+	public long warmUp(long timeout){
+		return BufferManager.getInstance().warmUp(timeout);
+	}
+
 	public void shutdown(){
 		//writes sysprops, graphlists, flushes the buffer in the subgraphs and closes the database
 		BufferManager.getInstance().shutdown();
@@ -267,5 +316,31 @@ public class GraphManager {
 	public void setBufferConfiguration(BufferConfiguration bc){
 		BufferManager.getInstance().getBufferConf().setMaxBufferSize(bc.getMaxBufferSize());
 		BufferManager.getInstance().getBufferConf().setMaxBlockSize(bc.getMaxBlockSize());
+		BufferManager.getInstance().getBufferConf().setConcurrencyLevel(bc.getConcurrencyLevel());
+		BufferManager.getInstance().getBufferConf().setMaxBufferBytes(bc.getMaxBufferBytes());
+		BufferManager.getInstance().getBufferConf().setWatermarks(bc.getLowWatermark(), bc.getHighWatermark());
+		BufferManager.getInstance().getBufferConf().setDirtyRatios(bc.getDirtyLowRatio(), bc.getDirtyHighRatio());
+		BufferManager.getInstance().getBufferConf().setFlushInterval(bc.getFlushInterval());
+		BufferManager.getInstance().getBufferConf().setFlushBatchSize(bc.getFlushBatchSize());
+		BufferManager.getInstance().setWriteBehind(bc.isWriteBehind());
+		BufferManager.getInstance().getBufferConf().setReadAheadBudget(bc.getReadAheadBudget());
+		BufferManager.getInstance().getBufferConf().setReadAheadCacheBytes(bc.getReadAheadCacheBytes());
+		BufferManager.getInstance().setReadAhead(bc.isReadAhead());
+		BufferManager.getInstance().setOffHeap(bc.isOffHeap());
+		BufferManager.getInstance().getBufferConf().setWarmStart(bc.isWarmStart());
+		BufferManager.getInstance().getBufferConf().setWarmStartThreads(bc.getWarmStartThreads());
+		BufferManager.getInstance().getBufferConf().setWarmStartBatchSize(bc.getWarmStartBatchSize());
+		BufferManager.getInstance().getBufferConf().setWarmStartRate(bc.getWarmStartRate());
+		BufferManager.getInstance().getBufferConf().setWarmStartTimeout(bc.getWarmStartTimeout());
+		BufferManager.getInstance().getBufferConf().setPageFormat(bc.getPageFormat());
+		BufferManager.getInstance().getBufferConf().setLazyDecode(bc.isLazyDecode());
+		BufferManager.getInstance().getBufferConf().setPageCompression(bc.getPageCompression());
+		BufferManager.getInstance().getBufferConf().setPageChecksum(bc.getPageChecksum());
+		BufferManager.getInstance().setScrubRate(bc.getScrubRate());
+		BufferManager.getInstance().getBufferConf().setStageTiming(bc.isStageTiming());
+
+		if(bc.getEvictionPolicy() != BufferManager.getInstance().getBufferConf().getEvictionPolicy()){
+			BufferManager.getInstance().setEvictionPolicy(bc.getEvictionPolicy());
+		}
 	}
 }
\ No newline at end of file
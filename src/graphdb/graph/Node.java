@@ -33,6 +33,22 @@ public class Node {
 		return g.getEdges(this, dir);
 	}
 	
+	/**
+	 * Positions the cursor on the edges of the node, see EdgeCursor.
+	 */
+	public EdgeCursor getEdges(EdgeDirection dir, EdgeCursor cursor){
+		ifDummy();
+		return g.getEdges(this, dir, cursor);
+	}
+	
+	/**
+	 * Pins the page group of the node, see Graph.pin.
+	 */
+	public PagePin pin(){
+		ifDummy();
+		return g.pin(this);
+	}
+
 	public Object getProperty(String key){
 		ifDummy();
 		return g.getProperty(this, key);
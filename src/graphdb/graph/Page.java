@@ -2,6 +2,7 @@ package graphdb.graph;
 
 import graphdb.util.DoublyLinkedList;
 
+import java.nio.ByteBuffer;
 
 
 public class Page {
@@ -12,9 +13,13 @@ public class Page {
 	
 	private DoublyLinkedList<Page> adjacentPages;
 	private boolean partitioned;
-	private boolean dirty;
+	private volatile boolean dirty;
+	private volatile long lastAccess; //logical access time set by the buffer manager
+	private volatile long loadCost; //nanoseconds the group took to be read and decoded, only used on the leading page
+	private int pinCount; //pins held on the group, only used on the leading page, guarded by the buffer manager
+	private long charge; //bytes the group is counted with in the buffered bytes, only used on the leading page, guarded by the buffer manager
 
-	private byte[] data;
+	private ByteBuffer data; //block data allocated from the page arena, null if there is none
 
 	public Page(long pageid, int gid, int sgid, DoublyLinkedList<Page> adjlist, byte[] data) {
 		this.pid = pageid;
@@ -37,7 +42,9 @@ public class Page {
 		adjacentPages.appendElement(this);
 		
 		//set its data
-		this.data = data;
+		if(data != null){
+			setData(data);
+		}
 	}
 
 	public long getId() {
@@ -64,13 +71,59 @@ public class Page {
 		this.partitioned = flag;
 	}
 	
+	int getPinCount() {
+		return pinCount;
+	}
+
+	void setPinCount(int pinCount) {
+		this.pinCount = pinCount;
+	}
+
+	long getCharge() {
+		return charge;
+	}
+
+	void setCharge(long charge) {
+		this.charge = charge;
+	}
+
 	public DoublyLinkedList<Page> setAdjacentPages(DoublyLinkedList<Page> dll){
 		adjacentPages = dll;
 		return adjacentPages;
 	}
 	
+	/**
+	 * Copies the data into a buffer of the page arena.
+	 */
 	public void setData(byte[] data){
-		this.data = data;
+		ByteBuffer buf = BufferManager.getInstance().getPageArena().allocate(data.length);
+		buf.put(data);
+		buf.flip();
+
+		setData(buf);
+	}
+
+	/**
+	 * The page takes the ownership of the buffer, it must be allocated from the page arena.
+	 * Previous data of the page is released.
+	 */
+	public synchronized void setData(ByteBuffer buf){
+		ByteBuffer old = this.data;
+		this.data = buf;
+
+		if(old != null && old != buf){
+			BufferManager.getInstance().getPageArena().release(old);
+		}
+	}
+
+	/**
+	 * Gives the data back to the page arena. It is called when the page leaves the buffer.
+	 */
+	public synchronized void releaseData(){
+		if(data != null){
+			BufferManager.getInstance().getPageArena().release(data);
+			data = null;
+		}
 	}
 
 	public boolean equals(Page p) {
@@ -78,8 +131,36 @@ public class Page {
 				&& this.sgid == p.getSubgraphId();
 	}
 
-	public byte[] getData() {
-		return data;
+	/**
+	 * @return A heap copy of the data, null if there is none. Use getDataBuffer to read it without copying.
+	 */
+	public synchronized byte[] getData() {
+		if(data == null){
+			return null;
+		}
+
+		byte[] copy = new byte[data.limit()];
+		data.duplicate().get(copy);
+		return copy;
+	}
+
+	/**
+	 * @return Read only view of the data from position 0, null if there is none. It is
+	 * valid until the data of the page is replaced or released.
+	 */
+	public synchronized ByteBuffer getDataBuffer() {
+		if(data == null){
+			return null;
+		}
+		return data.asReadOnlyBuffer();
+	}
+
+	public synchronized int getDataSize() {
+		return data == null ? 0 : data.limit();
+	}
+
+	public synchronized boolean hasData() {
+		return data != null;
 	}
 
 	public void setSubgraph(int sgid) {
@@ -95,6 +176,25 @@ public class Page {
 		}
 	}
 	
+	public long getLastAccess() {
+		return lastAccess;
+	}
+
+	/**
+	 * @return Nanoseconds the group took to be read and decoded when it was loaded, 0 if it was never loaded.
+	 */
+	public long getLoadCost() {
+		return adjacentPages.getFirstElement().loadCost;
+	}
+
+	public void setLoadCost(long loadCost) {
+		adjacentPages.getFirstElement().loadCost = loadCost;
+	}
+
+	public void setLastAccess(long lastAccess) {
+		this.lastAccess = lastAccess;
+	}
+
 	public boolean isDirty() {
 		if(this.equals(adjacentPages.getFirstElement())){
 			return dirty;
@@ -116,7 +216,7 @@ public class Page {
 	
 	@Override
 	public String toString(){
-		return new String("Page" + pid+ "(" + (partitioned ? "P," : "NP,") + "SubGraph" + sgid + ",Size" + (data == null ? 0 : data.length) + ")");
+		return new String("Page" + pid+ "(" + (partitioned ? "P," : "NP,") + "SubGraph" + sgid + ",Size" + getDataSize() + ")");
 	}
 	
 }
@@ -0,0 +1,207 @@
+package graphdb.graph;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Slab allocator for page data. Buffers are handed out in power of two size classes
+ * and carved from larger direct (off-heap) slabs, so big blocks don't end up as huge
+ * arrays on the heap. A released buffer goes back to its slab and is reused. Once all
+ * the buffers of a slab are back, the slab is kept as the spare of its class or, if
+ * the class already has SPARE_SLABS of them, dropped and left to gc.
+ *
+ * Buffers larger than the largest class are allocated one by one and dropped on release.
+ */
+public class PageArena {
+	public static final int MIN_CLASS_SIZE = 4 * 1024;
+	public static final int SLAB_SIZE = 1024 * 1024;
+	public static final int SPARE_SLABS = 1; // completely free slabs kept per class
+
+	private static class Slab {
+		final ArrayDeque<ByteBuffer> free = new ArrayDeque<ByteBuffer>(); // buffers not handed out
+		final int buffers;
+		final int size;
+
+		Slab(int buffers, int size) {
+			this.buffers = buffers;
+			this.size = size;
+		}
+	}
+
+	private static class SizeClass {
+		final LinkedHashSet<Slab> available = new LinkedHashSet<Slab>(); // slabs with free buffers
+		final IdentityHashMap<ByteBuffer, Slab> slabs = new IdentityHashMap<ByteBuffer, Slab>(); // slab of each buffer
+		int spareSlabs; // slabs with all their buffers free
+	}
+
+	private final boolean direct;
+	private final int maxClassSize;
+	private final List<SizeClass> classes;
+
+	private final AtomicLong reservedBytes; // bytes of the slabs and unpooled buffers
+	private final AtomicLong usedBytes; // bytes of the buffers handed out
+
+	/**
+	 * @param direct If true buffers are off-heap, otherwise they are heap buffers.
+	 * @param maxClassSize Size of the largest class, it is rounded up to a power of two.
+	 */
+	public PageArena(boolean direct, int maxClassSize) {
+		this.direct = direct;
+
+		int size = MIN_CLASS_SIZE;
+		int count = 1;
+		while(size < maxClassSize){
+			size <<= 1;
+			count++;
+		}
+		this.maxClassSize = size;
+
+		classes = new ArrayList<SizeClass>(count);
+		for (int i = 0; i < count; i++) {
+			classes.add(new SizeClass());
+		}
+
+		reservedBytes = new AtomicLong(0);
+		usedBytes = new AtomicLong(0);
+	}
+
+	private static int classOf(int size){
+		int cls = 0;
+		int classSize = MIN_CLASS_SIZE;
+		while(classSize < size){
+			classSize <<= 1;
+			cls++;
+		}
+		return cls;
+	}
+
+	/**
+	 * @return A buffer with position 0 and limit size. Its capacity is the size of its class.
+	 */
+	public ByteBuffer allocate(int size){
+		ByteBuffer buf = null;
+
+		if(size > maxClassSize){
+			buf = newBuffer(size);
+			reservedBytes.addAndGet(size);
+		}
+		else {
+			int cls = classOf(size);
+			SizeClass sc = classes.get(cls);
+
+			synchronized (sc) {
+				Slab slab = sc.available.isEmpty() ? carveSlab(sc, cls) : sc.available.iterator().next();
+
+				if(slab.free.size() == slab.buffers){
+					sc.spareSlabs--;
+				}
+				buf = slab.free.pop();
+				if(slab.free.isEmpty()){
+					sc.available.remove(slab);
+				}
+			}
+		}
+
+		usedBytes.addAndGet(buf.capacity());
+
+		buf.clear();
+		buf.limit(size);
+		return buf;
+	}
+
+	/**
+	 * Returns the buffer to the arena. The buffer and its views must not be used afterwards.
+	 */
+	public void release(ByteBuffer buf){
+		int capacity = buf.capacity();
+		usedBytes.addAndGet(-capacity);
+
+		if(capacity > maxClassSize){
+			//unpooled buffer, leave it to gc
+			reservedBytes.addAndGet(-capacity);
+			return;
+		}
+
+		SizeClass sc = classes.get(classOf(capacity));
+		synchronized (sc) {
+			Slab slab = sc.slabs.get(buf);
+			if(slab == null){
+				//not carved by this arena
+				return;
+			}
+
+			if(slab.free.isEmpty()){
+				sc.available.add(slab);
+			}
+			slab.free.push(buf);
+
+			if(slab.free.size() == slab.buffers){
+				if(sc.spareSlabs < SPARE_SLABS){
+					sc.spareSlabs++;
+				}
+				else {
+					dropSlab(sc, slab);
+				}
+			}
+		}
+	}
+
+	//must hold the lock of the class
+	private Slab carveSlab(SizeClass sc, int cls){
+		int classSize = MIN_CLASS_SIZE << cls;
+		int slabSize = Math.max(classSize, SLAB_SIZE);
+
+		ByteBuffer data = newBuffer(slabSize);
+		reservedBytes.addAndGet(slabSize);
+
+		Slab slab = new Slab(slabSize / classSize, slabSize);
+		for (int offset = 0; offset < slabSize; offset += classSize) {
+			data.limit(offset + classSize);
+			data.position(offset);
+			ByteBuffer buf = data.slice();
+			slab.free.push(buf);
+			sc.slabs.put(buf, slab);
+		}
+
+		sc.available.add(slab);
+		sc.spareSlabs++;
+		return slab;
+	}
+
+	//must hold the lock of the class, all the buffers of the slab must be free
+	private void dropSlab(SizeClass sc, Slab slab){
+		sc.available.remove(slab);
+		for (ByteBuffer buf : slab.free) {
+			sc.slabs.remove(buf);
+		}
+		slab.free.clear();
+		reservedBytes.addAndGet(-slab.size);
+	}
+
+	private ByteBuffer newBuffer(int size){
+		return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+	}
+
+	public boolean isDirect(){
+		return direct;
+	}
+
+	/**
+	 * @return Bytes taken from the system for the slabs and the unpooled buffers.
+	 */
+	public long getReservedBytes(){
+		return reservedBytes.get();
+	}
+
+	/**
+	 * @return Bytes of the buffers which are currently in use.
+	 */
+	public long getUsedBytes(){
+		return usedBytes.get();
+	}
+}
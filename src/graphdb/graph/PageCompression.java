@@ -0,0 +1,236 @@
+package graphdb.graph;
+
+import graphdb.util.DeflatePageCodec;
+import graphdb.util.LZ4PageCodec;
+import graphdb.util.PageCodec;
+import graphdb.util.VarInt;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Compresses pages on their way to the database and decompresses them when they are
+ * read back, the buffer always holds the raw page data. A compressed page starts with
+ * a header naming its codec, so pages of different codecs can be in the same database:
+ *
+ * <pre>
+ * 0xFF 'P', flags | codec id byte, varint raw length, codec data, [CRC32]
+ * </pre>
+ *
+ * Every page of a database created by this release has the header, codec id 0 marks
+ * a page which isn't compressed or didn't compress and is kept raw behind the header.
+ * The system properties of such a database carry FRAMED_PAGES_PROPERTY. The pages of
+ * older databases have no header, they are written and read raw and are neither
+ * compressed nor checksummed. When the checksum flag is set the page ends with a big
+ * endian CRC32 of all the bytes before it.
+ */
+public final class PageCompression {
+	/**
+	 * System property of the databases whose pages all start with the header.
+	 */
+	public static final String FRAMED_PAGES_PROPERTY = "framedPages";
+
+	private static final byte MAGIC0 = (byte) 0xFF;
+	private static final byte MAGIC1 = 'P';
+	private static final int STORED = 0;
+	private static final int CHECKSUM = 0x80; // flag of the codec byte
+	private static final int CODEC_MASK = 0x7F;
+	private static final int TRAILER = 4;
+	private static final int MAX_RATIO = 1100; // above the best ratio of deflate, guards against garbage lengths
+
+	private static final HashMap<Integer, PageCodec> codecsById = new HashMap<Integer, PageCodec>();
+	private static final HashMap<String, PageCodec> codecsByName = new HashMap<String, PageCodec>();
+
+	static {
+		register(new LZ4PageCodec());
+		register(new DeflatePageCodec());
+	}
+
+	private PageCompression() {
+	}
+
+	/**
+	 * Makes a codec available to the buffer configuration and to the page reads.
+	 */
+	public static synchronized void register(PageCodec codec){
+		if(codec.getId() <= STORED || codec.getId() > 127){
+			throw new IllegalArgumentException("Codec id must be between 1 and 127: " + codec.getId());
+		}
+		if(codecsById.containsKey(codec.getId()) && codecsById.get(codec.getId()).getClass() != codec.getClass()){
+			throw new IllegalArgumentException("Codec id " + codec.getId() + " is taken by " + codecsById.get(codec.getId()).getName());
+		}
+
+		codecsById.put(codec.getId(), codec);
+		codecsByName.put(codec.getName().toLowerCase(), codec);
+	}
+
+	/**
+	 * @param name Name of a registered codec, or none.
+	 * @return The codec, null for none.
+	 */
+	public static synchronized PageCodec getCodec(String name){
+		if("none".equalsIgnoreCase(name)){
+			return null;
+		}
+
+		PageCodec codec = codecsByName.get(name.toLowerCase());
+		if(codec == null){
+			throw new IllegalArgumentException("Unknown page compression: " + name);
+		}
+		return codec;
+	}
+
+	private static synchronized PageCodec getCodec(int id){
+		return codecsById.get(id);
+	}
+
+	/**
+	 * The page is compressed straight from its buffer into the array the connector
+	 * writes, a direct buffer isn't copied to the heap first.
+	 *
+	 * @param raw Data of the page from its position to its limit, the position isn't changed.
+	 * @param codec Codec to compress with, null to keep the page raw behind the header.
+	 * @param checksum Whether a CRC32 of the page is appended.
+	 * @return The page as it is written to the database.
+	 */
+	public static byte[] compress(ByteBuffer raw, PageCodec codec, boolean checksum){
+		int rawLength = raw.remaining();
+
+		int room = codec == null ? rawLength : Math.max(rawLength, codec.maxCompressedLength(rawLength));
+		ByteBuffer bb = ByteBuffer.allocate(3 + VarInt.varIntSize(rawLength) + room + (checksum ? TRAILER : 0));
+		bb.put(MAGIC0);
+		bb.put(MAGIC1);
+		bb.put((byte) 0); // codec byte, set below
+		VarInt.putVarInt(bb, rawLength);
+
+		int id = STORED;
+		if(codec != null){
+			int start = bb.position();
+
+			//not worth decompressing if it doesn't shrink
+			if(codec.compress(raw.duplicate(), bb) < rawLength){
+				id = codec.getId();
+			}
+			else {
+				bb.position(start);
+			}
+		}
+		if(id == STORED){
+			bb.put(raw.duplicate());
+		}
+		bb.put(2, (byte) (checksum ? id | CHECKSUM : id));
+
+		if(checksum){
+			bb.putInt(crc(bb.array(), bb.position()));
+		}
+
+		return bb.position() == bb.capacity() ? bb.array() : Arrays.copyOf(bb.array(), bb.position());
+	}
+
+	/**
+	 * @param stored The page as it is read from a database with framed pages.
+	 * @return Whether the page carries a checksum.
+	 */
+	public static boolean hasChecksum(byte[] stored){
+		return isFramed(stored) && (stored[2] & CHECKSUM) != 0;
+	}
+
+	/**
+	 * @param stored The page as it is read from a database with framed pages.
+	 * @return False if the page has no header or carries a checksum which doesn't match its data.
+	 */
+	public static boolean verify(byte[] stored){
+		if(!isFramed(stored)){
+			return false;
+		}
+		if(!hasChecksum(stored)){
+			return true;
+		}
+		if(stored.length < 4 + TRAILER){
+			return false;
+		}
+
+		int end = stored.length - TRAILER;
+		return ByteBuffer.wrap(stored, end, TRAILER).getInt() == crc(stored, end);
+	}
+
+	/**
+	 * @return Whether the page starts with the header.
+	 */
+	static boolean isFramed(byte[] stored){
+		return stored.length >= 4 && stored[0] == MAGIC0 && stored[1] == MAGIC1;
+	}
+
+	private static int crc(byte[] b, int length){
+		CRC32 crc = new CRC32();
+		crc.update(b, 0, length);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * The page is decompressed straight into a buffer of the arena, which may be direct.
+	 * The checksum isn't checked here, see verify.
+	 * 
+	 * @param stored The page as it is read from a database with framed pages.
+	 * @return The raw page data from position 0, the caller owns the buffer.
+	 * @throws PageCorruptedException If the page has no valid header or doesn't decompress.
+	 */
+	public static ByteBuffer decompress(long pageid, byte[] stored, PageArena arena){
+		if(!isFramed(stored)){
+			throw new PageCorruptedException(pageid, "Page " + pageid + " has no page header.");
+		}
+
+		ByteBuffer raw = null;
+		try {
+			ByteBuffer bb = ByteBuffer.wrap(stored);
+			bb.position(2);
+
+			int id = bb.get() & CODEC_MASK;
+			int rawLength = VarInt.getVarInt(bb);
+			int offset = bb.position();
+			int end = hasChecksum(stored) ? stored.length - TRAILER : stored.length;
+
+			if(id == STORED){
+				if(rawLength != end - offset){
+					throw new IllegalArgumentException("length is " + (end - offset) + " instead of " + rawLength);
+				}
+				return copy(stored, offset, rawLength, arena);
+			}
+
+			PageCodec codec = getCodec(id);
+			if(codec == null){
+				throw new IllegalArgumentException("unknown codec " + id);
+			}
+			if(rawLength < 0 || rawLength / MAX_RATIO > stored.length){
+				throw new IllegalArgumentException("bad raw length " + rawLength);
+			}
+
+			raw = arena.allocate(rawLength);
+			codec.decompress(ByteBuffer.wrap(stored, offset, end - offset), raw);
+			raw.flip();
+			return raw;
+		} catch (RuntimeException e) {
+			if(raw != null){
+				arena.release(raw);
+			}
+			throw new PageCorruptedException(pageid, "Page " + pageid + " doesn't decompress, " + e.getMessage() + ".");
+		}
+	}
+
+	/**
+	 * @param stored The page as it is read from a database without framed pages.
+	 * @return The page data from position 0 in a buffer of the arena.
+	 */
+	public static ByteBuffer copy(byte[] stored, PageArena arena){
+		return copy(stored, 0, stored.length, arena);
+	}
+
+	private static ByteBuffer copy(byte[] b, int offset, int length, PageArena arena){
+		ByteBuffer buf = arena.allocate(length);
+		buf.put(b, offset, length);
+		buf.flip();
+		return buf;
+	}
+}
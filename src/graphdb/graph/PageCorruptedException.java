@@ -0,0 +1,23 @@
+package graphdb.graph;
+
+/**
+ * Thrown when a page read from the database doesn't match its checksum. The page
+ * group isn't loaded, the graph stays as it was before the read.
+ */
+public class PageCorruptedException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	private final long pageId;
+
+	public PageCorruptedException(long pageId, String message) {
+		super(message);
+		this.pageId = pageId;
+	}
+
+	/**
+	 * @return Id of the corrupted page.
+	 */
+	public long getPageId() {
+		return pageId;
+	}
+}
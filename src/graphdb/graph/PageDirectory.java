@@ -0,0 +1,136 @@
+package graphdb.graph;
+
+import graphdb.util.VarInt;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Encoding of the node table. The entry of a node only names the page group holding
+ * it, the page list of the group is written once under the group id, which is the id
+ * of its leading page:
+ *
+ * <pre>
+ * node entry:  'G', varint group id
+ * group entry: varint page count, varint page id deltas
+ * </pre>
+ *
+ * Node entries of older releases hold the page list itself as a Java serialization
+ * stream, they are still read.
+ */
+public final class PageDirectory {
+	private static Logger log = Logger.getLogger(PageDirectory.class.getName());
+
+	private static final byte GROUP_REF = 'G';
+
+	private PageDirectory() {
+	}
+
+	/**
+	 * @return Node entry referring to the page group.
+	 */
+	public static byte[] encodeNodeEntry(long groupid){
+		ByteBuffer bb = ByteBuffer.allocate(1 + VarInt.varLongSize(groupid));
+		bb.put(GROUP_REF);
+		VarInt.putVarLong(bb, groupid);
+		return bb.array();
+	}
+
+	/**
+	 * @return Group entry of the pages, the leading page first.
+	 */
+	public static byte[] encodePageList(List<Long> pageList){
+		//the pages of a group are mostly created in id order, the deltas are small
+		int size = VarInt.varIntSize(pageList.size());
+		long prev = 0;
+		for (Long pid : pageList) {
+			size += VarInt.varLongSize(pid - prev);
+			prev = pid;
+		}
+
+		ByteBuffer bb = ByteBuffer.allocate(size);
+		VarInt.putVarInt(bb, pageList.size());
+		prev = 0;
+		for (Long pid : pageList) {
+			VarInt.putVarLong(bb, pid - prev);
+			prev = pid;
+		}
+		return bb.array();
+	}
+
+	/**
+	 * @param groupEntry Entry written by encodePageList.
+	 */
+	public static List<Long> decodePageList(byte[] groupEntry){
+		ByteBuffer bb = ByteBuffer.wrap(groupEntry);
+		int count = VarInt.getVarInt(bb);
+
+		List<Long> pageList = new ArrayList<Long>(count);
+		long pid = 0;
+		for (int i = 0; i < count; i++) {
+			pid += VarInt.getVarLong(bb);
+			pageList.add(pid);
+		}
+		return pageList;
+	}
+
+	/**
+	 * Resolves the entry of a node to the pages holding the node, the group entry is
+	 * read from the database if the node entry refers to one.
+	 *
+	 * @param nodeEntry Entry of the node in the node table, may be null.
+	 * @return The page list, null if the node or its group isn't in the database.
+	 */
+	public static List<Long> readPageList(DatabaseConnector db, byte[] nodeEntry){
+		if(nodeEntry == null || nodeEntry.length == 0){
+			return null;
+		}
+
+		if(nodeEntry[0] != GROUP_REF){
+			return readSerializedPageList(nodeEntry);
+		}
+
+		long groupid;
+		try {
+			groupid = VarInt.getVarLong(ByteBuffer.wrap(nodeEntry, 1, nodeEntry.length - 1));
+		} catch (BufferUnderflowException e) {
+			log.error("Malformed node entry in the node table.");
+			return null;
+		}
+
+		byte[] groupEntry = db.getPageGroup(groupid);
+		if(groupEntry == null){
+			log.error("Page group " + groupid + " is not in the database.");
+			return null;
+		}
+		return decodePageList(groupEntry);
+	}
+
+	//node entries of older releases
+	private static List<Long> readSerializedPageList(byte[] rawdata) {
+		List<Long> blocklist = new LinkedList<Long>();
+
+		try {
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(rawdata));
+
+			int elemNum = ois.readInt();
+			for (int i = 0; i < elemNum; i++) {
+				blocklist.add(ois.readLong());
+			}
+
+			ois.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return blocklist;
+	}
+}
@@ -1,22 +1,23 @@
 package graphdb.graph;
 
+import graphdb.util.ChainedByteReader;
 import graphdb.util.DoublyLinkedList;
 import graphdb.util.Property;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
 public class PageManager {
 	private long pageIdCounter;
-	private HashMap<Long, Page> pageMap;
+	private ConcurrentHashMap<Long, Page> pageMap;
 
 	private static Logger log = Logger.getLogger(PageManager.class.getName());
 
@@ -73,7 +74,7 @@ public class PageManager {
 	}
 
 	public void initialize(){
-		pageMap = new HashMap<Long, Page>();
+		pageMap = new ConcurrentHashMap<Long, Page>();
 		pageIdCounter = 0;
 
 	}
@@ -132,11 +133,12 @@ public class PageManager {
 	}
 
 	public Page getPage(long pageid){
-		if(pageMap.containsKey(pageid)){
-			return pageMap.get(pageid);
+		Page p = pageMap.get(pageid);
+		if(p != null){
+			return p;
 		}
 
-		throw new NoSuchElementException("Page " + pageid + " doesn't exist.\n" + BufferManager.getInstance().buff + "\n"+ pageMap);
+		throw new NoSuchElementException("Page " + pageid + " doesn't exist.\n" + BufferManager.getInstance().getBufferPool() + "\n"+ pageMap);
 	}
 
 	public synchronized long getNewPageId(){
@@ -152,329 +154,400 @@ public class PageManager {
 	}
 
 	public void bringNode(long nodeid, SuperGraph superg){
-		log.debug("Bring node initiated for node " + nodeid);
-
-		//requests buffer manager to bring the page from db
-		int graphid = superg.getId();
-		SubGraph sg = superg.getSubgraphOfNode(nodeid);
-		List<Long> pageIdList = BufferManager.getInstance().getPageListFromDb(nodeid, graphid);
-
-		log.trace("Requested page(s) from db : " + pageIdList);
-
-		//single not overflowed page
-		if(pageIdList.size() == 1){
-			long pid = pageIdList.get(0); // get the only element
+		superg.lock.lock();
+		try {
+			log.debug("Bring node initiated for node " + nodeid);
+			BufferManager.getInstance().getMetrics().recordMiss();
 
-			if(sg == null) { //if the page is not mapped to a subgraph
-				//create a new subgraph
-				sg = superg.createSubgraph(pid);
-			}
+			//requests buffer manager to bring the page from db
+			int graphid = superg.getId();
+			SubGraph sg = superg.getSubgraphOfNode(nodeid);
+			List<Long> pageIdList = BufferManager.getInstance().getPageListFromDb(nodeid, graphid);
 
-			Page p = createPage(pid, graphid, sg.getId(), null, null); //not partitioned
+			log.trace("Requested page(s) from db : " + pageIdList);
 
-			BufferManager.getInstance().addReadRequest(p);
+			//single not overflowed page
+			if(pageIdList.size() == 1){
+				long pid = pageIdList.get(0); // get the only element
 
-			//for debug
-			BufferManager.getInstance().validateTime = System.currentTimeMillis();
-			//for debug
+				if(sg == null) { //if the page is not mapped to a subgraph
+					//create a new subgraph
+					sg = superg.createSubgraph(pid);
+				}
 
-			readPageToGraph(graphid,p);
+				Page p = createPage(pid, graphid, sg.getId(), null, null); //not partitioned
 
-			//for debug
-			BufferManager.getInstance().validateTime = System.currentTimeMillis() - BufferManager.getInstance().validateTime;
-			//for debug
-		}
-		else if(pageIdList.size() > 1){ // overflowed pages
-			DoublyLinkedList<Page> adjpages = null;
+				BufferManager.getInstance().addReadRequest(p);
 
-			if(sg == null) { //if the page is not mapped to a subgraph
-				//create a new subgraph
-				sg = superg.createSubgraph(pageIdList.get(0));
+				long decodeTime = System.nanoTime();
+				readPageToGraph(graphid,p);
+				decodeTime = System.nanoTime() - decodeTime;
+				BufferManager.getInstance().getMetrics().recordDecode(decodeTime);
+				p.setLoadCost(p.getLoadCost() + decodeTime);
+				BufferManager.getInstance().chargeGroup(p);
 			}
+			else if(pageIdList.size() > 1){ // overflowed pages
+				DoublyLinkedList<Page> adjpages = null;
 
-			for (Iterator<Long> it = pageIdList.iterator(); it.hasNext();) {
-				long pid = it.next();
-
-				//at the first page create it and get the adjlist
-				if(adjpages == null){
-					Page p = createPage(pid, graphid, sg.getId(), null, null); //partitioned
-					adjpages = p.getAdjacentPagesList();
-					p.setPartitioned(true);
-				}
-				else {
-					Page p = createPage(pid, graphid, sg.getId(), adjpages, null); //partitioned
-					p.setPartitioned(true);
+				if(sg == null) { //if the page is not mapped to a subgraph
+					//create a new subgraph
+					sg = superg.createSubgraph(pageIdList.get(0));
 				}
 
-			}
+				for (Iterator<Long> it = pageIdList.iterator(); it.hasNext();) {
+					long pid = it.next();
 
-			BufferManager.getInstance().addReadRequest(adjpages.getFirstElement());
+					//at the first page create it and get the adjlist
+					if(adjpages == null){
+						Page p = createPage(pid, graphid, sg.getId(), null, null); //partitioned
+						adjpages = p.getAdjacentPagesList();
+						p.setPartitioned(true);
+					}
+					else {
+						Page p = createPage(pid, graphid, sg.getId(), adjpages, null); //partitioned
+						p.setPartitioned(true);
+					}
 
-			//for debug
-			BufferManager.getInstance().validateTime = System.currentTimeMillis();
-			//for debug
+				}
 
-			readPageToGraph(graphid,adjpages.getFirstElement());
+				BufferManager.getInstance().addReadRequest(adjpages.getFirstElement());
 
-			//for debug
-			BufferManager.getInstance().validateTime = System.currentTimeMillis()
-					- BufferManager.getInstance().validateTime;
-			//for debug
+				long decodeTime = System.nanoTime();
+				readPageToGraph(graphid,adjpages.getFirstElement());
+				decodeTime = System.nanoTime() - decodeTime;
+				BufferManager.getInstance().getMetrics().recordDecode(decodeTime);
+				adjpages.getFirstElement().setLoadCost(adjpages.getFirstElement().getLoadCost() + decodeTime);
+				BufferManager.getInstance().chargeGroup(adjpages.getFirstElement());
+			}
+		} finally {
+			superg.lock.unlock();
 		}
 	}
 
 	public void readPageToGraph(int graphid, Page p){
 		SuperGraph superg = (SuperGraph) GraphManager.getInstance().getGraph(graphid);
-		List<Node> nodelist = new LinkedList<Node>(); //for debug and log purposes
 
-		//for debugging
-		long start = System.currentTimeMillis();
-		ArrayList<Long> nodetimes = new ArrayList<Long>();
+		//destinations of the cross edges to be prefetched
+		BufferConfiguration bc = BufferManager.getInstance().getBufferConf();
+		List<Long> readAheadList = bc.isReadAhead() ? new ArrayList<Long>(bc.getReadAheadBudget()) : null;
 
-		ArrayList<Long> inedgetimes = new ArrayList<Long>();
-		ArrayList<Long> maxinedgetimes = new ArrayList<Long>();
+		StageTimer timer = new StageTimer(BufferManager.getInstance(), PageStage.DECODE_NODES);
 
-		ArrayList<Long> outedgetimes = new ArrayList<Long>();
-		ArrayList<Long> maxoutedgetimes = new ArrayList<Long>();
-
-		ArrayList<Integer> edges = new ArrayList<Integer>();
-		ArrayList<Integer> crossedges = new ArrayList<Integer>();
-		Edge maxInEdge = null;
-		Edge maxOutEdge = null;
+		try {
+			//read across the blocks of the page group in place
+			List<ByteBuffer> chain = new ArrayList<ByteBuffer>(p.getAdjacentPagesList().getSize());
+			for (Iterator<Page> it = p.getAdjacentPagesList().iterator(); it.hasNext();) {
+				ByteBuffer data = it.next().getDataBuffer();
+				if(data != null){
+					chain.add(data);
+				}
+			}
+			ChainedByteReader in = new ChainedByteReader(chain);
 
-		//for debugging
-		int totnumedges = 0;
+			int sgid = p.getSubgraphId();
 
-		try {
-			//			ListOfByteArrays loa = new ListOfByteArrays(p.getAdjacentPagesList().iterator());
-			//			SequenceInputStream sis = new SequenceInputStream(loa);
-			//			ObjectInputStream in = new ObjectInputStream(sis);
-			byte[][] barrays = new byte[p.getAdjacentPagesList().getSize()][];
+			if(in.hasRemaining() && in.peek() == SubGraph.FORMAT_V2){
+				if(bc.isLazyDecode()){
+					//the reader consumes its views, keep fresh ones for the deferred nodes
+					List<ByteBuffer> pendingData = new ArrayList<ByteBuffer>(chain.size());
+					for (ByteBuffer data : chain) {
+						pendingData.add(data.duplicate());
+					}
+					superg.getSubgraph(sgid).setPendingData(pendingData);
+				}
+				readPageV2(superg, sgid, in, timer, readAheadList, bc.isLazyDecode());
+			}
+			else {
+				readPageV1(superg, sgid, in, timer, readAheadList);
+			}
+			timer.record();
 
+			//measures the decoded nodes, deferred ones already have their size in the page
+			superg.getSubgraph(sgid).resize();
+			superg.getSubgraph(p.getSubgraphId()).setDirty(false);
 
-			int edgecnt = 0;
-			int crossedgecnt = 0;
+			if(readAheadList != null){
+				//destinations in the same page group are loaded by now
+				for (Iterator<Long> it = readAheadList.iterator(); it.hasNext();) {
+					if(superg.nodeIndex.containsKey(it.next())){
+						it.remove();
+					}
+				}
 
-			int j = 0;
-			for (Iterator<Page> it = p.getAdjacentPagesList().iterator(); it.hasNext();) {
-				Page page = it.next();
-				barrays[j++] = page.getData();
+				BufferManager.getInstance().readAhead(graphid, readAheadList);
 			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (ClassNotFoundException e) {
+			e.printStackTrace();
+		}
+	}
 
-			ByteBuffer bb = ByteBuffer.wrap(concatByteArrays(barrays));
+	/**
+	 * Decodes a page group of format v1, see SubGraph.encode.
+	 */
+	private void readPageV1(SuperGraph superg, int sgid, ChainedByteReader in, StageTimer timer, List<Long> readAheadList) throws IOException, ClassNotFoundException {
+		BufferConfiguration bc = BufferManager.getInstance().getBufferConf();
 
-			//read the graph id and look for the graph
-			long currentNodeId = -1;
-			Node currentNode = null;
-			int descriptor = -1;
-			int sgid = p.getSubgraphId();
+		long currentNodeId = -1;
+		Node currentNode = null;
 
-			long nodestart = System.currentTimeMillis();
+		while(true){
+			int descriptor = in.getInt();
 
-			while(descriptor != 0){
-				//read the descriptor
-				//				descriptor = in.readInt();
-				descriptor = bb.getInt();
+			if(descriptor == 1){ // node start
+				//read the node id and create the node
+				currentNodeId = in.getLong();
+				currentNode = superg.addNodeFromDb(currentNodeId, sgid);
+			}
+			else if(descriptor == 2){ // in edge list start
+				long edgeNum = in.getLong();
+				timer.enter(PageStage.DECODE_EDGES);
 
-				if(descriptor == 1){ // node start
-					if(currentNodeId != -1){
-						nodetimes.add(System.currentTimeMillis() - nodestart);
-						edges.add(edgecnt);
-						crossedges.add(crossedgecnt);
+				for (long i = 0; i < edgeNum; i++) {
+					long srcId = in.getLong();
+					superg.addIncomingEdgeFromDb(srcId, currentNodeId, sgid);
 
-						nodestart = System.currentTimeMillis();
-						edgecnt = 0;
-						crossedgecnt = 0;
+					int propLength = in.getInt();
+					if(propLength != -1){
+						timer.enter(PageStage.DECODE_PROPERTIES);
+						byte[] propData = new byte[propLength];
+						in.get(propData);
+						superg.edgeProps.read(srcId, currentNodeId, propData);
+						timer.enter(PageStage.DECODE_EDGES);
 					}
-					//read the node id and create the node
-					//					currentNodeId = in.readLong();
-					currentNodeId = bb.getLong();
-					currentNode = superg.addNodeFromDb(currentNodeId, sgid);
-
-					//for debug
-					nodelist.add(currentNode);
-
-					continue; //move to next punctuation
 				}
-				else if(descriptor == 2){ // in edge list start
-					//for debugging
-					long edgeStart = System.currentTimeMillis();
-					long maxtime = 0;
-					//for debugging
-
-					//get the in edge count in the page
-					//					long edgeNum = in.readLong();
-					long edgeNum = bb.getLong();
-
-					//for debugging
-					edgecnt += edgeNum;
-					totnumedges += edgeNum;
-					//for debugging
-
-					for (long i = 0; i < edgeNum; i++) {
-						//for debugging
-						long singleEdgeStart = System.currentTimeMillis();
-						//for debugging
-
-						//superg.addEdge(in.readLong(), currentNodeId, sgid);
-						Edge e = superg.addIncomingEdgeFromDb(bb.getLong(), currentNodeId, sgid);
-
-						//for debugging
-						//						long _src = e.getSourceId();
-						//						int _sgid = superg.nodeIndex.get(_src);
-						//						SubGraph _sgg = superg.getSubgraph(_sgid);
-						//
-						//						if(_sgg.nodeMap.containsKey(_src)){
-						//							if(_sgg.nodeMap.get(_src).isDummy()){
-						//								crossedgecnt++;
-						//							}
-						//						}
-						//for debugging
-
-						int propLength = bb.getInt();
-
-						if(propLength != -1){
-							byte[] propData = new byte[propLength];
-							bb.get(propData,0,propLength);
-							Property edgeprop = Property.readPropertyObject(propData);
-
-							//if there is no property for this edge, then add the property object
-							//							if(!superg.hasProperty(e)){
-							//								superg.setPropertyObject(e, edgeprop);
-							//							}
-							superg.setPropertyObject(e, edgeprop, currentNodeId);
-						}
-						//for debugging
-						long t = System.currentTimeMillis() - singleEdgeStart;
-						if(t > maxtime){
-							maxtime = t;
-							maxInEdge = e;
+				timer.enter(PageStage.DECODE_NODES);
+			}
+			else if(descriptor == 3){ // out edge list start
+				long edgeNum = in.getLong();
+				timer.enter(PageStage.DECODE_EDGES);
+
+				for (long i = 0; i < edgeNum; i++) {
+					long destId = in.getLong();
+					if(!superg.nodeIndex.containsKey(destId)){
+						if(readAheadList != null && readAheadList.size() < bc.getReadAheadBudget()){
+							readAheadList.add(destId);
 						}
-						//for debugging
 					}
+					superg.addOutgoingEdgeFromDb(currentNodeId, destId, sgid);
 
-					//for debugging
-					inedgetimes.add(System.currentTimeMillis() - edgeStart);
-					maxinedgetimes.add(maxtime);
-					//for debugging
+					int propLength = in.getInt();
+					if(propLength != -1){
+						timer.enter(PageStage.DECODE_PROPERTIES);
+						byte[] propData = new byte[propLength];
+						in.get(propData);
+						superg.edgeProps.read(currentNodeId, destId, propData);
+						timer.enter(PageStage.DECODE_EDGES);
+					}
+				}
+				timer.enter(PageStage.DECODE_NODES);
+			}
+			else if(descriptor == 4){ // node property start
+				int propLength = in.getInt();
+
+				if(propLength != -1){
+					timer.enter(PageStage.DECODE_PROPERTIES);
+					byte[] propData = new byte[propLength];
+					in.get(propData);
 
-					continue; //move to next punctuation
+					//read property object and add as node property
+					superg.setPropertyObject(currentNode, Property.readPropertyObject(propData));
+					timer.enter(PageStage.DECODE_NODES);
 				}
-				else if(descriptor == 3){ // out edge list start
-					//for debugging
-					long edgeStart = System.currentTimeMillis();
-					long maxtime = 0;
-					//for debugging
-
-					//get the out edge count in the page
-					//					long edgeNum = in.readLong();
-					long edgeNum = bb.getLong();
-
-					//for debugging
-					edgecnt += edgeNum;
-					totnumedges += edgeNum;
-					//for debugging
-
-					for (long i = 0; i < edgeNum; i++) {
-
-						//for debugging
-						long singleEdgeStart = System.currentTimeMillis();
-						//for debugging
-
-						//superg.addEdge(currentNodeId, in.readLong(), sgid);
-						Edge e = superg.addOutgoingEdgeFromDb(currentNodeId, bb.getLong(), sgid);
-
-						//for debugging
-						//						long _dest = e.getDestinationId();
-						//						int _sgid = superg.nodeIndex.get(_dest);
-						//						SubGraph _sgg = superg.getSubgraph(_sgid);
-						//
-						//						if(_sgg.nodeMap.containsKey(_dest)){
-						//							if(_sgg.nodeMap.get(_dest).isDummy()){
-						//								crossedgecnt++;
-						//							}
-						//						}
-						//for debugging
-
-						int propLength = bb.getInt();
-
-						if(propLength != -1){
-							byte[] propData = new byte[propLength];
-							bb.get(propData,0,propLength);
-							Property edgeprop = Property.readPropertyObject(propData);
-
-							//if there is no property for this edge, then add the property object
-							//							if(!superg.hasProperty(e)){
-							//								superg.setPropertyObject(e, edgeprop);
-							//							}
-							superg.setPropertyObject(e, edgeprop, currentNodeId);
-						}
+			}
+			else if(descriptor <= 0){ // end of page
+				break;
+			}
+			else {
+				log.error("Error in stream. Unknown descriptor " + descriptor + " in subgraph " + sgid + ".");
+				break;
+			}
+		}
+	}
 
-						//for debugging
-						long t = System.currentTimeMillis() - singleEdgeStart;
-						if(t > maxtime){
-							maxtime = t;
-							maxOutEdge = e;
-						}
-						//for debugging
-					}
+	/**
+	 * Decodes a page group of format v2, see SubGraph.encodeV2.
+	 * 
+	 * @param lazy If true only the nodes are created, the adjacency lists and properties
+	 * of a node are decoded when the node is first used, see SubGraph.decodeNode.
+	 */
+	private void readPageV2(SuperGraph superg, int sgid, ChainedByteReader in, StageTimer timer, List<Long> readAheadList, boolean lazy) throws IOException, ClassNotFoundException {
+		SubGraph sg = superg.getSubgraph(sgid);
+
+		in.get(); // format byte
+		int nodeCount = in.getVarInt();
+
+		long nodeid = 0;
+		for (int i = 0; i < nodeCount; i++) {
+			nodeid += in.getVarLong();
+			int offset = in.position();
+			int flags = in.get();
+
+			Node node = superg.addNodeFromDb(nodeid, sgid);
+
+			if(lazy){
+				skipNodeV2(superg, in, flags, readAheadList);
+				sg.addPendingNode(nodeid, offset, in.position() - offset);
+			}
+			else {
+				readNodeV2(superg, sgid, node, flags, in, timer, readAheadList);
+			}
+		}
+	}
 
-					//for debugging
-					outedgetimes.add(System.currentTimeMillis() - edgeStart);
-					maxoutedgetimes.add(maxtime);
+	/**
+	 * Decodes the adjacency lists and the property of a node of a v2 page.
+	 */
+	private void readNodeV2(SuperGraph superg, int sgid, Node node, int flags, ChainedByteReader in, StageTimer timer, List<Long> readAheadList) throws IOException, ClassNotFoundException {
+		BufferConfiguration bc = BufferManager.getInstance().getBufferConf();
+		SubGraph sg = superg.getSubgraph(sgid);
+		long nodeid = node.getId();
+
+		if((flags & SubGraph.V2_IN_EDGES) != 0){
+			timer.enter(PageStage.DECODE_EDGES);
+			long[] srcIds = new long[in.getVarInt()];
+
+			long srcId = 0;
+			for (int j = 0; j < srcIds.length; j++) {
+				srcId += in.getVarLong();
+				srcIds[j] = srcId;
+			}
+			sg.addEdgesFromDb(nodeid, srcIds, true);
+
+			if((flags & SubGraph.V2_IN_EDGE_PROPERTIES) != 0){
+				timer.enter(PageStage.DECODE_PROPERTIES);
+				readEdgePropertiesV2(superg, in, nodeid, srcIds, true);
+			}
+		}
 
-					//for debugging
+		if((flags & SubGraph.V2_OUT_EDGES) != 0){
+			timer.enter(PageStage.DECODE_EDGES);
+			long[] destIds = new long[in.getVarInt()];
 
-					continue; //move to next punctuation
+			long destId = 0;
+			for (int j = 0; j < destIds.length; j++) {
+				destId += in.getVarLong();
+				if(readAheadList != null && readAheadList.size() < bc.getReadAheadBudget() && !superg.nodeIndex.containsKey(destId)){
+					readAheadList.add(destId);
 				}
-				else if(descriptor == 4){ // node property start
-					int propLength = bb.getInt();
+				destIds[j] = destId;
+			}
+			sg.addEdgesFromDb(nodeid, destIds, false);
 
-					if(propLength != -1){
-						byte[] propData = new byte[propLength];
-						bb.get(propData,0,propLength);
+			if((flags & SubGraph.V2_OUT_EDGE_PROPERTIES) != 0){
+				timer.enter(PageStage.DECODE_PROPERTIES);
+				readEdgePropertiesV2(superg, in, nodeid, destIds, false);
+			}
+		}
 
-						//read property object and add as node property
-						Property nodeprop = Property.readPropertyObject(propData);
-						superg.setPropertyObject(currentNode, nodeprop);
-					}
+		if((flags & SubGraph.V2_NODE_PROPERTY) != 0){
+			timer.enter(PageStage.DECODE_PROPERTIES);
+			byte[] propData = new byte[in.getVarInt()];
+			in.get(propData);
+			superg.setPropertyObject(node, Property.readPropertyObject(propData));
+		}
 
-					continue; //move to next punctuation
-				}
-				else if(descriptor <= 0){ // end of page
-					break;
-				}
-				else {
-					System.err.println("Error in stream. There are more than needed variables in the stream.");
-					break;
+		timer.enter(PageStage.DECODE_NODES);
+	}
+
+	/**
+	 * Steps over the adjacency lists and the property of a node of a v2 page without
+	 * creating anything. Out edge destinations are still queued for read-ahead.
+	 */
+	private void skipNodeV2(SuperGraph superg, ChainedByteReader in, int flags, List<Long> readAheadList){
+		BufferConfiguration bc = BufferManager.getInstance().getBufferConf();
+
+		if((flags & SubGraph.V2_IN_EDGES) != 0){
+			int edgeNum = in.getVarInt();
+
+			for (int j = 0; j < edgeNum; j++) {
+				in.getVarLong();
+			}
+
+			if((flags & SubGraph.V2_IN_EDGE_PROPERTIES) != 0){
+				skipEdgePropertiesV2(in, edgeNum);
+			}
+		}
+
+		if((flags & SubGraph.V2_OUT_EDGES) != 0){
+			int edgeNum = in.getVarInt();
+
+			long destId = 0;
+			for (int j = 0; j < edgeNum; j++) {
+				destId += in.getVarLong();
+
+				if(readAheadList != null && readAheadList.size() < bc.getReadAheadBudget() && !superg.nodeIndex.containsKey(destId)){
+					readAheadList.add(destId);
 				}
+			}
 
+			if((flags & SubGraph.V2_OUT_EDGE_PROPERTIES) != 0){
+				skipEdgePropertiesV2(in, edgeNum);
 			}
+		}
 
-			superg.getSubgraph(p.getSubgraphId()).setDirty(false);
+		if((flags & SubGraph.V2_NODE_PROPERTY) != 0){
+			int propLength = in.getVarInt();
+			in.skip(propLength);
+		}
+	}
+
+	private void skipEdgePropertiesV2(ChainedByteReader in, int edgeNum){
+		byte[] bitmap = new byte[(edgeNum + 7) / 8];
+		in.get(bitmap);
+
+		for (int j = 0; j < edgeNum; j++) {
+			if((bitmap[j >> 3] & (1 << (j & 7))) != 0){
+				int propLength = in.getVarInt();
+				in.skip(propLength);
+			}
+		}
+	}
 
-			//			log.trace("Node list loaded to SubGraph" + p.getSubgraphId() + "(page" + p.getId() + ") : " + nodelist);
+	/**
+	 * Decodes a node which was deferred by a lazy page read. Its stages are recorded on
+	 * their own, not as a part of the page group's decode.
+	 * 
+	 * @param offset Position of the node's flags byte in the page group.
+	 * @param pendingData Views of the page group's data as it was read.
+	 */
+	void readPendingNode(SubGraph sg, long nodeid, int offset, List<ByteBuffer> pendingData){
+		List<ByteBuffer> chain = new ArrayList<ByteBuffer>(pendingData.size());
+		for (ByteBuffer data : pendingData) {
+			chain.add(data.duplicate());
+		}
+
+		ChainedByteReader in = new ChainedByteReader(chain);
+		in.skip(offset);
+
+		StageTimer timer = new StageTimer(BufferManager.getInstance(), PageStage.DECODE_NODES);
+		try {
+			readNodeV2(sg.getGraph(), sg.getId(), sg.nodeMap.get(nodeid), in.get(), in, timer, null);
+			timer.record();
 		} catch (IOException e) {
 			e.printStackTrace();
 		} catch (ClassNotFoundException e) {
 			e.printStackTrace();
 		}
+	}
+
+	private void readEdgePropertiesV2(SuperGraph superg, ChainedByteReader in, long nodeid, long[] ids, boolean incoming) throws IOException, ClassNotFoundException {
+		byte[] bitmap = new byte[(ids.length + 7) / 8];
+		in.get(bitmap);
 
+		for (int j = 0; j < ids.length; j++) {
+			if((bitmap[j >> 3] & (1 << (j & 7))) != 0){
+				byte[] propData = new byte[in.getVarInt()];
+				in.get(propData);
 
-		start = System.currentTimeMillis() - start;
-		if(start > 60){
-			System.out.println();
-			System.out.println("Num nodes : " + nodetimes.size());
-			System.out.println("in edge times : " + inedgetimes);
-			System.out.println("max in edge times : " + maxinedgetimes);
-			System.out.println(maxInEdge);
-			System.out.println("out edge times : " + outedgetimes);
-			System.out.println("max out edge times : " + maxoutedgetimes);
-			System.out.println(maxOutEdge);
-			System.out.println("Num edges : " + totnumedges);
-			System.out.println("Node times : " + nodetimes);
-			System.out.println("edge nums : " + edges);
-			System.out.println();
+				if(incoming){
+					superg.edgeProps.read(ids[j], nodeid, propData);
+				}
+				else {
+					superg.edgeProps.read(nodeid, ids[j], propData);
+				}
+			}
 		}
 	}
 
@@ -521,31 +594,6 @@ public class PageManager {
 		subg.remove();
 	}
 
-	private byte[] concatByteArrays(byte[]...arrays) {
-		// Determine the length of the result array
-		int totalLength = 0;
-		for (int i = 0; i < arrays.length; i++)
-		{
-			totalLength += arrays[i].length;
-		}
-
-		// create the result array
-		byte[] result = new byte[totalLength];
-
-		// copy the source arrays into the result array
-		int currentIndex = 0;
-		for (int i = 0; i < arrays.length; i++)
-		{
-			System.arraycopy(arrays[i], 0, result, currentIndex, arrays[i].length);
-			currentIndex += arrays[i].length;
-
-			//TODO: uncomment and test the next line
-			//	        arrays[i]arrays = null;
-		}
-
-		return result;
-	}
-
 	public void remove(Page p) {
 		for (Iterator<Page> it = p.getAdjacentPagesList().iterator(); it.hasNext();) {
 			Page page = it.next();
@@ -0,0 +1,51 @@
+package graphdb.graph;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A pin on a page group. While it is held the group is not chosen for eviction,
+ * so the subgraph stays in memory. Release it in a finally block:
+ * 
+ * <pre>
+ * PagePin pin = g.pin(node);
+ * try {
+ *     for(Edge e : node.getEdges(EdgeDirection.OUT)){ ... }
+ * } finally {
+ *     pin.release();
+ * }
+ * </pre>
+ */
+public class PagePin {
+	private final Page leader;
+	private final AtomicBoolean released;
+
+	PagePin(Page leader) {
+		this.leader = leader;
+		this.released = new AtomicBoolean(false);
+	}
+
+	/**
+	 * @return Leading page of the pinned group.
+	 */
+	public Page getPage(){
+		return leader;
+	}
+
+	public boolean isReleased(){
+		return released.get();
+	}
+
+	/**
+	 * Releases the pin, calling it again does nothing.
+	 */
+	public void release(){
+		if(released.compareAndSet(false, true)){
+			BufferManager.getInstance().unpin(leader);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Pin of " + leader + (released.get() ? " (released)" : "");
+	}
+}
@@ -0,0 +1,352 @@
+package graphdb.graph;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Read-ahead for traversals. When a page group is decoded, the page groups holding
+ * the destinations of its cross edges are read from the database on a background
+ * thread and kept in a bounded cache until they are requested. Only the raw blocks
+ * and node -> page lists are fetched, decoding stays on the requesting thread.
+ *
+ * Every write to the database invalidates the cached copy of what it wrote. A fetch
+ * which overlaps with a write is dropped, so the cache never serves stale blocks.
+ */
+public class PagePrefetcher {
+	private static Logger log = Logger.getLogger(PagePrefetcher.class.getName());
+
+	private static class PageList {
+		final int graphid;
+		final List<Long> pages;
+
+		PageList(int graphid, List<Long> pages) {
+			this.graphid = graphid;
+			this.pages = pages;
+		}
+	}
+
+	private DatabaseConnector db;
+	private ThreadPoolExecutor executor;
+
+	//guarded by this
+	private final LinkedHashMap<Long, byte[]> blocks; // page id -> block data, head is the oldest
+	private final LinkedHashMap<Long, PageList> pageLists; // node id -> page list, head is the oldest
+	private int maxPageLists;
+	private long cachedBytes;
+	private long maxCachedBytes;
+	private long writeEpoch; // increased by every invalidation
+
+	private final Set<Long> inFlight;
+
+	private final AtomicLong requested; // nodes queued for read-ahead
+	private final AtomicLong prefetchedPages; // pages put into the cache
+	private final AtomicLong hits; // pages served from the cache
+	private final AtomicLong wasted; // pages dropped from the cache without being used
+
+	public PagePrefetcher() {
+		blocks = new LinkedHashMap<Long, byte[]>();
+		pageLists = new LinkedHashMap<Long, PageList>();
+		inFlight = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+		requested = new AtomicLong(0);
+		prefetchedPages = new AtomicLong(0);
+		hits = new AtomicLong(0);
+		wasted = new AtomicLong(0);
+
+		//used by offer until the read-ahead is started
+		maxCachedBytes = 64*1024*1024;
+		maxPageLists = 64;
+	}
+
+	/**
+	 * @param db Database to read from.
+	 * @param queueSize Max number of nodes waiting to be prefetched, more are dropped.
+	 * @param maxCachedBytes Max bytes of prefetched blocks kept in the cache.
+	 */
+	public synchronized void start(DatabaseConnector db, int queueSize, long maxCachedBytes){
+		if(executor != null){
+			return;
+		}
+
+		this.db = db;
+		this.maxCachedBytes = maxCachedBytes;
+		this.maxPageLists = 4 * Math.max(1, queueSize);
+
+		executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "graphdb-read-ahead");
+						t.setDaemon(true);
+						return t;
+					}
+				},
+				new ThreadPoolExecutor.DiscardPolicy());
+
+		log.info("Read-ahead started.");
+	}
+
+	/**
+	 * Stops the read-ahead thread and drops the cache. It waits for the running fetch
+	 * so that the database can be closed afterwards.
+	 */
+	public void stop(){
+		ThreadPoolExecutor ex = null;
+
+		synchronized (this) {
+			if(executor == null){
+				return;
+			}
+			ex = executor;
+			executor = null;
+		}
+
+		ex.shutdownNow();
+		try {
+			ex.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		synchronized (this) {
+			wasted.addAndGet(blocks.size());
+			blocks.clear();
+			pageLists.clear();
+			cachedBytes = 0;
+			writeEpoch++;
+		}
+		inFlight.clear();
+
+		log.info("Read-ahead stopped.");
+	}
+
+	public synchronized boolean isRunning(){
+		return executor != null;
+	}
+
+	/**
+	 * Queues the page groups of the nodes to be read in the background.
+	 */
+	public void prefetch(final int graphid, List<Long> nodeIds){
+		ThreadPoolExecutor ex = null;
+		synchronized (this) {
+			ex = executor;
+		}
+
+		if(ex == null){
+			return;
+		}
+
+		for (Iterator<Long> it = nodeIds.iterator(); it.hasNext();) {
+			final long nodeid = it.next();
+
+			if(!inFlight.add(nodeid)){
+				continue;
+			}
+
+			synchronized (this) {
+				if(pageLists.containsKey(nodeid)){
+					inFlight.remove(nodeid);
+					continue;
+				}
+			}
+
+			requested.incrementAndGet();
+			try {
+				ex.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							fetch(graphid, nodeid);
+						} finally {
+							inFlight.remove(nodeid);
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				inFlight.remove(nodeid);
+			}
+		}
+	}
+
+	private void fetch(int graphid, long nodeid){
+		long epoch;
+		synchronized (this) {
+			epoch = writeEpoch;
+		}
+
+		byte[] rawPageList = db.getBlockList(nodeid, graphid);
+		if(rawPageList == null){
+			return;
+		}
+
+		List<Long> pageList = PageDirectory.readPageList(db, rawPageList);
+		if(pageList == null){
+			return;
+		}
+		BufferPool pool = BufferManager.getInstance().getBufferPool();
+
+		Map<Long, byte[]> fetched = new LinkedHashMap<Long, byte[]>();
+		for (Iterator<Long> it = pageList.iterator(); it.hasNext();) {
+			long pid = it.next();
+
+			//the group is already in the buffer
+			if(pool.contains(pid)){
+				return;
+			}
+
+			byte[] data = db.getBlock(pid);
+			if(data == null || Thread.currentThread().isInterrupted()){
+				return;
+			}
+			fetched.put(pid, data);
+		}
+
+		synchronized (this) {
+			//a write happened while reading, the blocks may be stale
+			if(epoch != writeEpoch){
+				return;
+			}
+
+			put(graphid, nodeid, pageList, fetched);
+		}
+	}
+
+	/**
+	 * Puts blocks read by someone else into the cache, e.g. by the warm start. They
+	 * are counted as prefetched. The blocks must be read after the last write to them.
+	 */
+	public synchronized void offer(int graphid, long nodeid, List<Long> pageList, Map<Long, byte[]> fetched){
+		put(graphid, nodeid, pageList, fetched);
+	}
+
+	//must hold the lock
+	private void put(int graphid, long nodeid, List<Long> pageList, Map<Long, byte[]> fetched){
+		pageLists.put(nodeid, new PageList(graphid, pageList));
+		if(pageLists.size() > maxPageLists){
+			Iterator<Long> it = pageLists.keySet().iterator();
+			it.next();
+			it.remove();
+		}
+
+		for (Map.Entry<Long, byte[]> e : fetched.entrySet()) {
+			byte[] old = blocks.put(e.getKey(), e.getValue());
+			if(old != null){
+				cachedBytes -= old.length;
+			}
+			else {
+				prefetchedPages.incrementAndGet();
+			}
+			cachedBytes += e.getValue().length;
+		}
+
+		//drop the oldest blocks over the budget
+		for (Iterator<byte[]> it = blocks.values().iterator(); cachedBytes > maxCachedBytes && it.hasNext();) {
+			cachedBytes -= it.next().length;
+			it.remove();
+			wasted.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return The prefetched page list of the node, null if it is not prefetched.
+	 */
+	public synchronized List<Long> takePageList(long nodeid, int graphid){
+		PageList pl = pageLists.remove(nodeid);
+
+		if(pl == null || pl.graphid != graphid){
+			return null;
+		}
+		return pl.pages;
+	}
+
+	/**
+	 * @return The prefetched data of the page, null if it is not prefetched.
+	 */
+	public synchronized byte[] takeBlock(long pageid){
+		byte[] data = blocks.remove(pageid);
+
+		if(data != null){
+			cachedBytes -= data.length;
+			hits.incrementAndGet();
+		}
+		return data;
+	}
+
+	/**
+	 * Must be called after the page is written to the database.
+	 */
+	public synchronized void invalidateBlock(long pageid){
+		writeEpoch++;
+
+		byte[] data = blocks.remove(pageid);
+		if(data != null){
+			cachedBytes -= data.length;
+			wasted.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Must be called after the page lists of the nodes are written to the database.
+	 */
+	public synchronized void invalidatePageLists(List<Long> nodeList){
+		writeEpoch++;
+
+		if(pageLists.isEmpty()){
+			return;
+		}
+
+		for (Iterator<Long> it = nodeList.iterator(); it.hasNext();) {
+			pageLists.remove(it.next());
+		}
+	}
+
+	public long getRequestCount(){
+		return requested.get();
+	}
+
+	public long getPrefetchedPageCount(){
+		return prefetchedPages.get();
+	}
+
+	public long getHitCount(){
+		return hits.get();
+	}
+
+	public long getWastedCount(){
+		return wasted.get();
+	}
+
+	/**
+	 * @return Fraction of the prefetched pages which were used.
+	 */
+	public double getAccuracy(){
+		long fetched = prefetchedPages.get();
+
+		if(fetched == 0){
+			return 0.0;
+		}
+		return (double) hits.get() / (double) fetched;
+	}
+
+	public void resetStatistics(){
+		requested.set(0);
+		prefetchedPages.set(0);
+		hits.set(0);
+		wasted.set(0);
+	}
+}
@@ -0,0 +1,218 @@
+package graphdb.graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Background thread which goes over the block table of the database and verifies the
+ * checksums of the pages, so corruption is found before a query faults the page in.
+ * Pages are scanned in id order at the scrub rate of the configuration, when the last
+ * page id is reached the next pass starts from the beginning.
+ *
+ * The pages are read directly from the database, the buffer isn't touched. Verified
+ * pages are not verified again on their first read when the checksum mode is first.
+ */
+public class PageScrubber implements Runnable {
+	private static Logger log = Logger.getLogger(PageScrubber.class.getName());
+
+	private final BufferManager bm;
+	private Thread thread;
+	private volatile boolean running;
+
+	private final AtomicLong scrubbedPages;
+	private final AtomicLong uncheckedPages; // pages written without a checksum
+	private final AtomicLong corruptedPages;
+	private final AtomicLong passes;
+
+	//ids of the pages which failed their last scrub
+	private final Set<Long> corrupted;
+
+	public PageScrubber(BufferManager bm) {
+		this.bm = bm;
+		this.scrubbedPages = new AtomicLong(0);
+		this.uncheckedPages = new AtomicLong(0);
+		this.corruptedPages = new AtomicLong(0);
+		this.passes = new AtomicLong(0);
+		this.corrupted = Collections.synchronizedSet(new TreeSet<Long>());
+	}
+
+	public synchronized void start(){
+		if(running){
+			return;
+		}
+
+		running = true;
+		thread = new Thread(this, "graphdb-page-scrubber");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+
+		log.info("Page scrubber started.");
+	}
+
+	/**
+	 * Stops the scrubber after its current page and waits for the thread to end.
+	 */
+	public void stop(){
+		Thread t = null;
+
+		synchronized (this) {
+			if(!running){
+				return;
+			}
+
+			running = false;
+			t = thread;
+			thread = null;
+			notifyAll();
+		}
+
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		log.info("Page scrubber stopped.");
+	}
+
+	public boolean isRunning(){
+		return running;
+	}
+
+	/**
+	 * Verifies every page of the database on the calling thread, without a rate limit.
+	 *
+	 * @return Number of corrupted pages found.
+	 */
+	public long scrub(){
+		long found = 0;
+		long last = PageManager.getInstance().getPageIdCount();
+
+		for (long pid = 0; pid < last; pid++) {
+			if(!scrubPage(pid)){
+				found++;
+			}
+		}
+		passes.incrementAndGet();
+
+		return found;
+	}
+
+	@Override
+	public void run() {
+		while(running){
+			long last = PageManager.getInstance().getPageIdCount();
+			long start = System.currentTimeMillis();
+			long found = 0;
+
+			for (long pid = 0; pid < last && running; pid++) {
+				try {
+					if(!scrubPage(pid)){
+						found++;
+					}
+				} catch (RuntimeException e) {
+					log.error("Page scrubber failed to read page " + pid + ".", e);
+				}
+
+				throttle(start, pid + 1);
+			}
+
+			if(running){
+				passes.incrementAndGet();
+				log.info("Page scrubber verified " + last + " page ids in " + (System.currentTimeMillis() - start)
+						+ "ms, " + found + " corrupted.");
+
+				//an empty database is checked again later
+				throttle(System.currentTimeMillis(), 1);
+			}
+		}
+	}
+
+	//waits until the scrubbed pages are within the rate
+	private synchronized void throttle(long start, long pages){
+		double rate = bm.getBufferConf().getScrubRate();
+		if(rate <= 0){
+			return;
+		}
+
+		long due = start + (long) (pages * 1000 / rate);
+		long wait;
+		while(running && (wait = due - System.currentTimeMillis()) > 0){
+			try {
+				wait(wait);
+			} catch (InterruptedException e) {
+				running = false;
+			}
+		}
+	}
+
+	/**
+	 * @return false if the page is in the database and fails its checksum.
+	 */
+	private boolean scrubPage(long pid){
+		byte[] stored = bm.getDatabase().getBlock(pid);
+		if(stored == null){
+			return true;
+		}
+		scrubbedPages.incrementAndGet();
+
+		//pages of older databases and the ones written without checksum can't be checked
+		if(!bm.hasFramedPages() || (PageCompression.isFramed(stored) && !PageCompression.hasChecksum(stored))){
+			uncheckedPages.incrementAndGet();
+			return true;
+		}
+
+		if(!bm.verifyPage(pid, stored, true)){
+			corruptedPages.incrementAndGet();
+			corrupted.add(pid);
+			return false;
+		}
+
+		corrupted.remove(pid);
+		return true;
+	}
+
+	/**
+	 * @return Pages read by the scrubber.
+	 */
+	public long getScrubbedPageCount(){
+		return scrubbedPages.get();
+	}
+
+	/**
+	 * @return Pages read by the scrubber which were written without a checksum.
+	 */
+	public long getUncheckedPageCount(){
+		return uncheckedPages.get();
+	}
+
+	/**
+	 * @return Checksum failures found by the scrubber, a page is counted at each pass.
+	 */
+	public long getCorruptedPageCount(){
+		return corruptedPages.get();
+	}
+
+	/**
+	 * @return Completed passes over the database.
+	 */
+	public long getPassCount(){
+		return passes.get();
+	}
+
+	/**
+	 * @return Ids of the pages which failed their checksum at their last scrub.
+	 */
+	public List<Long> getCorruptedPages(){
+		synchronized (corrupted) {
+			return new ArrayList<Long>(corrupted);
+		}
+	}
+}
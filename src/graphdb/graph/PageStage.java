@@ -0,0 +1,30 @@
+package graphdb.graph;
+
+/**
+ * Stages of a page group on its way between the database and the memory, each has
+ * its own latency histogram in BufferMetrics.
+ */
+public enum PageStage {
+	/** Reading the blocks from the database connector. */
+	CONNECTOR_READ,
+	/** Checking the checksums of the read blocks. */
+	VERIFY,
+	/** Decompressing the read blocks. */
+	DECOMPRESS,
+	/** Decoding the page data into nodes, everything but the edges and properties. */
+	DECODE_NODES,
+	/** Decoding the adjacency lists. */
+	DECODE_EDGES,
+	/** Deserializing the node and edge properties. */
+	DECODE_PROPERTIES,
+	/** Encoding the nodes into page data, everything but the edges and properties. */
+	ENCODE_NODES,
+	/** Encoding the adjacency lists. */
+	ENCODE_EDGES,
+	/** Serializing the node and edge properties. */
+	ENCODE_PROPERTIES,
+	/** Compressing the blocks to be written. */
+	COMPRESS,
+	/** Writing the blocks and the node table entries to the database connector, for a page group or a flush batch. */
+	CONNECTOR_WRITE
+}
@@ -0,0 +1,66 @@
+package graphdb.graph;
+
+/**
+ * Splits the time of a pass over a page group into its stages. The pass is always in
+ * exactly one stage, entering another one reads the clock once, so the stages add up
+ * to the time of the pass. A timer of a disabled configuration doesn't read the clock.
+ */
+final class StageTimer {
+	private final BufferMetrics metrics;
+	private final long[] nanos;
+	private final boolean[] entered;
+
+	private PageStage current;
+	private long last;
+
+	/**
+	 * @param stage Stage the pass starts in.
+	 */
+	StageTimer(BufferManager bm, PageStage stage) {
+		if(!bm.getBufferConf().isStageTiming()){
+			metrics = null;
+			nanos = null;
+			entered = null;
+			return;
+		}
+
+		metrics = bm.getMetrics();
+		nanos = new long[PageStage.values().length];
+		entered = new boolean[nanos.length];
+
+		current = stage;
+		entered[stage.ordinal()] = true;
+		last = System.nanoTime();
+	}
+
+	void enter(PageStage stage){
+		if(metrics == null || stage == current){
+			return;
+		}
+
+		long now = System.nanoTime();
+		nanos[current.ordinal()] += now - last;
+		last = now;
+
+		current = stage;
+		entered[stage.ordinal()] = true;
+	}
+
+	/**
+	 * Ends the pass and records the time of each stage it entered.
+	 */
+	void record(){
+		if(metrics == null){
+			return;
+		}
+
+		nanos[current.ordinal()] += System.nanoTime() - last;
+
+		PageStage[] stages = PageStage.values();
+		for (int i = 0; i < stages.length; i++) {
+			if(entered[i]){
+				metrics.recordStage(stages[i], nanos[i]);
+			}
+		}
+	}
+}
@@ -3,12 +3,17 @@ package graphdb.graph;
 import graphdb.util.CollectionsIterator;
 import graphdb.util.DoublyLinkedList;
 import graphdb.util.Property;
+import graphdb.util.VarInt;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
 
 import org.apache.log4j.Logger;
 
@@ -17,9 +22,10 @@ public class SubGraph{
 	protected int sgid;
 	protected long pageid;
 	protected SuperGraph g;
-	private boolean dirty;
+	private volatile boolean dirty;
 	private boolean partitioned;
-	private int bytecount;
+	private int bytecount; // v2 size of the node records and their id deltas, see getTotalSize
+	private volatile int modCount; // changes on every modification, the flusher checks it
 
 	//byte costs
 	public static final int blockInitCost = 4; //end of block descriptor
@@ -28,11 +34,39 @@ public class SubGraph{
 	public static final int edgeCost = 8 + 4; // incident node id + property object length
 	public static final int nodePropertyInitCost = 4 + 4; // property descriptor + property object length
 
+	//estimated heap costs of the decoded subgraph
+	public static final int nodeHeapCost = 16 + 48 + 56 + 24; // node + node map entry + record size entry + node index slot
+	public static final int edgeListHeapCost = 48 + 40; // edge map entry + adjacency list
+	public static final int edgeHeapCost = 12; // incident node id, the list grows by half
+	public static final int propertyHeapCost = 48 + 64; // node property map entry + property object
+	public static final int propertyEntryHeapCost = 48 + 16; // property map entry + boxed value
+	public static final int edgePropertyHeapCost = 40; // slot of the edge property store
+	public static final int edgePropertyEntryHeapCost = 12; // column cell
+
+	//page format v2, a v1 page always starts with a zero byte
+	public static final byte FORMAT_V2 = 2;
+	public static final int V2_IN_EDGES = 1;
+	public static final int V2_OUT_EDGES = 2;
+	public static final int V2_NODE_PROPERTY = 4;
+	public static final int V2_IN_EDGE_PROPERTIES = 8;
+	public static final int V2_OUT_EDGE_PROPERTIES = 16;
+
 	private static Logger log = Logger.getLogger(SubGraph.class.getName());
 
 	public HashMap<Long, Node> nodeMap; // node id --> node
-	public HashMap<Long, List<Edge>> outgoingEdgeMap; // edge id --> edge list
-	public HashMap<Long, List<Edge>> incomingEdgeMap; // edge id --> edge list
+	public HashMap<Long, AdjacencyList> outgoingEdgeMap; // node id --> destination ids
+	public HashMap<Long, AdjacencyList> incomingEdgeMap; // node id --> source ids
+
+	//node id --> v2 record size of the node without its id delta, in the order the page stores the nodes
+	private final TreeMap<Long, Integer> recordSizes;
+
+	//node id --> heap cost of the properties of the node and of its outgoing edges, only the nodes having any
+	private final HashMap<Long, Integer> propertyHeaps;
+	private long propertyHeap; // sum of propertyHeaps, see getHeapSize
+
+	//nodes of a lazily read page which are not decoded yet, null if there are none
+	private HashMap<Long, Integer> pendingNodes; // node id --> offset of the node in pendingData
+	private List<ByteBuffer> pendingData; // views of the page data the subgraph was read from
 
 	private final int MAX_BLOCK_SIZE = GraphManager.getInstance().getBufferConfiguration().getMaxBlockSize();
 
@@ -42,12 +76,14 @@ public class SubGraph{
 		this.g = g;
 		this.dirty = false;
 		this.partitioned = false;
-		this.bytecount = blockInitCost;
+		this.bytecount = 0;
 
 		nodeMap = new HashMap<Long,Node>();
+		recordSizes = new TreeMap<Long, Integer>();
+		propertyHeaps = new HashMap<Long, Integer>();
 
-		outgoingEdgeMap = new HashMap<Long, List<Edge>>();
-		incomingEdgeMap = new HashMap<Long, List<Edge>>();
+		outgoingEdgeMap = new HashMap<Long, AdjacencyList>();
+		incomingEdgeMap = new HashMap<Long, AdjacencyList>();
 	}
 
 	public int getId() {
@@ -58,6 +94,22 @@ public class SubGraph{
 		return g;
 	}
 
+	/**
+	 * Pins the page group of the subgraph, so it stays in memory until the pin is released.
+	 * 
+	 * @return The pin, null if the pages of the subgraph are not in the buffer.
+	 */
+	public PagePin pin(){
+		Page p = null;
+		try {
+			p = PageManager.getInstance().getPage(pageid);
+		} catch (NoSuchElementException e) {
+			return null;
+		}
+
+		return BufferManager.getInstance().pin(p);
+	}
+
 	public Node getNode(long nodeId) {
 		//issue access to the page in the buffer
 		BufferManager.getInstance().issueAccessToBuffer(pageid);
@@ -89,13 +141,17 @@ public class SubGraph{
 		//issue access to the page in the buffer
 		BufferManager.getInstance().issueAccessToBuffer(pageid);
 
+		if(node != null){
+			decodeNode(node.getId());
+		}
+
 		if(direction.equals(EdgeDirection.IN)){
 			return new Iterable<Edge>(){
 
 				@Override
 				public Iterator<Edge> iterator() {
 					if(node != null && incomingEdgeMap.get(node.getId()) != null){
-						return incomingEdgeMap.get(node.getId()).iterator();
+						return edgeIterator(node.getId(), incomingEdgeMap.get(node.getId()), true);
 					}
 					//if the node doesn't have an edge return empty list
 					return new LinkedList<Edge>().iterator();
@@ -109,7 +165,7 @@ public class SubGraph{
 				@Override
 				public Iterator<Edge> iterator() {
 					if(node != null && outgoingEdgeMap.get(node.getId()) != null){
-						return outgoingEdgeMap.get(node.getId()).iterator();
+						return edgeIterator(node.getId(), outgoingEdgeMap.get(node.getId()), false);
 					}
 					//if the node doesn't have an edge return empty list
 					return new LinkedList<Edge>().iterator();
@@ -136,10 +192,64 @@ public class SubGraph{
 		}
 	}
 
+	/**
+	 * Positions the cursor on the edges of the node, nothing is allocated.
+	 */
+	public EdgeCursor getEdges(Node node, EdgeDirection direction, EdgeCursor cursor){
+		//issue access to the page in the buffer
+		BufferManager.getInstance().issueAccessToBuffer(pageid);
+
+		long nodeid = node.getId();
+		decodeNode(nodeid);
+
+		AdjacencyList in = direction == EdgeDirection.OUT ? null : nonEmpty(incomingEdgeMap.get(nodeid));
+		AdjacencyList out = direction == EdgeDirection.IN ? null : nonEmpty(outgoingEdgeMap.get(nodeid));
+		cursor.reset(g, nodeid, in, out);
+
+		return cursor;
+	}
+
+	/**
+	 * Creates the edge objects of an adjacency list as they are iterated.
+	 */
+	private Iterator<Edge> edgeIterator(final long nodeid, final AdjacencyList edges, final boolean incoming){
+		return new Iterator<Edge>() {
+			private int i = 0;
+
+			@Override
+			public boolean hasNext() {
+				return i < edges.size();
+			}
+
+			@Override
+			public Edge next() {
+				if(i >= edges.size()){
+					throw new NoSuchElementException();
+				}
+				return edge(nodeid, edges.get(i++), incoming);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("Edges are removed through the graph.");
+			}
+		};
+	}
+
+	/**
+	 * @param incoming Whether the incident node is the source of the edge.
+	 * @return Edge of the node's adjacency list.
+	 */
+	private Edge edge(long nodeid, long incidentId, boolean incoming){
+		return incoming ? new Edge(g, incidentId, nodeid) : new Edge(g, nodeid, incidentId);
+	}
+
 	public int getNumEdges(final Node node, EdgeDirection direction){
 		int numEdges = 0;
 
 		log.trace("Number of edges for node" + node + " is requested.");
+		decodeNode(node.getId());
+
 		if(direction.equals(EdgeDirection.IN) || direction.equals(EdgeDirection.BOTH)){
 			if(incomingEdgeMap.containsKey(node.getId())){
 				numEdges += (long)incomingEdgeMap.get(node.getId()).size();
@@ -161,130 +271,349 @@ public class SubGraph{
 
 	public Node addNode(Node node){
 		nodeMap.put(node.getId(), node);
-		incByteCount(nodeCost);
+		incByteCount(addRecord(node.getId(), recordSize(node.getId())));
 
 		return node;
 	}
 
 	public void addOutgoingEdge(Edge edge){
 		long srcId = edge.getSourceId();
-		int edgesize = 0;
 
-		if(!g.edgeSet.contains(edge)){
-			g.edgeSet.add(edge);
-		}
+		decodeNode(srcId);
 
-		// if the node is in outgoingEdgeMap
-		if(outgoingEdgeMap.containsKey(srcId) && !outgoingEdgeMap.get(srcId).isEmpty()){
+		insertEdge(outgoingEdgeMap, srcId, edge.getDestinationId());
 
-			// directly add to the list
-			outgoingEdgeMap.get(srcId).add(edge);
+		incByteCount(resizeNode(srcId));
+	}
 
-			edgesize += edgeCost;
-		}
-		else {
+	public void addIncomingEdge(Edge edge){
+		long destId = edge.getDestinationId();
+
+		decodeNode(destId);
 
-			// create a new edge list for the node
-			List<Edge> newEdgeList = new LinkedList<Edge>();
-			newEdgeList.add(edge);
+		insertEdge(incomingEdgeMap, destId, edge.getSourceId());
 
-			// and add it to the outgoingEdgeMap
-			outgoingEdgeMap.put(srcId,newEdgeList);
+		incByteCount(resizeNode(destId));
+	}
 
-			//if it is the first edge of the node
-			//add the initialization cost
-			edgesize += edgeInitCost;
-			edgesize += edgeCost;
+	/**
+	 * Adds the edge to the node's list, the lists are kept sorted by the incident node id
+	 * as the v2 page stores them.
+	 */
+	private static void insertEdge(HashMap<Long, AdjacencyList> edgeMap, long nodeid, long incidentId){
+		AdjacencyList edges = edgeMap.get(nodeid);
+		if(edges == null){
+			edges = new AdjacencyList();
+			edgeMap.put(nodeid, edges);
 		}
+		edges.add(incidentId);
+	}
 
-		incByteCount(edgesize);
+	/**
+	 * @return Exact size of the subgraph in page format v2. It is kept up to date as the
+	 * nodes, edges and properties change, so nothing is encoded to measure it.
+	 */
+	public int getTotalSize(){
+		return 1 + VarInt.varIntSize(recordSizes.size()) + bytecount;
 	}
 
-	public void addIncomingEdge(Edge edge){
-		long destId = edge.getDestinationId();
-		int edgesize = 0;
+	/**
+	 * @return Estimated heap bytes of the decoded subgraph, the pages it is read from are not
+	 * included. Edge properties are counted in the subgraph of the source.
+	 */
+	public long getHeapSize(){
+		long size = (long) recordSizes.size() * nodeHeapCost + propertyHeap;
 
-		if(!g.edgeSet.contains(edge)){
-			g.edgeSet.add(edge);
-		}
+		size += edgeListHeapSize(incomingEdgeMap);
+		size += edgeListHeapSize(outgoingEdgeMap);
 
-		// if the node is already in incomingEdgeMap
-		if(incomingEdgeMap.containsKey(destId) && !incomingEdgeMap.get(destId).isEmpty()){
+		return size;
+	}
 
-			// directly add to the list of edges
-			incomingEdgeMap.get(destId).add(edge);
+	/**
+	 * Measures the heap cost of the properties of a node and of its outgoing edges, the
+	 * edges are walked, it is O(degree).
+	 */
+	private int propertyHeapSize(long nodeid){
+		int size = 0;
 
-			edgesize += edgeCost;
+		Property prop = g.nodeProps.get(nodeid);
+		if(prop != null){
+			size += propertyHeapCost + prop.size() * propertyEntryHeapCost;
 		}
-		else {
-			// create a new edge list for the node
-			List<Edge> newEdgeList = new LinkedList<Edge>();
-			newEdgeList.add(edge);
-
-			// and add it to the incomingEdgeMap
-			incomingEdgeMap.put(destId, newEdgeList);
 
-			//if it is the first edge of the node
-			//add the initialization cost
-			edgesize += edgeInitCost;
-			edgesize += edgeCost;
+		AdjacencyList edges = outgoingEdgeMap.get(nodeid);
+		if(edges != null && !g.edgeProps.isEmpty()){
+			for (int i = 0; i < edges.size(); i++) {
+				int entries = g.edgeProps.getEntryCount(nodeid, edges.get(i));
+				if(entries > 0){
+					size += edgePropertyHeapCost + entries * edgePropertyEntryHeapCost;
+				}
+			}
 		}
 
-		incByteCount(edgesize);
+		return size;
 	}
 
-	public int getTotalSize(){
-		return bytecount;
+	private void setPropertyHeap(long nodeid, int size){
+		Integer old = size == 0 ? propertyHeaps.remove(nodeid) : propertyHeaps.put(nodeid, size);
+		propertyHeap += size - (old == null ? 0 : old);
+	}
+
+	private static long edgeListHeapSize(HashMap<Long, AdjacencyList> edgeMap){
+		long size = 0;
+		for (AdjacencyList edges : edgeMap.values()) {
+			size += edgeListHeapCost + (long) edges.size() * edgeHeapCost;
+		}
+		return size;
 	}
 
+	/**
+	 * @return Size of the subgraph in page format v2 measured from scratch, to check getTotalSize.
+	 */
 	public int getTotalSize2(){
-		int count = blockInitCost;
-		for (Iterator<Node> it = nodeMap.values().iterator(); it.hasNext();) {
-			Node n = it.next();
-			count += getSize(n);
+		int count = 0;
+		long prevId = 0;
+		for (Iterator<Map.Entry<Long, Integer>> it = recordSizes.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Long, Integer> entry = it.next();
+			long nodeid = entry.getKey();
+
+			count += VarInt.varLongSize(nodeid - prevId) + (isPending(nodeid) ? entry.getValue() : recordSize(nodeid));
+			prevId = nodeid;
 		}
-		return count;
+		return 1 + VarInt.varIntSize(recordSizes.size()) + count;
 	}
 
+	/**
+	 * @return Size of the node's v2 record without its id. For a node of another subgraph
+	 * the size it would have in this one.
+	 */
 	public int getSize(Node n) {
-		int bytesize = nodeCost;
-
 		if(n == null){
 			return 0;
 		}
+		decodeNode(n.getId());
+
+		Integer record = recordSizes.get(n.getId());
+		return record != null ? record : recordSize(n.getId());
+	}
 
-		if(incomingEdgeMap.containsKey(n.getId())){
+	/**
+	 * Measures the v2 record of a node: flags byte, adjacency lists and node property.
+	 * The edge lists are walked, it is O(degree).
+	 */
+	private int recordSize(long nodeid){
+		int size = 1;
 
-			bytesize += edgeInitCost;
-			bytesize += incomingEdgeMap.get(n.getId()).size() * edgeCost;
+		size += edgeListSize(nodeid, incomingEdgeMap.get(nodeid), true);
+		size += edgeListSize(nodeid, outgoingEdgeMap.get(nodeid), false);
 
-			for (Iterator<Edge> it = incomingEdgeMap.get(n.getId()).iterator(); it.hasNext();) {
-				Edge e = it.next();
+		Property prop = g.nodeProps.get(nodeid);
+		if(prop != null){
+			size += propertySize(prop);
+		}
+
+		return size;
+	}
+
+	private int edgeListSize(long nodeid, AdjacencyList edges, boolean incoming){
+		if(edges == null || edges.isEmpty()){
+			return 0;
+		}
 
-				if(e.hasProperty())
-					bytesize += g.getPropertyObject(e).getObjectSize();
+		int size = VarInt.varIntSize(edges.size());
+		int propSize = -1;
 
+		long prevId = 0;
+		for (int i = 0; i < edges.size(); i++) {
+			long id = edges.get(i);
+			size += VarInt.varLongSize(id - prevId);
+			prevId = id;
+
+			int length = writtenPropertySize(nodeid, id, incoming);
+			if(length >= 0){
+				propSize = Math.max(propSize, 0) + propertySize(length);
 			}
 		}
 
-		if(outgoingEdgeMap.containsKey(n.getId())){
+		//bitmap and the properties, if any is written
+		if(propSize >= 0){
+			size += (edges.size() + 7) / 8 + propSize;
+		}
+		return size;
+	}
 
-			bytesize += edgeInitCost;
-			bytesize += outgoingEdgeMap.get(n.getId()).size() * edgeCost;
+	/**
+	 * @return Bytes a property takes in a v2 record, its length and its data.
+	 */
+	static int propertySize(Property prop){
+		return propertySize(prop.getObjectSize());
+	}
 
-			for (Iterator<Edge> it = outgoingEdgeMap.get(n.getId()).iterator(); it.hasNext();) {
-				Edge e = it.next();
+	/**
+	 * @param length Size of the property object, see EdgePropertyStore.getObjectSize.
+	 */
+	static int propertySize(int length){
+		return VarInt.varIntSize(length) + length;
+	}
+
+	/**
+	 * The property of an edge inside the subgraph is written once, with its source.
+	 * 
+	 * @return Size of the property the page stores with the edge, -1 if it stores none.
+	 */
+	private int writtenPropertySize(long nodeid, long incidentId, boolean incoming){
+		if(g.edgeProps.isEmpty() || (incoming && isLocal(incidentId))){
+			return -1;
+		}
+		return incoming ? g.edgeProps.getObjectSize(incidentId, nodeid) : g.edgeProps.getObjectSize(nodeid, incidentId);
+	}
+
+	/**
+	 * @return Encoded property the page stores with the edge, null if it stores none.
+	 */
+	private byte[] writtenProperty(long nodeid, long incidentId, boolean incoming){
+		if(g.edgeProps.isEmpty() || (incoming && isLocal(incidentId))){
+			return null;
+		}
+		return incoming ? g.edgeProps.encode(incidentId, nodeid) : g.edgeProps.encode(nodeid, incidentId);
+	}
+
+	//the node index is used rather than nodeMap, it is right while a node moves between subgraphs
+	private boolean isLocal(long nodeid){
+		return g.nodeIndex.get(nodeid) == sgid;
+	}
+
+	/**
+	 * Puts a node into the record order, the id delta of its successor changes with it.
+	 * 
+	 * @return Bytes the subgraph grows by, the byte count isn't changed.
+	 */
+	int addRecord(long nodeid, int record){
+		setPropertyHeap(nodeid, isPending(nodeid) ? 0 : propertyHeapSize(nodeid));
+
+		Integer old = recordSizes.put(nodeid, record);
+		if(old != null){
+			return record - old;
+		}
+		return record + idDeltaSize(nodeid);
+	}
+
+	/**
+	 * Takes a node out of the record order.
+	 * 
+	 * @return Bytes the subgraph shrinks by, the byte count isn't changed.
+	 */
+	int removeRecord(long nodeid){
+		Integer record = recordSizes.get(nodeid);
+		if(record == null){
+			return 0;
+		}
 
-				if(e.hasProperty())
-					bytesize += g.getPropertyObject(e).getObjectSize();
+		int size = record + idDeltaSize(nodeid);
+		recordSizes.remove(nodeid);
+		setPropertyHeap(nodeid, 0);
+		return size;
+	}
+
+	//bytes the id of a node in the record order costs, including the change in its successor's delta
+	private int idDeltaSize(long nodeid){
+		Long prev = recordSizes.lowerKey(nodeid);
+		Long next = recordSizes.higherKey(nodeid);
+		long prevId = prev == null ? 0 : prev;
+
+		int size = VarInt.varLongSize(nodeid - prevId);
+		if(next != null){
+			size += VarInt.varLongSize(next - nodeid) - VarInt.varLongSize(next - prevId);
+		}
+		return size;
+	}
+
+	/**
+	 * Measures the record of a node again after its edges or properties changed, the heap
+	 * cost of its properties is updated too. Nodes of a lazy read keep the size they have
+	 * in the page until they are decoded.
+	 * 
+	 * @return Bytes the record grew by, the byte count isn't changed.
+	 */
+	int resizeNode(long nodeid){
+		Integer record = recordSizes.get(nodeid);
+		if(record == null || isPending(nodeid)){
+			return 0;
+		}
+
+		setPropertyHeap(nodeid, propertyHeapSize(nodeid));
+
+		int size = recordSize(nodeid);
+		recordSizes.put(nodeid, size);
+		return size - record;
+	}
+
+	/**
+	 * Measures all the records again, after the subgraph is read from its page(s).
+	 */
+	void resize(){
+		bytecount = 0;
+		propertyHeap = 0;
+		propertyHeaps.clear();
+
+		long prevId = 0;
+		for (Iterator<Map.Entry<Long, Integer>> it = recordSizes.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Long, Integer> entry = it.next();
+			long nodeid = entry.getKey();
+
+			if(!isPending(nodeid)){
+				entry.setValue(recordSize(nodeid));
+				setPropertyHeap(nodeid, propertyHeapSize(nodeid));
 			}
+
+			bytecount += VarInt.varLongSize(nodeid - prevId) + entry.getValue();
+			prevId = nodeid;
 		}
+	}
 
-		if(n.hasProperty()){
-			bytesize += g.getPropertyObject(n).getObjectSize();
+	/**
+	 * Updates the size of a node after a property written with it changed its value. The
+	 * property has to be in its record before and after the change, it is O(1).
+	 * 
+	 * @param heapDelta Change of the heap cost of the properties the node holds, see getHeapSize.
+	 */
+	void resizeProperty(long nodeid, int delta, int heapDelta){
+		Integer record = recordSizes.get(nodeid);
+		if(record == null){
+			delta = 0;
 		}
+		else {
+			recordSizes.put(nodeid, record + delta);
 
-		return bytesize;
+			Integer heap = propertyHeaps.get(nodeid);
+			setPropertyHeap(nodeid, (heap == null ? 0 : heap) + heapDelta);
+		}
+		changeByteCount(delta);
+	}
+
+	/**
+	 * Updates the size of a node after a property written with it was added or removed.
+	 */
+	void updateNode(long nodeid){
+		changeByteCount(resizeNode(nodeid));
+	}
+
+	/**
+	 * Measures a node again while its subgraph is being split, the byte count changes
+	 * without starting another split of the subgraph.
+	 */
+	void resizeNodeInSplit(long nodeid){
+		bytecount += resizeNode(nodeid);
+	}
+
+	void changeByteCount(int x){
+		if(x > 0){
+			incByteCount(x);
+		}
+		else {
+			decByteCount(-x);
+		}
 	}
 
 	public List<Long> writeSubgraphToPage() {
@@ -298,269 +627,497 @@ public class SubGraph{
 		//get the next page if the pages are partitioned.
 		DoublyLinkedList.Node<Page> nextPageNode = currentPage.getAdjacentPagesList().getFirstNode().next;
 
-		ByteBuffer bb = null;
+		ByteBuffer data = encode(nodeList);
+
+		//nodes and edges written to the page leave the memory
+		release();
+
+		if(partitioned){
+			//get the byte array list from seq stream
+			//			    List<byte[]> balist = ((SequenceByteArrayOutputStream) baos).toByteArrayList();
+			List<ByteBuffer> balist = partitionBuffer(data);
+
+			//TODO: if it was partitioned and now it is not set partitioned false (shrink protocol)
+
+			//if it was not partitioned before but now it has to be partitioned (!partitioned)
+			setPartitioned(true);
+
+			for (Iterator<ByteBuffer> it = balist.iterator(); it.hasNext();) {
+				ByteBuffer bs = it.next();
+
+				if(bs.limit() > 0){
+
+					//set current block's data
+					currentPage.setData(bs);
+					currentPage.setPartitioned(true);
+
+					//if there are page(s) to write
+					if(it.hasNext()){
+
+						//if there are no more adjacent pages to write
+						//and there is more data to write, create new one
+						if(nextPageNode == null){
+							//create a new page in the adjacent page list
+							//1 doesn't create new adjpage list
+							Page newpage = PageManager.getInstance().createNewPartitionedPage(g.getId(), sgid, currentPage.getAdjacentPagesList());
+
+							currentPage = newpage;
+							nextPageNode = null; //next time a new page will be created as well
+						}
+						else{
+							currentPage = nextPageNode.data;
+							nextPageNode = nextPageNode.next;
+						}
+					}
+				}
+			}
+		}
+		//if subgraph is not partitioned
+		else {
+			//if not partitioned directly write on page and return
+			//                page.setData(((ByteArrayOutputStream) baos).toByteArray());
+			page.setData(data);
+		}
+
+		return nodeList;
+	}
+
+	/**
+	 * Encodes the subgraph into the blocks of its page group. Unlike writeSubgraphToPage
+	 * it doesn't change the subgraph, so the subgraph stays usable after it is written.
+	 * 
+	 * @param nodeList Ids of the encoded nodes are added to it.
+	 * @return Block data in the order of the adjacent pages list. The buffers are
+	 * allocated from the page arena, the caller has to pass them to pages or release them.
+	 */
+	public List<ByteBuffer> encodeBlocks(List<Long> nodeList) {
+		ByteBuffer data = encode(nodeList);
+
+		if(partitioned){
+			return partitionBuffer(data);
+		}
+
+		List<ByteBuffer> balist = new LinkedList<ByteBuffer>();
+		balist.add(data);
+		return balist;
+	}
+
+	/**
+	 * Encodes the subgraph directly into a buffer of the page arena.
+	 * 
+	 * @return The buffer from position 0 to the end of the encoded data.
+	 */
+	private ByteBuffer encode(List<Long> nodeList) {
+		PageArena arena = BufferManager.getInstance().getPageArena();
+		boolean v1 = GraphManager.getInstance().getBufferConfiguration().getPageFormat() == 1;
+		int size = v1 ? getTotalSizeV1() : getTotalSize();
+		int listSize = nodeList.size();
+		StageTimer timer = new StageTimer(BufferManager.getInstance(), PageStage.ENCODE_NODES);
+
+		while(true){
+			ByteBuffer bb = arena.allocate(size);
+
+			try {
+				if(v1){
+					encode(bb, nodeList, timer);
+				}
+				else {
+					encodeV2(bb, nodeList, timer);
+				}
+
+				timer.record();
+				bb.flip();
+				return bb;
+			} catch (BufferOverflowException e) {
+				//the sizes are exact, unless a property value was changed in place after it was set
+				arena.release(bb);
+				nodeList.subList(listSize, nodeList.size()).clear();
+				size *= 2;
+			} catch (RuntimeException e) {
+				arena.release(bb);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * @return Size of the subgraph in page format v1.
+	 */
+	private int getTotalSizeV1(){
+		int size = blockInitCost;
+
+		for (Iterator<Long> it = nodeMap.keySet().iterator(); it.hasNext();) {
+			long nodeid = it.next();
+			size += nodeCost;
+
+			for (int i = 0; i < 2; i++) {
+				boolean incoming = i == 0;
+				AdjacencyList edges = incoming ? incomingEdgeMap.get(nodeid) : outgoingEdgeMap.get(nodeid);
+				if(edges == null || edges.isEmpty()){
+					continue;
+				}
+
+				size += edgeInitCost + edges.size() * edgeCost;
+				for (int j = 0; j < edges.size(); j++) {
+					int length = writtenPropertySize(nodeid, edges.get(j), incoming);
+					if(length >= 0){
+						size += length;
+					}
+				}
+			}
+
+			Property prop = g.nodeProps.get(nodeid);
+			if(prop != null){
+				size += nodePropertyInitCost + prop.getObjectSize();
+			}
+		}
 
-		long start = System.currentTimeMillis();
-		int edgecnt = 0;
+		return size;
+	}
 
-		//		    ObjectOutputStream oos = new ObjectOutputStream(baos);
-		bb = ByteBuffer.allocate(getTotalSize());
+	private void encode(ByteBuffer bb, List<Long> nodeList, StageTimer timer) {
 
 		for (Iterator<Long> it = nodeMap.keySet().iterator(); it.hasNext();) {
 			long nodeid = it.next();
 
-			//                oos.writeInt(1);// node start descriptor
-			//                oos.writeLong(nodeid); // node id
 			bb.putInt(1);// node start descriptor
 			bb.putLong(nodeid); // node id
 
 			nodeList.add(nodeid);
 
-			//set node being written to the db as dummy for further usage
-			nodeMap.get(nodeid).setDummy(true);
+			AdjacencyList inEdges = incomingEdgeMap.get(nodeid);
 
 			//check if there are incoming edges
-			if(incomingEdgeMap.containsKey(nodeid) && incomingEdgeMap.get(nodeid).size() > 0){
-				//                    oos.writeInt(2); // incoming edge start descriptor
+			if(inEdges != null && inEdges.size() > 0){
+				timer.enter(PageStage.ENCODE_EDGES);
 				bb.putInt(2); // incoming edge start descriptor
 
 				//size of incoming edges
-				//                    oos.writeLong((long) incomingEdgeMap.get(nodeid).size());
-				bb.putLong((long) incomingEdgeMap.get(nodeid).size());
+				bb.putLong((long) inEdges.size());
 
-				edgecnt += incomingEdgeMap.get(nodeid).size();
+				for (int i = 0; i < inEdges.size(); i++) {
+					long srcId = inEdges.get(i);
 
-				for (Iterator<Edge> it2 = incomingEdgeMap.get(nodeid).iterator(); it2.hasNext();) {
-					Edge e = it2.next();
-
-					//                        oos.writeLong(e.getSourceId()); //write source id to the stream
-					bb.putLong(e.getSourceId()); //write source id to the stream
+					bb.putLong(srcId); //write source id to the stream
 
 					//if incident node of incoming edge is in the same block write null
 					//because if they are in the same block they will always be loaded at the same time
-					if(!g.hasProperty(e) || nodeMap.containsKey(e.getSourceId())){
-						//                            oos.writeObject(null);
+					byte[] propData = nodeMap.containsKey(srcId) ? null : g.edgeProps.encode(srcId, nodeid);
+					if(propData == null){
 						bb.putInt(-1);
 					}
 					else {
-						byte[] propData = Property.writePropertyObject(g.getPropertyObject(e));
-						//							    oos.writeObject(g.getPropertyObject(e));
+						timer.enter(PageStage.ENCODE_PROPERTIES);
 						bb.putInt(propData.length); //put property length
-						log.debug("Property data length = " + propData.length);
-						//						System.out.println("bb capacity : " + bb.capacity());
-						//						System.out.println("bb position : " + bb.position());
-						//						System.out.println("bb remaining : " + bb.remaining());
-						//						System.out.println("node of sg : " + nodeList.size() + "/" + nodeMap.size());
 						bb.put(propData); //put property
-
-						//if adjacent node is not in the buffer we may remove the property object
-						if(!g.nodeIndex.containsKey(e.getSourceId())){
-							g.edgeProps.remove(e);
-						}
+						timer.enter(PageStage.ENCODE_EDGES);
 					}
 				}
-				//delete the incoming edge list of the node
-				//                    incomingEdgeMap.get(nodeid).clear();
-				incomingEdgeMap.remove(nodeid);
 			}
 
+			AdjacencyList outEdges = outgoingEdgeMap.get(nodeid);
+
 			//check if there are outgoing edges
-			if(outgoingEdgeMap.containsKey(nodeid) && outgoingEdgeMap.get(nodeid).size() > 0){
-				//                    oos.writeInt(3); // incoming edge start descriptor
-				bb.putInt(3); // incoming edge start descriptor
+			if(outEdges != null && outEdges.size() > 0){
+				timer.enter(PageStage.ENCODE_EDGES);
+				bb.putInt(3); // outgoing edge start descriptor
 
 				//size of outgoing edges
-				//                    oos.writeLong((long) outgoingEdgeMap.get(nodeid).size());
-				bb.putLong((long) outgoingEdgeMap.get(nodeid).size());
-
-				edgecnt += outgoingEdgeMap.get(nodeid).size();
+				bb.putLong((long) outEdges.size());
 
-				for (Iterator<Edge> it2 = outgoingEdgeMap.get(nodeid).iterator(); it2.hasNext();) {
-					Edge e = it2.next();
+				for (int i = 0; i < outEdges.size(); i++) {
+					long destId = outEdges.get(i);
 
-					//                        oos.writeLong(e.getDestinationId()); //write destination id to the stream
-					bb.putLong(e.getDestinationId()); //write destination id to the stream
+					bb.putLong(destId); //write destination id to the stream
 
 					//in any case outgoing edge property would be written to the block.
-					//                        oos.writeObject(g.getPropertyObject(e));
-					if(!g.hasProperty(e)){
+					byte[] propData = writtenProperty(nodeid, destId, false);
+					if(propData == null){
 						bb.putInt(-1);
 					}
 					else{
-						byte[] propData = Property.writePropertyObject(g.getPropertyObject(e));
-						//							    oos.writeObject(g.getPropertyObject(e));
+						timer.enter(PageStage.ENCODE_PROPERTIES);
 						bb.putInt(propData.length); //put property length
 						bb.put(propData); //put property
-
-						//if adjacent node is in the same block or not in the buffer remove the property
-						if(nodeMap.containsKey(e.getDestinationId())){
-							g.edgeProps.remove(e);
-						}
-						else {
-							// if adjacent node is not in the buffer
-							if(!g.nodeIndex.containsKey(e.getDestinationId())){
-								g.edgeProps.remove(e);
-							}
-						}
+						timer.enter(PageStage.ENCODE_EDGES);
 					}
 				}
-
-				//delete the outgoing edge list of the node
-				//                    outgoingEdgeMap.get(nodeid).clear();
-				outgoingEdgeMap.remove(nodeid);
 			}
 
 			//if the node has property to be written
 			if(g.nodeHasProperty(nodeid)){
+				timer.enter(PageStage.ENCODE_PROPERTIES);
 				bb.putInt(4); // node property descriptor
 				Property nodeprop = g.getPropertyObject(nodeMap.get(nodeid));
 
 				byte[] propData = Property.writePropertyObject(nodeprop);
 				bb.putInt(propData.length); //put property length
 				bb.put(propData); //put property
+			}
+			timer.enter(PageStage.ENCODE_NODES);
 
-				//                    oos.writeObject(nodeprop);
+		}// end of node iterating for
+
+		bb.putInt(0); // end of page
+	}
+
+	/**
+	 * Page format v2. Nodes and adjacency lists are sorted by id and the ids are
+	 * written as varint deltas, edge properties are marked in a bitmap:
+	 * 
+	 * <pre>
+	 * format byte (2), varint node count
+	 * per node: varint node id delta, flags byte
+	 *   in edges  (flags 1): varint count, varint source id deltas,
+	 *                        if flags 8 a property bitmap and (varint length, property) per set bit
+	 *   out edges (flags 2): same with the destination ids and flags 16
+	 *   node property (flags 4): varint length, property
+	 * </pre>
+	 */
+	private void encodeV2(ByteBuffer bb, List<Long> nodeList, StageTimer timer) {
+		bb.put(FORMAT_V2);
+		VarInt.putVarInt(bb, recordSizes.size());
+
+		//the record order and the edge lists are kept sorted, nothing is sorted here
+		long prevNodeId = 0;
+		for (Iterator<Long> it = recordSizes.keySet().iterator(); it.hasNext();) {
+			long nodeid = it.next();
+			nodeList.add(nodeid);
 
+			timer.enter(PageStage.ENCODE_EDGES);
+			AdjacencyList inEdges = nonEmpty(incomingEdgeMap.get(nodeid));
+			AdjacencyList outEdges = nonEmpty(outgoingEdgeMap.get(nodeid));
+
+			//incident node of an incoming edge in the same subgraph writes the property itself
+			timer.enter(PageStage.ENCODE_PROPERTIES);
+			byte[][] inProps = edgeProperties(nodeid, inEdges, true);
+			byte[][] outProps = edgeProperties(nodeid, outEdges, false);
+			timer.enter(PageStage.ENCODE_NODES);
+
+			int flags = 0;
+			if(inEdges != null){
+				flags |= V2_IN_EDGES;
+				if(inProps != null){
+					flags |= V2_IN_EDGE_PROPERTIES;
+				}
+			}
+			if(outEdges != null){
+				flags |= V2_OUT_EDGES;
+				if(outProps != null){
+					flags |= V2_OUT_EDGE_PROPERTIES;
+				}
+			}
+			if(g.nodeHasProperty(nodeid)){
+				flags |= V2_NODE_PROPERTY;
 			}
 
-		}// end of node iterating for
+			VarInt.putVarLong(bb, nodeid - prevNodeId);
+			bb.put((byte) flags);
+			prevNodeId = nodeid;
 
-		start = System.currentTimeMillis() - start;
-		if(start > 60){
-			log.info("Invalidating subgraph : " + start);
-			log.info("Subgraph node num : " + nodeMap.size());
-			log.info("Edge num : " + edgecnt);
+			timer.enter(PageStage.ENCODE_EDGES);
+			if(inEdges != null){
+				putEdgesV2(bb, inEdges, inProps);
+			}
+			if(outEdges != null){
+				putEdgesV2(bb, outEdges, outProps);
+			}
+			if((flags & V2_NODE_PROPERTY) != 0){
+				timer.enter(PageStage.ENCODE_PROPERTIES);
+				byte[] propData = Property.writePropertyObject(g.getPropertyObject(nodeMap.get(nodeid)));
+				VarInt.putVarInt(bb, propData.length);
+				bb.put(propData);
+			}
 		}
+	}
 
-		//            oos.writeInt(0); // end of page
-		bb.putInt(0);
+	private static AdjacencyList nonEmpty(AdjacencyList edges){
+		return edges == null || edges.isEmpty() ? null : edges;
+	}
 
-		if(partitioned){
-			//get the byte array list from seq stream
-			//			    List<byte[]> balist = ((SequenceByteArrayOutputStream) baos).toByteArrayList();
-			List<byte[]> balist = partitionByteArray(bb.array());
+	/**
+	 * @return Serialized properties of the edges which are written, null if there are none.
+	 */
+	private byte[][] edgeProperties(long nodeid, AdjacencyList edges, boolean incoming){
+		if(edges == null){
+			return null;
+		}
 
-			//TODO: if it was partitioned and now it is not set partitioned false (shrink protocol)
+		byte[][] props = null;
+		for (int i = 0; i < edges.size(); i++) {
+			byte[] propData = writtenProperty(nodeid, edges.get(i), incoming);
+			if(propData == null){
+				continue;
+			}
 
-			//if it was not partitioned before but now it has to be partitioned (!partitioned)
-			setPartitioned(true);
+			if(props == null){
+				props = new byte[edges.size()][];
+			}
+			props[i] = propData;
+		}
+		return props;
+	}
 
-			for (Iterator<byte[]> it = balist.iterator(); it.hasNext();) {
-				byte[] bs = it.next();
+	private static void putEdgesV2(ByteBuffer bb, AdjacencyList edges, byte[][] props){
+		int count = edges.size();
+		VarInt.putVarInt(bb, count);
 
-				if(bs.length > 0){
+		long prevId = 0;
+		for (int i = 0; i < count; i++) {
+			long id = edges.get(i);
+			VarInt.putVarLong(bb, id - prevId);
+			prevId = id;
+		}
 
-					//set current block's data
-					currentPage.setData(bs);
-					currentPage.setPartitioned(true);
+		if(props == null){
+			return;
+		}
 
-					//if there are page(s) to write
-					if(it.hasNext()){
+		//bitmap of the edges having a property
+		for (int i = 0; i < count; i += 8) {
+			int bits = 0;
+			for (int j = i; j < i + 8 && j < count; j++) {
+				if(props[j] != null){
+					bits |= 1 << (j - i);
+				}
+			}
+			bb.put((byte) bits);
+		}
 
-						//if there are no more adjacent pages to write
-						//and there is more data to write, create new one
-						if(nextPageNode == null){
-							//create a new page in the adjacent page list
-							//1 doesn't create new adjpage list
-							Page newpage = PageManager.getInstance().createNewPartitionedPage(g.getId(), sgid, currentPage.getAdjacentPagesList());
+		for (int i = 0; i < count; i++) {
+			if(props[i] != null){
+				VarInt.putVarInt(bb, props[i].length);
+				bb.put(props[i]);
+			}
+		}
+	}
 
-							currentPage = newpage;
-							nextPageNode = null; //next time a new page will be created as well
-						}
-						else{
-							currentPage = nextPageNode.data;
-							nextPageNode = nextPageNode.next;
-						}
+	/**
+	 * Drops the nodes and edges of the subgraph after they are written to its page(s).
+	 * Edge properties which no other subgraph in the memory needs are dropped as well.
+	 */
+	private void release() {
+		for (Iterator<Long> it = nodeMap.keySet().iterator(); it.hasNext();) {
+			long nodeid = it.next();
+
+			//set node being written to the db as dummy for further usage
+			nodeMap.get(nodeid).setDummy(true);
+
+			AdjacencyList inEdges = incomingEdgeMap.remove(nodeid);
+			if(inEdges != null && !g.edgeProps.isEmpty()){
+				for (int i = 0; i < inEdges.size(); i++) {
+					long srcId = inEdges.get(i);
+
+					//if adjacent node is not in the buffer we may remove the property object
+					if(!nodeMap.containsKey(srcId) && !g.nodeIndex.containsKey(srcId)){
+						g.edgeProps.remove(srcId, nodeid);
 					}
 				}
 			}
-		}
-		//if subgraph is not partitioned
-		else {
-			//if not partitioned directly write on page and return
-			//                page.setData(((ByteArrayOutputStream) baos).toByteArray());
-			page.setData(bb.array());
-		}
 
-		return nodeList;
+			AdjacencyList outEdges = outgoingEdgeMap.remove(nodeid);
+			if(outEdges != null && !g.edgeProps.isEmpty()){
+				for (int i = 0; i < outEdges.size(); i++) {
+					long destId = outEdges.get(i);
+
+					//if adjacent node is in the same block or not in the buffer remove the property
+					if(nodeMap.containsKey(destId) || !g.nodeIndex.containsKey(destId)){
+						g.edgeProps.remove(nodeid, destId);
+					}
+				}
+			}
+		}
 	}
 
-	private List<byte[]> partitionByteArray(byte[] array) {
-		LinkedList<byte[]> balist = new LinkedList<byte[]>();
-		byte[] new_arr = null;
+	/**
+	 * Splits the data into block sized buffers of the page arena. The data buffer is released.
+	 */
+	private List<ByteBuffer> partitionBuffer(ByteBuffer data) {
+		LinkedList<ByteBuffer> balist = new LinkedList<ByteBuffer>();
+		PageArena arena = BufferManager.getInstance().getPageArena();
 
-		for (int i = 0; i < Math.ceil(array.length/(double)MAX_BLOCK_SIZE); i++) {
-			int arraysize = array.length - (i * MAX_BLOCK_SIZE) > MAX_BLOCK_SIZE ? MAX_BLOCK_SIZE : array.length - (i * MAX_BLOCK_SIZE);
-			new_arr = new byte[arraysize];
+		for (int offset = 0; offset < data.limit(); offset += MAX_BLOCK_SIZE) {
+			int size = Math.min(MAX_BLOCK_SIZE, data.limit() - offset);
 
-			//			System.arraycopy(array, i, current, 0, arraysize);
-			System.arraycopy(array, i * MAX_BLOCK_SIZE, new_arr, 0, arraysize);
+			ByteBuffer chunk = data.duplicate();
+			chunk.position(offset);
+			chunk.limit(offset + size);
 
-			balist.add(new_arr);
+			ByteBuffer block = arena.allocate(size);
+			block.put(chunk);
+			block.flip();
+
+			balist.add(block);
 		}
 
+		arena.release(data);
 		return balist;
 	}
 
 	public boolean removeEdge(Node src, Node dest){
 		int bytesize = 0;
+		boolean removed = false;
+
+		decodeNode(src.getId());
+		decodeNode(dest.getId());
 
 		//first remove the property of the edge
 		g.removePropertyObject(new Edge(src,dest));
 
 		//if src and/or dest is in this subgraph
-		if(nodeMap.containsKey(src.getId())){
-			if(outgoingEdgeMap.containsKey(src.getId())){
-				for (Iterator<Edge> it = outgoingEdgeMap.get(src.getId()).iterator(); it.hasNext();) {
-					Edge e = it.next();
-					if(e.getDestinationId() == dest.getId()){
-						it.remove();
-						bytesize += edgeCost;
-					}
-				}
-				if(outgoingEdgeMap.get(src.getId()).isEmpty()){
-					bytesize += edgeInitCost;
-				}
-			}
+		if(nodeMap.containsKey(src.getId()) && removeEdges(outgoingEdgeMap, src.getId(), dest.getId())){
+			bytesize += resizeNode(src.getId());
+			removed = true;
 		}
 
-		if(nodeMap.containsKey(dest.getId())){
-			if(incomingEdgeMap.containsKey(dest.getId())){
-				for (Iterator<Edge> it = incomingEdgeMap.get(dest.getId()).iterator(); it.hasNext();) {
-					Edge e = it.next();
-					if(e.getSourceId() == src.getId()){
-						it.remove();
-						bytesize += edgeCost;
-					}
-				}
-				if(incomingEdgeMap.get(dest.getId()).isEmpty()){
-					bytesize += edgeInitCost;
-				}
-			}
+		if(nodeMap.containsKey(dest.getId()) && removeEdges(incomingEdgeMap, dest.getId(), src.getId())){
+			bytesize += resizeNode(dest.getId());
+			removed = true;
 		}
 
-		decByteCount(bytesize);
-		return (bytesize != 0);
+		changeByteCount(bytesize);
+		return removed;
 	}
 
-	public int removeProperty(Edge edge){
-		int bytesize = 0;
+	/**
+	 * Removes the edges to an incident node from the node's list, an emptied list is dropped.
+	 * 
+	 * @return true if an edge was removed.
+	 */
+	private static boolean removeEdges(HashMap<Long, AdjacencyList> edgeMap, long nodeid, long incidentId){
+		AdjacencyList edges = edgeMap.get(nodeid);
+		if(edges == null){
+			return false;
+		}
 
-		if(g.hasProperty(edge)){
-			bytesize += g.getPropertyObject(edge).getObjectSize();
-			decByteCount(bytesize);
+		boolean removed = edges.remove(incidentId);
+
+		if(edges.isEmpty()){
+			edgeMap.remove(nodeid);
 		}
+		return removed;
+	}
+
+	/**
+	 * Updates the byte count after the property of the edge is removed from the graph.
+	 * 
+	 * @return Bytes the subgraph shrank by.
+	 */
+	public int removeProperty(Edge edge){
+		int bytesize = -(resizeNode(edge.getSourceId()) + resizeNode(edge.getDestinationId()));
+		decByteCount(bytesize);
 
 		return bytesize;
 	}
 
+	/**
+	 * Updates the byte count after the property of the node is removed from the graph.
+	 * 
+	 * @return Bytes the subgraph shrank by.
+	 */
 	public int removeProperty(Node node){
-		int bytesize = 0;
-
-		if(g.hasProperty(node)){
-			bytesize += g.getPropertyObject(node).getObjectSize();
-			decByteCount(bytesize);
-		}
+		int bytesize = -resizeNode(node.getId());
+		decByteCount(bytesize);
 
 		return bytesize;
 	}
@@ -569,11 +1126,11 @@ public class SubGraph{
 		int bytesize = 0;
 		LinkedList<Edge> removeEdgeList = new LinkedList<Edge>();
 
-		bytesize += nodeCost;
+		decodeNode(node.getId());
 
 		if(incomingEdgeMap.containsKey(node.getId())){
 			//if incident nodes of incoming edges are in the same subgraph then remove the edge from edgeMap
-			for (Iterator<Edge> it = incomingEdgeMap.get(node.getId()).iterator(); it.hasNext();) {
+			for (Iterator<Edge> it = edgeIterator(node.getId(), incomingEdgeMap.get(node.getId()), true); it.hasNext();) {
 				Edge e = it.next();
 				removeEdgeList.add(e);
 			}
@@ -581,7 +1138,7 @@ public class SubGraph{
 
 		if(outgoingEdgeMap.containsKey(node.getId())){
 			//if incident nodes of outgoing edges are in the same subgraph then remove the edge form edgeMap
-			for (Iterator<Edge> it = outgoingEdgeMap.get(node.getId()).iterator(); it.hasNext();) {
+			for (Iterator<Edge> it = edgeIterator(node.getId(), outgoingEdgeMap.get(node.getId()), false); it.hasNext();) {
 				Edge e = it.next();
 				removeEdgeList.add(e);
 			}
@@ -600,13 +1157,13 @@ public class SubGraph{
 
 		//erase node from nodeMap
 		nodeMap.remove(node.getId());
+		bytesize += removeRecord(node.getId());
 
 		decByteCount(bytesize);
 	}
 
 	public void decByteCount(int x){
-		if(!isDirty())
-			setDirty(true);
+		markModified();
 
 		//issue access to the page in the buffer
 		BufferManager.getInstance().issueAccessToBuffer(pageid);
@@ -616,8 +1173,7 @@ public class SubGraph{
 	}
 
 	public void incByteCount(int x){
-		if(!isDirty())
-			setDirty(true);
+		markModified();
 
 		final int MAX_BLOCK_SIZE = GraphManager.getInstance().getBufferConfiguration().getMaxBlockSize();
 
@@ -653,7 +1209,10 @@ public class SubGraph{
 
 					//split subgraph
 					//					List<SubGraph> splittedSubgraphs = GraphManager.getInstance().getSubgraphSplitPolicy().split(g, this);
-					GraphManager.getInstance().getSubgraphSplitPolicy().split(g, this);
+					List<SubGraph> splittedSubgraphs = GraphManager.getInstance().getSubgraphSplitPolicy().split(g, this);
+					if(splittedSubgraphs != null){
+						BufferManager.getInstance().getMetrics().recordSplit(splittedSubgraphs.size());
+					}
 
 					//					start = System.currentTimeMillis() - start;
 					//				    log.trace(">>>>>>>Subgraph split finished: " + splittedSubgraphs);
@@ -671,13 +1230,49 @@ public class SubGraph{
 			}
 		}
 		//TODO: for partitioned subgraphs do not allow node addition to the graph
+
+		//split and partitioning changed the subgraph after the first mark
+		markModified();
+	}
+
+	/**
+	 * Marks the subgraph dirty. It has to be called after the subgraph is changed, so a
+	 * concurrent flush which encoded the subgraph before the change doesn't mark it clean.
+	 */
+	public synchronized void markModified(){
+		//a dirty subgraph is encoded from the memory, and the page data may be replaced
+		decodeAllNodes();
+
+		modCount++;
+
+		if(!isDirty())
+			setDirty(true);
+	}
+
+	public int getModCount(){
+		return modCount;
+	}
+
+	/**
+	 * Marks the subgraph clean if it wasn't changed since its modification count was read.
+	 * 
+	 * @param expectedModCount Modification count read before the subgraph was encoded.
+	 * @return false if the subgraph was changed meanwhile, it stays dirty then.
+	 */
+	public synchronized boolean markClean(int expectedModCount){
+		if(modCount != expectedModCount){
+			return false;
+		}
+
+		setDirty(false);
+		return true;
 	}
 
 	public boolean isDirty(){
 		return dirty;
 	}
 
-	public void setDirty(boolean status){
+	public synchronized void setDirty(boolean status){
 		dirty = status;
 		PageManager.getInstance().getPage(pageid).setDirty(status);
 	}
@@ -689,86 +1284,119 @@ public class SubGraph{
 	public void setPartitioned(boolean status){
 		partitioned = status;
 	}
-	//from db
+	//from db, the byte count is measured when the read is done, see resize
 	public Node addNodeFromDb(Node node){
 		nodeMap.put(node.getId(), node);
-		bytecount += nodeCost;
+		addRecord(node.getId(), 1);
 
 		return node;
 	}
 
-	public void addOutgoingEdgeFromDb(Edge edge){
-		long srcId = edge.getSourceId();
-		int edgesize = 0;
-
-		if(!g.edgeSet.contains(edge)){
-			g.edgeSet.add(edge);
-		}
-
-		// if the node is in outgoingEdgeMap
-		if(outgoingEdgeMap.containsKey(srcId) && !outgoingEdgeMap.get(srcId).isEmpty()){
+	public void addOutgoingEdgeFromDb(long srcId, long destId){
+		insertEdge(outgoingEdgeMap, srcId, destId);
+	}
 
-			// directly add to the list
-			outgoingEdgeMap.get(srcId).add(edge);
+	public void addIncomingEdgeFromDb(long srcId, long destId){
+		insertEdge(incomingEdgeMap, destId, srcId);
+	}
 
-			edgesize += edgeCost;
+	/**
+	 * Adds an adjacency list of a node read from a page, the array is kept as it is.
+	 * 
+	 * @param ids Sorted ids of the incident nodes.
+	 * @param incoming Whether the ids are the sources of the node's edges.
+	 */
+	void addEdgesFromDb(long nodeid, long[] ids, boolean incoming){
+		HashMap<Long, AdjacencyList> edgeMap = incoming ? incomingEdgeMap : outgoingEdgeMap;
+
+		AdjacencyList edges = edgeMap.get(nodeid);
+		if(edges == null){
+			edgeMap.put(nodeid, new AdjacencyList(ids));
+			return;
 		}
-		else {
 
-			// create a new edge list for the node
-			List<Edge> newEdgeList = new LinkedList<Edge>();
-			newEdgeList.add(edge);
+		for (int i = 0; i < ids.length; i++) {
+			edges.add(ids[i]);
+		}
+	}
 
-			// and add it to the outgoingEdgeMap
-			outgoingEdgeMap.put(srcId,newEdgeList);
+	/**
+	 * Sets the page data the deferred nodes of a lazy read are decoded from. The page
+	 * data stays as it is while the subgraph is clean, and the subgraph is fully
+	 * decoded before it is changed.
+	 */
+	void setPendingData(List<ByteBuffer> pendingData){
+		this.pendingData = pendingData;
+	}
 
-			//if it is the first edge of the node
-			//add the initialization cost
-			edgesize += edgeInitCost;
-			edgesize += edgeCost;
+	/**
+	 * Defers decoding of a node which is already added to the subgraph.
+	 * 
+	 * @param offset Position of the node's encoding in the page data.
+	 * @param size Bytes of the node's record in the page data, it stands for the node until it is decoded.
+	 */
+	void addPendingNode(long nodeid, int offset, int size){
+		if(pendingNodes == null){
+			pendingNodes = new HashMap<Long, Integer>();
 		}
+		pendingNodes.put(nodeid, offset);
+		addRecord(nodeid, size);
+	}
 
-		bytecount += edgesize;
+	/**
+	 * @return true if the node was read lazily and its edges and properties aren't decoded yet.
+	 */
+	public boolean isPending(long nodeid){
+		return pendingNodes != null && pendingNodes.containsKey(nodeid);
 	}
 
-	public void addIncomingEdgeFromDb(Edge edge){
-		long destId = edge.getDestinationId();
-		int edgesize = 0;
+	public int getPendingNodeCount(){
+		return pendingNodes == null ? 0 : pendingNodes.size();
+	}
 
-		if(!g.edgeSet.contains(edge)){
-			g.edgeSet.add(edge);
+	/**
+	 * Decodes the edges and properties of a lazily read node, if they aren't decoded yet.
+	 */
+	public void decodeNode(long nodeid){
+		if(pendingNodes == null){
+			return;
 		}
 
-		// if the node is already in incomingEdgeMap
-		if(incomingEdgeMap.containsKey(destId) && !incomingEdgeMap.get(destId).isEmpty()){
+		g.lock.lock();
+		try {
+			if(pendingNodes == null){
+				return;
+			}
 
-			// directly add to the list of edges
-			incomingEdgeMap.get(destId).add(edge);
+			Integer offset = pendingNodes.remove(nodeid);
+			if(offset == null){
+				return;
+			}
 
-			edgesize += edgeCost;
-		}
-		else {
-			// create a new edge list for the node
-			List<Edge> newEdgeList = new LinkedList<Edge>();
-			newEdgeList.add(edge);
+			PageManager.getInstance().readPendingNode(this, nodeid, offset, pendingData);
 
-			// and add it to the incomingEdgeMap
-			incomingEdgeMap.put(destId, newEdgeList);
+			//the record is measured as it is decoded, a property of an older encoding may differ in size
+			bytecount += resizeNode(nodeid);
 
-			//if it is the first edge of the node
-			//add the initialization cost
-			edgesize += edgeInitCost;
-			edgesize += edgeCost;
+			if(pendingNodes.isEmpty()){
+				pendingNodes = null;
+				pendingData = null;
+			}
+		} finally {
+			g.lock.unlock();
 		}
-
-		bytecount += edgesize;
 	}
 
-	public void addPropertyCost(int propertyCost){
-		bytecount += propertyCost;
+	public void decodeAllNodes(){
+		while(pendingNodes != null){
+			decodeNode(pendingNodes.keySet().iterator().next());
+		}
 	}
 
 	public void remove() {
+		pendingNodes = null;
+		pendingData = null;
+
 		g.remove(this);
 	}
 
@@ -777,17 +1405,26 @@ public class SubGraph{
 	}
 
 	public Edge findEdge(long src, long dest) {
+		decodeNode(src);
+
 		//if node already contains that edge dont add it
-		if(outgoingEdgeMap.containsKey(src)){
-			for(Iterator<Edge> it = outgoingEdgeMap.get(src).iterator(); it.hasNext();){
-				Edge e = it.next();
-				if(e.getDestinationId() == dest){
-					return e;
-				}
-				//				if(e.getDestination().getId() == dest){
-				//					return e;
-				//				}
-			}
+		AdjacencyList edges = outgoingEdgeMap.get(src);
+		if(edges != null && edges.contains(dest)){
+			return new Edge(g, src, dest);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Looks the edge up in the incoming edges of dest, dest should be a node of this subgraph.
+	 */
+	public Edge findIncomingEdge(long src, long dest) {
+		decodeNode(dest);
+
+		AdjacencyList edges = incomingEdgeMap.get(dest);
+		if(edges != null && edges.contains(src)){
+			return new Edge(g, src, dest);
 		}
 
 		return null;
@@ -813,7 +1450,7 @@ public class SubGraph{
 
 	@Override
 	public String toString() {
-		String res = new String("Subgraph" + sgid + "(Page" + pageid + ")(" + (partitioned == true ? "P" : "NP") + "Size" + bytecount + ")" + ":" +nodeMap.keySet());
+		String res = new String("Subgraph" + sgid + "(Page" + pageid + ")(" + (partitioned == true ? "P" : "NP") + "Size" + getTotalSize() + ")" + ":" +nodeMap.keySet());
 		return res;
 	}
 }
@@ -1,10 +1,9 @@
 package graphdb.graph;
 
+import graphdb.util.LongIntMap;
 import graphdb.util.Property;
 
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
 import java.util.NoSuchElementException;
 
 import org.apache.log4j.Logger;
@@ -18,18 +17,15 @@ public class SuperGraph extends Graph {
 
 	public SubGraph getSubgraphOfNode(Node node) {
 		node.ifDummy();// if node is dummy bring load it's subgraph from db
-		if(nodeIndex.containsKey(node.getId())){
-			return subgraphMap.get(nodeIndex.get(node.getId()));
-		}
-
-		return null;
+		return getSubgraphOfNode(node.getId());
 
 	}
 
 	//called by db functions so no need to bring node from db
 	public SubGraph getSubgraphOfNode(long nodeid){
-		if(nodeIndex.containsKey(nodeid)){
-			return subgraphMap.get(nodeIndex.get(nodeid));
+		int sgid = nodeIndex.get(nodeid);
+		if(sgid != LongIntMap.NO_VALUE){
+			return subgraphMap.get(sgid);
 		}
 
 		return null;
@@ -58,18 +54,23 @@ public class SuperGraph extends Graph {
 	}
 
 	public Node addNode(long nodeId, int sgid){
-		SubGraph sg = getSubgraph(sgid);
-		if(sg == null)
-			throw new NoSuchElementException("Subgraph could not be found: " + sgid);
-
-		//if node doesn't exist in the subgraph
-		//		if(sg.getNode(nodeId) == null){
-		if(!sg.nodeMap.containsKey(nodeId)){
-			nodeIndex.put(nodeId, sgid);
-			return sg.addNode(new Node(this,nodeId));
-		}
-		else {
-			return sg.getNode(nodeId);
+		lock.lock();
+		try {
+			SubGraph sg = getSubgraph(sgid);
+			if(sg == null)
+				throw new NoSuchElementException("Subgraph could not be found: " + sgid);
+
+			//if node doesn't exist in the subgraph
+			//		if(sg.getNode(nodeId) == null){
+			if(!sg.nodeMap.containsKey(nodeId)){
+				nodeIndex.put(nodeId, sgid);
+				return sg.addNode(new Node(this,nodeId));
+			}
+			else {
+				return sg.getNode(nodeId);
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -82,111 +83,105 @@ public class SuperGraph extends Graph {
 	}
 
 	public Node addNode(long nodeId){
-		SubGraph sg = GraphManager.getInstance().getSubgraphSelectPolicy().select(null, this);
-
-		//if node doesn't exist in the subgraph
-		if(sg.getNode(nodeId) == null){
-			nodeIndex.put(nodeId, sg.getId());
-			return sg.addNode(new Node(this,nodeId));
-		}
-		else {
-			return sg.getNode(nodeId);
+		lock.lock();
+		try {
+			SubGraph sg = GraphManager.getInstance().getSubgraphSelectPolicy().select(null, this);
+
+			//if node doesn't exist in the subgraph
+			if(sg.getNode(nodeId) == null){
+				nodeIndex.put(nodeId, sg.getId());
+				return sg.addNode(new Node(this,nodeId));
+			}
+			else {
+				return sg.getNode(nodeId);
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	public Edge batchAddEdge(long srcid, long destid){
-		//bring both nodes from database
-		Node src = getNode(srcid);
-		Node dest = getNode(destid);
+		lock.lock();
+		try {
+			//bring both nodes from database
+			Node src = getNode(srcid);
+			Node dest = getNode(destid);
 
-		//add edge to the source subgraph
-		Edge newEdge = new Edge(src, dest);
+			//add edge to the source subgraph
+			Edge newEdge = new Edge(src, dest);
 
-		src.ifDummy();
-		SubGraph srcsg =  subgraphMap.get(nodeIndex.get(src.getId()));
-		srcsg.addOutgoingEdge(newEdge);
+			src.ifDummy();
+			SubGraph srcsg =  subgraphMap.get(nodeIndex.get(src.getId()));
+			srcsg.addOutgoingEdge(newEdge);
 
-		//if dest somehow is written to db then bring it back
-		dest.ifDummy();
+			//if dest somehow is written to db then bring it back
+			dest.ifDummy();
 
-		SubGraph destsg = subgraphMap.get(nodeIndex.get(dest.getId()));
-		destsg.addIncomingEdge(newEdge);
+			SubGraph destsg = subgraphMap.get(nodeIndex.get(dest.getId()));
+			destsg.addIncomingEdge(newEdge);
 
-		return newEdge;
+			return newEdge;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	public void newAddEdge(long srcid, long destid, int sgid) {
-		//		SubGraph srcsg,destsg;
-		Node src = null;
-		Node dest = null;
-
-		//if the nodes are not yet read from database
-		if(!nodeIndex.containsKey(srcid)){
-			src = addNode(srcid, sgid);
-		}
-		else {
-			src = getNode(srcid);
-		}
-
-		if(!nodeIndex.containsKey(destid)){
-			dest = addNode(destid, sgid);
-		}
-		else {
-			dest = getNode(destid);
-		}
+		lock.lock();
+		try {
+			//		SubGraph srcsg,destsg;
+			Node src = null;
+			Node dest = null;
+
+			//if the nodes are not yet read from database
+			if(!nodeIndex.containsKey(srcid)){
+				src = addNode(srcid, sgid);
+			}
+			else {
+				src = getNode(srcid);
+			}
 
-		Edge e = null;
-		for(Edge d : src.getEdges(EdgeDirection.OUT)){
-			if(d.getDestinationId() == destid){
-				e = d;
-				break;
+			if(!nodeIndex.containsKey(destid)){
+				dest = addNode(destid, sgid);
+			}
+			else {
+				dest = getNode(destid);
 			}
-		}
 
-		if(e == null){ // couldn't find in the out edges of src
-			// Graph.addEdge handles everything (new edge)
-			e = addEdge(src, dest);
+			// Graph.addEdge handles everything, it looks the edge up in the out edges of src first
+			addEdge(src, dest);
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	public void addEdge(long srcid, long destid, int sgid) {
-		Node src = null;
-		Node dest = null;
-
-		//if the nodes are not yet read from database
-		if(!nodeIndex.containsKey(srcid)){
-			src = addNode(srcid, sgid);
-		}
-		else {
-			src = getNode(srcid);
-		}
-
-		if(!nodeIndex.containsKey(destid)){
-			dest = addNode(destid, sgid);
-		}
-		else {
-			dest = getNode(destid);
-		}
-
-		Edge e = null;
-		for(Edge d : src.getEdges(EdgeDirection.OUT)){
-			if(d.getDestination().getId() == destid){
-				e = d;
-				break;
+		lock.lock();
+		try {
+			Node src = null;
+			Node dest = null;
+
+			//if the nodes are not yet read from database
+			if(!nodeIndex.containsKey(srcid)){
+				src = addNode(srcid, sgid);
+			}
+			else {
+				src = getNode(srcid);
 			}
-		}
 
-		if(e == null){ // couldn't find in the out edges of src
-			for(Edge s : dest.getEdges(EdgeDirection.IN)){
-				if(s.getSource().getId() == srcid){
-					e = s;
-					break;
-				}
+			if(!nodeIndex.containsKey(destid)){
+				dest = addNode(destid, sgid);
+			}
+			else {
+				dest = getNode(destid);
 			}
-			if(e == null){ // couldn't find in the in edges of dest
-				// Graph.addEdge handles everything (new edge)
-				e = addEdge(src, dest);
+
+			if(getSubgraphOfNode(destid).findIncomingEdge(srcid, destid) == null){ // couldn't find in the in edges of dest
+				// Graph.addEdge handles everything, it looks the edge up in the out edges of src first
+				addEdge(src, dest);
 			}
+		} finally {
+			lock.unlock();
 		}
 	}
 	public Node addNodeFromDb(long nodeId, int sgid){
@@ -205,56 +200,16 @@ public class SuperGraph extends Graph {
 		}
 	}
 
-	public Edge addOutgoingEdgeFromDb(long srcid, long destid, int sgid) {
-		Node src = null;
-		Node dest = null;
-
-		/*get the source node (which is already added)
-		and don't bring destination if it is not already in the buffer
-		add a dummy one */
-
-		src = getNode(srcid);
-
-		if(!nodeIndex.containsKey(destid)){
-			dest = addDummyNode(destid);
-		}
-		//		else {
-		//			dest = getNode(destid);
-		//		}
-		//3 lines above is commented for the 2 lines below
-		dest = new Node(this,destid);
-		dest.setDummy(true);
-
-		Edge newEdge = new Edge(src, dest);
-		subgraphMap.get(sgid).addOutgoingEdgeFromDb(newEdge);
-
-		return newEdge;
+	/*
+	 * The source node is already added, the destination isn't brought from the
+	 * database. Only the ids are stored, the edge object is created when it is asked for.
+	 */
+	public void addOutgoingEdgeFromDb(long srcid, long destid, int sgid) {
+		subgraphMap.get(sgid).addOutgoingEdgeFromDb(srcid, destid);
 	}
 
-	public Edge addIncomingEdgeFromDb(long srcid, long destid, int sgid) {
-		Node src = null;
-		Node dest = null;
-
-		/* get the dest node (which is already added)
-		and don't bring source if it is not already in the buffer
-		add a dummy one */
-
-		dest = getNode(destid);
-
-		if(!nodeIndex.containsKey(srcid)){
-			src = addDummyNode(srcid);
-		}
-		//		else {
-		//			src = getNode(srcid);
-		//		}
-		//3 lines above is commented for the 2 lines below
-		src = new Node(this,srcid);
-		src.setDummy(true);
-
-		Edge newEdge = new Edge(src, dest);
-		subgraphMap.get(sgid).addIncomingEdgeFromDb(newEdge);
-
-		return newEdge;
+	public void addIncomingEdgeFromDb(long srcid, long destid, int sgid) {
+		subgraphMap.get(sgid).addIncomingEdgeFromDb(srcid, destid);
 	}
 
 	public SubGraph createSubgraph(long pageid){
@@ -271,43 +226,60 @@ public class SuperGraph extends Graph {
 	}
 
 	public void moveNode(Node node,SubGraph oldsg, SubGraph newsg){
-		long nodeid = node.getId();
+		lock.lock();
+		try {
+			long nodeid = node.getId();
 
-		if(node != null && oldsg != null && newsg != null){
+			if(node != null && oldsg != null && newsg != null){
+				//the sizes are measured on decoded nodes
+				oldsg.decodeAllNodes();
 
-			List<Edge> outEdgeList = oldsg.outgoingEdgeMap.get(nodeid);
-			List<Edge> inEdgeList = oldsg.incomingEdgeMap.get(nodeid);
+				AdjacencyList outEdgeList = oldsg.outgoingEdgeMap.get(nodeid);
+				AdjacencyList inEdgeList = oldsg.incomingEdgeMap.get(nodeid);
 
-			//add to new subgraph
-			newsg.nodeMap.put(nodeid, node);
+				//add to new subgraph
+				newsg.nodeMap.put(nodeid, node);
 
-			//update byte count of old subgraph
-			oldsg.decByteCount(oldsg.getSize(node));
+				//update byte count of old subgraph
+				oldsg.decByteCount(oldsg.removeRecord(nodeid));
 
-			//change node -> subgraph index map
-			nodeIndex.put(nodeid, newsg.getId());
+				//change node -> subgraph index map
+				nodeIndex.put(nodeid, newsg.getId());
 
-			if(inEdgeList != null){
-				newsg.incomingEdgeMap.put(nodeid, inEdgeList);
-				oldsg.incomingEdgeMap.remove(nodeid);
-			}
+				if(inEdgeList != null){
+					newsg.incomingEdgeMap.put(nodeid, inEdgeList);
+					oldsg.incomingEdgeMap.remove(nodeid);
+				}
 
-			if(outEdgeList != null){
-				newsg.outgoingEdgeMap.put(nodeid, outEdgeList);
-				oldsg.outgoingEdgeMap.remove(nodeid);
-			}
+				if(outEdgeList != null){
+					newsg.outgoingEdgeMap.put(nodeid, outEdgeList);
+					oldsg.outgoingEdgeMap.remove(nodeid);
+				}
 
-			//update byte count of old subgraph
-			newsg.incByteCount(newsg.getSize(node));
+				//update byte count of new subgraph
+				newsg.incByteCount(newsg.addRecord(nodeid, newsg.getSize(node)));
+
+				//properties of the edges to the node's neighbors are written by the neighbor if the node has left its subgraph
+				if(outEdgeList != null && !edgeProps.isEmpty()){
+					for (int i = 0; i < outEdgeList.size(); i++) {
+						long destId = outEdgeList.get(i);
+						if(edgeProps.contains(nodeid, destId)){
+							oldsg.resizeNodeInSplit(destId);
+							newsg.resizeNodeInSplit(destId);
+						}
+					}
+				}
 
-			//if the moved node is big enough to hold whole subgraph then don't add any more nodes to it
-			if(newsg.getTotalSize() >= GraphManager.getInstance().getBufferConfiguration().getMaxBlockSize() ){
-				newsg.setPartitioned(true);
-			}
+				//if the moved node is big enough to hold whole subgraph then don't add any more nodes to it
+				if(newsg.getTotalSize() >= GraphManager.getInstance().getBufferConfiguration().getMaxBlockSize() ){
+					newsg.setPartitioned(true);
+				}
 
-			//            log.trace("Node" + node.getId() + " moved from " + oldsg + " to " + newsg);
+				//            log.trace("Node" + node.getId() + " moved from " + oldsg + " to " + newsg);
+			}
+		} finally {
+			lock.unlock();
 		}
-
 	}
 
 	public void setNodeIdCounter(long cnt){
@@ -318,58 +290,90 @@ public class SuperGraph extends Graph {
 		this.nodeCounter = cnt;
 	}
 
-	public HashSet<Edge> getEdgeSet() {
-		return edgeSet;
-	}
-
-	/* Property Handling */
+	/* Property Handling, the setters are used by the page reads which measure the subgraph themselves */
 	public void setPropertyObject(Node n, Property p){
 		nodeProps.put(n.getId(), p);
-		getSubgraphOfNode(n.getId()).addPropertyCost(p.getObjectSize());
 	}
 
 	public void setPropertyObject(Edge e, Property p, long nid){
-		if(!edgeProps.containsKey(e)){
-			edgeProps.put(e, p);
-		}
+		edgeProps.put(e.getSourceId(), e.getDestinationId(), p);
+	}
 
-		if(nodeIndex.containsKey(nid)){
-			getSubgraphOfNode(nid).addPropertyCost(p.getObjectSize());
+	/**
+	 * Decodes the node if it is in the memory but was read lazily, see SubGraph.decodeNode.
+	 */
+	public void decodeNode(long nodeid){
+		SubGraph sg = getSubgraphOfNode(nodeid);
+		if(sg != null){
+			sg.decodeNode(nodeid);
 		}
 	}
 
+	/**
+	 * The property of an edge is read with the source node, or with the destination
+	 * node if the source is in another subgraph.
+	 */
+	public void decodeNodes(Edge edge){
+		decodeNode(edge.getSourceId());
+		decodeNode(edge.getDestinationId());
+	}
+
 	public boolean nodeHasProperty(long nodeid){
 		return nodeProps.containsKey(nodeid);
 	}
 
 	public boolean edgeHasProperty(Node src, Node dest){
-		return edgeProps.containsKey(new Edge(src, dest));
+		return edgeProps.contains(src.getId(), dest.getId());
 	}
 
 	public Property getPropertyObject(Node node){
 		return nodeProps.get(node.getId());
 	}
 
-	public Property getPropertyObject(Edge edge){
-		return edgeProps.get(edge);
+	/**
+	 * @return A copy of the edge's properties, changing it doesn't change the edge. The
+	 * properties are changed through Graph.setProperty.
+	 */
+	public Property copyPropertyObject(Edge edge){
+		return edgeProps.getProperty(edge.getSourceId(), edge.getDestinationId());
 	}
 
 	public void removePropertyObject(Edge e) {
-		getSubgraphOfNode(e.getSource()).removeProperty(e);
+		lock.lock();
+		try {
+			if(!edgeProps.remove(e.getSourceId(), e.getDestinationId())){
+				return;
+			}
 
-		if(e.isCross()){
-			getSubgraphOfNode(e.getDestination()).removeProperty(e);
-		}
+			//the records are measured without the property
+			SubGraph srcsg = getSubgraphOfNode(e.getSourceId());
+			SubGraph destsg = getSubgraphOfNode(e.getDestinationId());
 
-		edgeProps.remove(e);
+			if(srcsg != null){
+				srcsg.removeProperty(e);
+			}
+			if(destsg != null && destsg != srcsg){
+				destsg.removeProperty(e);
+			}
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	public void removePropertyObject(Node n) {
-		getSubgraphOfNode(n).removeProperty(n);
-		nodeProps.remove(n);
+		lock.lock();
+		try {
+			if(nodeProps.remove(n.getId()) == null){
+				return;
+			}
+
+			getSubgraphOfNode(n).removeProperty(n);
+		} finally {
+			lock.unlock();
+		}
 	}
 
-	public HashMap<Edge, Property> getEdgeProps() {
+	public EdgePropertyStore getEdgeProps() {
 		return edgeProps;
 	}
 
@@ -386,13 +390,23 @@ public class SuperGraph extends Graph {
 	}
 
 	public void remove(SubGraph sg) {
-		subgraphMap.remove(sg.getId());
+		lock.lock();
+		try {
+			subgraphMap.remove(sg.getId());
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	public void swapDummyNode(Node node) {
-		SubGraph sg = getSubgraphOfNode(node.getId());
-		if(sg != null){
-			sg.swapDummyNode(node);
+		lock.lock();
+		try {
+			SubGraph sg = getSubgraphOfNode(node.getId());
+			if(sg != null){
+				sg.swapDummyNode(node);
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -0,0 +1,160 @@
+package graphdb.policy;
+
+import graphdb.graph.EvictionPolicy;
+import graphdb.graph.Page;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * Adaptive Replacement Cache (Megiddo and Modha). T1 holds groups accessed once
+ * recently, T2 the ones accessed at least twice. B1 and B2 remember the ids of the
+ * groups evicted from T1 and T2. A fault on a remembered id moves the target size
+ * of T1 towards the list which would have kept the group, so the policy adapts
+ * between recency and frequency and scans only churn T1. Like A1in in 2Q, the
+ * accesses to a group while it is among the last quarter of the admissions are
+ * regarded as correlated and do not promote it to T2.
+ */
+public class PageARCEvict implements EvictionPolicy {
+	private LinkedHashMap<Long, Page> t1; // head is the LRU
+	private LinkedHashMap<Long, Page> t2;
+	private LinkedHashMap<Long, Boolean> b1;
+	private LinkedHashMap<Long, Boolean> b2;
+	private HashMap<Long, Long> admittedAt; // admission number of the groups in t1 not yet re-referenced
+
+	private int capacity;
+	private int p; // target size of t1
+	private long admissions;
+	private int window; // admissions after which an access is no longer correlated
+
+	public PageARCEvict(){
+		t1 = new LinkedHashMap<Long, Page>();
+		t2 = new LinkedHashMap<Long, Page>();
+		b1 = new LinkedHashMap<Long, Boolean>();
+		b2 = new LinkedHashMap<Long, Boolean>();
+		admittedAt = new HashMap<Long, Long>();
+	}
+
+	@Override
+	public synchronized void initialize(int capacity) {
+		t1.clear();
+		t2.clear();
+		b1.clear();
+		b2.clear();
+		admittedAt.clear();
+
+		this.capacity = Math.max(1, capacity);
+		this.p = 0;
+		this.admissions = 0;
+		this.window = Math.max(1, this.capacity / 4);
+	}
+
+	@Override
+	public synchronized void admit(Page leader) {
+		long id = leader.getId();
+
+		if(t1.containsKey(id) || t2.containsKey(id)){
+			return;
+		}
+
+		if(b1.containsKey(id)){
+			//recency list was too small
+			p = Math.min(capacity, p + Math.max(b2.size() / b1.size(), 1));
+			b1.remove(id);
+			t2.put(id, leader);
+		}
+		else if(b2.containsKey(id)){
+			//frequency list was too small
+			p = Math.max(0, p - Math.max(b1.size() / b2.size(), 1));
+			b2.remove(id);
+			t2.put(id, leader);
+		}
+		else {
+			t1.put(id, leader);
+			admittedAt.put(id, admissions);
+		}
+
+		admissions++;
+		trimGhosts();
+	}
+
+	@Override
+	public synchronized void access(Page leader) {
+		long id = leader.getId();
+
+		Long admitted = admittedAt.get(id);
+		if(admitted != null){
+			if(admissions - admitted <= window){
+				//correlated with the fault which brought the group in
+				return;
+			}
+			admittedAt.remove(id);
+		}
+
+		if(t1.remove(id) != null || t2.remove(id) != null){
+			t2.put(id, leader);
+		}
+	}
+
+	@Override
+	public synchronized void remove(Page leader) {
+		long id = leader.getId();
+		admittedAt.remove(id);
+
+		if(t1.remove(id) != null){
+			b1.put(id, Boolean.TRUE);
+		}
+		else if(t2.remove(id) != null){
+			b2.put(id, Boolean.TRUE);
+		}
+
+		trimGhosts();
+	}
+
+	@Override
+	public synchronized Page selectVictim(Set<Page> excluded) {
+		Page victim = null;
+
+		if(t1.size() > p || t2.isEmpty()){
+			victim = firstCandidate(t1, excluded);
+		}
+
+		if(victim == null){
+			victim = firstCandidate(t2, excluded);
+		}
+
+		if(victim == null){
+			victim = firstCandidate(t1, excluded);
+		}
+
+		return victim;
+	}
+
+	private static Page firstCandidate(LinkedHashMap<Long, Page> list, Set<Page> excluded){
+		for (Iterator<Page> it = list.values().iterator(); it.hasNext();) {
+			Page leader = it.next();
+			if(!excluded.contains(leader)){
+				return leader;
+			}
+		}
+		return null;
+	}
+
+	private void trimGhosts(){
+		while(t1.size() + b1.size() > capacity && !b1.isEmpty()){
+			removeEldest(b1);
+		}
+
+		while(t1.size() + t2.size() + b1.size() + b2.size() > 2 * capacity && !b2.isEmpty()){
+			removeEldest(b2);
+		}
+	}
+
+	private void removeEldest(LinkedHashMap<Long, Boolean> ghosts){
+		Iterator<Long> it = ghosts.keySet().iterator();
+		it.next();
+		it.remove();
+	}
+}
@@ -0,0 +1,122 @@
+package graphdb.policy;
+
+import graphdb.graph.EvictionPolicy;
+import graphdb.graph.Page;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CLOCK (second chance) replacement. Page groups sit on a circular list and an
+ * access only sets the reference bit of the group. Newly admitted groups start
+ * without the reference bit and, like A1in in 2Q, the accesses to a group while it
+ * is among the last quarter of the admissions are regarded as correlated and do
+ * not set it. Groups touched only by a scan are therefore the first ones the hand
+ * takes.
+ */
+public class PageClockEvict implements EvictionPolicy {
+	private static class Frame {
+		Page leader;
+		volatile boolean referenced;
+		final long admittedAt;
+		Frame next;
+		Frame prev;
+
+		Frame(Page leader, long admittedAt) {
+			this.leader = leader;
+			this.admittedAt = admittedAt;
+		}
+	}
+
+	private ConcurrentHashMap<Long, Frame> frames;
+	private Frame hand;
+	private volatile long admissions;
+	private volatile int window; // admissions after which an access is no longer correlated
+
+	public PageClockEvict(){
+		frames = new ConcurrentHashMap<Long, Frame>();
+		hand = null;
+	}
+
+	@Override
+	public synchronized void initialize(int capacity) {
+		frames.clear();
+		hand = null;
+		admissions = 0;
+		window = Math.max(1, capacity / 4);
+	}
+
+	@Override
+	public synchronized void admit(Page leader) {
+		if(frames.containsKey(leader.getId())){
+			return;
+		}
+
+		Frame f = new Frame(leader, admissions++);
+		frames.put(leader.getId(), f);
+
+		//insert just behind the hand, it will be the last one to be checked
+		if(hand == null){
+			f.next = f;
+			f.prev = f;
+			hand = f;
+		}
+		else {
+			f.next = hand;
+			f.prev = hand.prev;
+			hand.prev.next = f;
+			hand.prev = f;
+		}
+	}
+
+	@Override
+	public void access(Page leader) {
+		Frame f = frames.get(leader.getId());
+		if(f != null && admissions - f.admittedAt > window){
+			f.referenced = true;
+		}
+	}
+
+	@Override
+	public synchronized void remove(Page leader) {
+		Frame f = frames.remove(leader.getId());
+		if(f == null){
+			return;
+		}
+
+		if(f.next == f){
+			hand = null;
+		}
+		else {
+			f.prev.next = f.next;
+			f.next.prev = f.prev;
+
+			if(hand == f){
+				hand = f.next;
+			}
+		}
+	}
+
+	@Override
+	public synchronized Page selectVictim(Set<Page> excluded) {
+		if(hand == null){
+			return null;
+		}
+
+		//give referenced groups a second chance, two full turns are enough
+		for (int i = 0; i < 2 * frames.size(); i++) {
+			//excluded groups keep their bit, they did not get their second chance
+			if(!excluded.contains(hand.leader)){
+				if(!hand.referenced){
+					return hand.leader;
+				}
+
+				hand.referenced = false;
+			}
+
+			hand = hand.next;
+		}
+
+		return null;
+	}
+}
@@ -0,0 +1,157 @@
+package graphdb.policy;
+
+import graphdb.graph.BufferManager;
+import graphdb.graph.BufferMetrics;
+import graphdb.graph.EvictionPolicy;
+import graphdb.graph.Page;
+
+import java.util.Comparator;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * GreedyDual replacement (Young, Cao and Irani) weighing the reload cost of a
+ * group against its recency. Every group has a priority H = L + cost, set when it
+ * is admitted or accessed. The group with the lowest H is evicted and L is raised
+ * to its H, so groups which aren't accessed age out no matter how costly they are.
+ *
+ * The cost is the time the group took to be read and decoded when it was loaded.
+ * A big partitioned hub therefore stays longer than a single page subgraph. Groups
+ * which were created in memory are estimated from their page count and the mean
+ * load time per page, dirty groups are charged the mean write time on top.
+ *
+ * An access only stamps the group with the current L, like the reference bit of
+ * CLOCK, so buffer hits don't take the lock. The stamped groups get their new H
+ * and their place in the queue when they reach its head at eviction time, and the
+ * cost is measured then rather than on every access.
+ */
+public class PageCostAwareEvict implements EvictionPolicy {
+	private static final long NOT_ACCESSED = -1;
+
+	private static class Entry {
+		final Page leader;
+		long priority; // H, guarded by the policy's lock
+		volatile long accessedAt = NOT_ACCESSED; // L at the last access since H was set
+
+		Entry(Page leader) {
+			this.leader = leader;
+		}
+	}
+
+	private ConcurrentHashMap<Long, Entry> entries; // leading page id -> entry
+	private TreeSet<Entry> queue; // ordered by H, head is the victim
+	private volatile long inflation; // L
+
+	public PageCostAwareEvict(){
+		entries = new ConcurrentHashMap<Long, Entry>();
+		queue = new TreeSet<Entry>(new Comparator<Entry>() {
+			@Override
+			public int compare(Entry e1, Entry e2) {
+				if(e1.priority != e2.priority){
+					return e1.priority < e2.priority ? -1 : 1;
+				}
+				long id1 = e1.leader.getId();
+				long id2 = e2.leader.getId();
+				return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+			}
+		});
+	}
+
+	@Override
+	public synchronized void initialize(int capacity) {
+		queue.clear();
+		entries.clear();
+		inflation = 0;
+	}
+
+	@Override
+	public synchronized void admit(Page leader) {
+		Entry e = entries.get(leader.getId());
+		if(e == null){
+			e = new Entry(leader);
+			entries.put(leader.getId(), e);
+		}
+		else {
+			queue.remove(e);
+		}
+
+		e.priority = inflation + cost(leader);
+		e.accessedAt = NOT_ACCESSED;
+		queue.add(e);
+	}
+
+	@Override
+	public void access(Page leader) {
+		Entry e = entries.get(leader.getId());
+		if(e != null){
+			e.accessedAt = inflation;
+		}
+	}
+
+	@Override
+	public synchronized void remove(Page leader) {
+		Entry e = entries.remove(leader.getId());
+		if(e == null){
+			return;
+		}
+
+		queue.remove(e);
+
+		//groups left behind are aged relative to the evicted one
+		if(e.priority > inflation){
+			inflation = e.priority;
+		}
+	}
+
+	@Override
+	public synchronized Page selectVictim(Set<Page> excluded) {
+		while(true){
+			Entry accessed = null;
+
+			for (Entry e : queue) {
+				if(e.accessedAt != NOT_ACCESSED){
+					accessed = e;
+					break;
+				}
+				if(!excluded.contains(e.leader)){
+					return e.leader;
+				}
+			}
+
+			if(accessed == null){
+				return null;
+			}
+
+			//the group was accessed since it got its place, it moves back as it would have on the access
+			queue.remove(accessed);
+			accessed.priority = accessed.accessedAt + cost(accessed.leader);
+			accessed.accessedAt = NOT_ACCESSED;
+			queue.add(accessed);
+		}
+	}
+
+	/**
+	 * @return Estimated nanoseconds to bring the group back after it is evicted.
+	 */
+	protected long cost(Page leader){
+		BufferMetrics metrics = BufferManager.getInstance().getMetrics();
+		int pages = leader.getAdjacentPagesList().getSize();
+
+		//mean load time per page, latencies are in microseconds
+		long perPage = 1000;
+		if(metrics.getPagesRead() > 0){
+			double perGroup = metrics.getReadLatencyMean() + metrics.getDecodeLatencyMean();
+			double groupsPerPage = (double) metrics.getReadLatency().getCount() / (double) metrics.getPagesRead();
+			perPage = Math.max(1, (long) (perGroup * groupsPerPage * 1000));
+		}
+
+		//a group may have grown since it was loaded
+		long cost = Math.max(leader.getLoadCost(), pages * perPage);
+
+		if(leader.isDirty()){
+			cost += (long) (metrics.getWriteLatencyMean() * 1000);
+		}
+		return cost;
+	}
+}
@@ -0,0 +1,58 @@
+package graphdb.policy;
+
+import graphdb.graph.EvictionPolicy;
+import graphdb.graph.Page;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Approximate LRU. The buffer manager stamps the leading page of a group with a
+ * logical clock on every access, so hits don't lock anything. The victim is found
+ * by scanning the stamps.
+ */
+public class PageLRUEvict implements EvictionPolicy {
+	private ConcurrentHashMap<Long, Page> groups;
+
+	public PageLRUEvict(){
+		groups = new ConcurrentHashMap<Long, Page>();
+	}
+
+	@Override
+	public void initialize(int capacity) {
+		groups.clear();
+	}
+
+	@Override
+	public void admit(Page leader) {
+		groups.put(leader.getId(), leader);
+	}
+
+	@Override
+	public void access(Page leader) {
+		//the access stamp is already put by the buffer manager
+	}
+
+	@Override
+	public void remove(Page leader) {
+		groups.remove(leader.getId());
+	}
+
+	@Override
+	public Page selectVictim(Set<Page> excluded) {
+		Page lruPage = null;
+		long lruAccess = Long.MAX_VALUE;
+
+		for (Iterator<Page> it = groups.values().iterator(); it.hasNext();) {
+			Page leader = it.next();
+
+			if(leader.getLastAccess() < lruAccess && !excluded.contains(leader)){
+				lruAccess = leader.getLastAccess();
+				lruPage = leader;
+			}
+		}
+
+		return lruPage;
+	}
+}
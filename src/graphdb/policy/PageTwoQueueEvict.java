@@ -0,0 +1,115 @@
+package graphdb.policy;
+
+import graphdb.graph.EvictionPolicy;
+import graphdb.graph.Page;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * Full version of the 2Q replacement algorithm (Johnson and Shasha). A group seen
+ * for the first time goes into the FIFO queue A1in. When it is evicted from there
+ * only its id is remembered in A1out. A group which is faulted in again while its
+ * id is in A1out is promoted to the LRU queue Am. One-time accesses like a BFS
+ * scan therefore never push the groups in Am out.
+ */
+public class PageTwoQueueEvict implements EvictionPolicy {
+	private LinkedHashMap<Long, Page> a1in; // FIFO of groups seen once
+	private LinkedHashMap<Long, Boolean> a1out; // ids of groups evicted from a1in
+	private LinkedHashMap<Long, Page> am; // LRU of hot groups, head is the LRU
+
+	private int kin; // max size of a1in
+	private int kout; // max size of a1out
+
+	public PageTwoQueueEvict(){
+		a1in = new LinkedHashMap<Long, Page>();
+		a1out = new LinkedHashMap<Long, Boolean>();
+		am = new LinkedHashMap<Long, Page>();
+	}
+
+	@Override
+	public synchronized void initialize(int capacity) {
+		a1in.clear();
+		a1out.clear();
+		am.clear();
+
+		//tuning suggested in the paper
+		kin = Math.max(1, capacity / 4);
+		kout = Math.max(1, capacity / 2);
+	}
+
+	@Override
+	public synchronized void admit(Page leader) {
+		long id = leader.getId();
+
+		if(a1in.containsKey(id) || am.containsKey(id)){
+			return;
+		}
+
+		if(a1out.remove(id) != null){
+			//it was seen before, it is hot
+			am.put(id, leader);
+		}
+		else {
+			a1in.put(id, leader);
+		}
+	}
+
+	@Override
+	public synchronized void access(Page leader) {
+		long id = leader.getId();
+
+		//accesses in a1in are regarded as correlated, only am is reordered
+		if(am.remove(id) != null){
+			am.put(id, leader);
+		}
+	}
+
+	@Override
+	public synchronized void remove(Page leader) {
+		long id = leader.getId();
+
+		if(a1in.remove(id) != null){
+			a1out.put(id, Boolean.TRUE);
+
+			if(a1out.size() > kout){
+				Iterator<Long> it = a1out.keySet().iterator();
+				it.next();
+				it.remove();
+			}
+		}
+		else {
+			am.remove(id);
+		}
+	}
+
+	@Override
+	public synchronized Page selectVictim(Set<Page> excluded) {
+		Page victim = null;
+
+		if(a1in.size() > kin || am.isEmpty()){
+			victim = firstCandidate(a1in, excluded);
+		}
+
+		if(victim == null){
+			victim = firstCandidate(am, excluded);
+		}
+
+		if(victim == null){
+			victim = firstCandidate(a1in, excluded);
+		}
+
+		return victim;
+	}
+
+	private static Page firstCandidate(LinkedHashMap<Long, Page> queue, Set<Page> excluded){
+		for (Iterator<Page> it = queue.values().iterator(); it.hasNext();) {
+			Page leader = it.next();
+			if(!excluded.contains(leader)){
+				return leader;
+			}
+		}
+		return null;
+	}
+}
@@ -1,10 +1,12 @@
 package graphdb.policy;
 
+import graphdb.graph.AdjacencyList;
 import graphdb.graph.Edge;
 import graphdb.graph.Node;
 import graphdb.graph.SubGraph;
 import graphdb.graph.SubGraphSplitPolicy;
 import graphdb.graph.SuperGraph;
+import graphdb.util.LongIntMap;
 
 import java.util.HashMap;
 import java.util.Iterator;
@@ -71,13 +73,14 @@ public class SubgraphAffinitySplit implements SubGraphSplitPolicy {
 		if(sg.outgoingEdgeMap.containsKey(n.getId())){
 			totalEdgeCount += sg.outgoingEdgeMap.get(n.getId()).size();
 
-			for(Edge oute : sg.outgoingEdgeMap.get(n.getId())){
-				Long dest = oute.getDestinationId();
+			AdjacencyList outEdges = sg.outgoingEdgeMap.get(n.getId());
+			for(int i = 0; i < outEdges.size(); i++){
+				int destsgid = superg.nodeIndex.get(outEdges.get(i));
 
 				//if the node is in memory
 				//if subgraphs are different
-				if(superg.nodeIndex.containsKey(dest) && superg.nodeIndex.get(dest) != sg.getId()){
-					SubGraph destsg = superg.getSubgraph(superg.nodeIndex.get(dest));
+				if(destsgid != LongIntMap.NO_VALUE && destsgid != sg.getId()){
+					SubGraph destsg = superg.getSubgraph(destsgid);
 					//					crossEdgeCount++;
 
 					//increase cross edge counter
@@ -98,13 +101,14 @@ public class SubgraphAffinitySplit implements SubGraphSplitPolicy {
 			totalEdgeCount += sg.incomingEdgeMap.get(n.getId()).size();
 
 			//for in edges
-			for(Edge ine : sg.incomingEdgeMap.get(n.getId())){
-				Long src = ine.getSourceId();
+			AdjacencyList inEdges = sg.incomingEdgeMap.get(n.getId());
+			for(int i = 0; i < inEdges.size(); i++){
+				int srcsgid = superg.nodeIndex.get(inEdges.get(i));
 
 				//if the node is in memory
 				//if subgraphs are different
-				if(superg.nodeIndex.containsKey(src) && superg.nodeIndex.get(src) != sg.getId()){
-					SubGraph srcsg = superg.getSubgraph(superg.nodeIndex.get(src));
+				if(srcsgid != LongIntMap.NO_VALUE && srcsgid != sg.getId()){
+					SubGraph srcsg = superg.getSubgraph(srcsgid);
 					//					crossEdgeCount++;
 
 					//increase cross edge counter
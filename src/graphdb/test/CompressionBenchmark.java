@@ -0,0 +1,106 @@
+package graphdb.test;
+
+import graphdb.graph.BufferConfiguration;
+import graphdb.graph.BufferManager;
+import graphdb.graph.BufferMetrics;
+import graphdb.graph.Edge;
+import graphdb.graph.EdgeDirection;
+import graphdb.graph.Graph;
+import graphdb.graph.GraphManager;
+import graphdb.graph.Node;
+
+import java.util.Random;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Fault latency against the bytes read from the database for each page compression.
+ * The same graph is built for every codec, the buffer is flushed and random point
+ * queries fault the page groups back in one by one.
+ *
+ * Usage: CompressionBenchmark [nodes] [edges] [queries] [codec...]
+ */
+public class CompressionBenchmark {
+
+	public static void main(String[] args) {
+		BasicConfigurator.configure();
+		Logger.getRootLogger().setLevel(Level.WARN);
+
+		int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int edges = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+		int queries = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+		String[] codecs = args.length > 3 ? new String[args.length - 3] : new String[] {"none", "lz4", "deflate"};
+		for (int i = 3; i < args.length; i++) {
+			codecs[i - 3] = args[i];
+		}
+
+		GraphManager gm = GraphManager.getInstance();
+
+		System.out.println("codec    faults  bytes/fault  read mean(us)  read p99(us)  decode mean(us)  fault mean(us)");
+		for (int c = 0; c < codecs.length; c++) {
+			BufferConfiguration bc = new BufferConfiguration(8, 16 * 1024);
+			bc.setPageCompression(codecs[c]);
+			gm.setBufferConfiguration(bc);
+
+			gm.deleteEverything();
+			Graph g = gm.createGraph("compression" + c);
+			build(g, nodes, edges);
+
+			BufferManager bm = BufferManager.getInstance();
+			bm.flushBuffer();
+			bm.resetStatistics();
+
+			query(g, nodes, queries);
+
+			BufferMetrics m = bm.getMetrics();
+			long faults = m.getMissCount();
+			System.out.println(String.format("%-8s %6d  %11d  %13.1f  %12d  %15.1f  %14.1f",
+					codecs[c], faults, faults == 0 ? 0 : m.getBytesRead() / faults,
+					m.getReadLatencyMean(), m.getReadLatency99th(), m.getDecodeLatencyMean(),
+					m.getReadLatencyMean() + m.getDecodeLatencyMean()));
+		}
+
+		gm.shutdown();
+	}
+
+	//neighbors are mostly close in id, with a few labels on the edges
+	private static void build(Graph g, int nodes, int edges){
+		Random r = new Random(42);
+		String[] labels = {"follows", "likes", "knows", "blocks"};
+
+		for (int i = 0; i < nodes; i++) {
+			Node n = g.addNode();
+			if(i % 10 == 0){
+				n.setProperty("name", "node" + i);
+			}
+		}
+
+		for (int i = 0; i < edges; i++) {
+			long src = r.nextInt(nodes);
+			long dest = r.nextInt(10) == 0 ? r.nextInt(nodes) : Math.abs(src + (long) (r.nextGaussian() * 50)) % nodes;
+
+			Edge e = g.getNode(src).addEdge(g.getNode(dest));
+			if(i % 4 == 0){
+				e.setProperty("label", labels[r.nextInt(labels.length)]);
+			}
+		}
+	}
+
+	private static void query(Graph g, int nodes, int queries){
+		Random r = new Random(7);
+		long sum = 0;
+
+		for (int i = 0; i < queries; i++) {
+			for (Edge e : g.getNode(r.nextInt(nodes)).getEdges(EdgeDirection.OUT)) {
+				sum += e.getDestinationId();
+			}
+		}
+
+		//keeps the loop from being optimized away
+		if(sum == 42){
+			System.out.println();
+		}
+	}
+}
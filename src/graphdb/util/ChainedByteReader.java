@@ -0,0 +1,173 @@
+package graphdb.util;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Reads primitives in big-endian order across a chain of buffers as if they were
+ * one, without copying them together. Reads inside a buffer go straight to it, only
+ * a value split over two buffers is assembled byte by byte.
+ *
+ * The buffers are read from their positions and advanced, pass duplicates if they
+ * are shared.
+ */
+public class ChainedByteReader {
+	private final ByteBuffer[] buffers;
+	private final int[] starts; // chain offset of the first byte of each buffer, less its position
+	private final int length;
+	private int current;
+
+	public ChainedByteReader(List<ByteBuffer> chain) {
+		this(chain.toArray(new ByteBuffer[chain.size()]));
+	}
+
+	public ChainedByteReader(ByteBuffer buffer) {
+		this(new ByteBuffer[] {buffer});
+	}
+
+	private ChainedByteReader(ByteBuffer[] buffers) {
+		this.buffers = buffers;
+		this.starts = new int[buffers.length];
+		this.current = 0;
+
+		int offset = 0;
+		for (int i = 0; i < buffers.length; i++) {
+			starts[i] = offset - buffers[i].position();
+			offset += buffers[i].remaining();
+		}
+		this.length = offset;
+		skipEmpty();
+	}
+
+	private void skipEmpty(){
+		while(current < buffers.length && !buffers[current].hasRemaining()){
+			current++;
+		}
+	}
+
+	public boolean hasRemaining(){
+		return current < buffers.length;
+	}
+
+	/**
+	 * @return Number of bytes read so far, counted over the whole chain.
+	 */
+	public int position(){
+		if(current == buffers.length){
+			return length;
+		}
+		return starts[current] + buffers[current].position();
+	}
+
+	public void skip(int length){
+		while(length > 0){
+			if(current == buffers.length){
+				throw new BufferUnderflowException();
+			}
+
+			ByteBuffer bb = buffers[current];
+			int n = Math.min(length, bb.remaining());
+			bb.position(bb.position() + n);
+			length -= n;
+
+			if(!bb.hasRemaining()){
+				current++;
+				skipEmpty();
+			}
+		}
+	}
+
+	/**
+	 * @return The next byte without consuming it.
+	 */
+	public byte peek(){
+		if(current == buffers.length){
+			throw new BufferUnderflowException();
+		}
+		ByteBuffer bb = buffers[current];
+		return bb.get(bb.position());
+	}
+
+	public byte get(){
+		if(current == buffers.length){
+			throw new BufferUnderflowException();
+		}
+
+		byte b = buffers[current].get();
+		if(!buffers[current].hasRemaining()){
+			current++;
+			skipEmpty();
+		}
+		return b;
+	}
+
+	public int getInt(){
+		if(current < buffers.length && buffers[current].remaining() > 4){
+			return buffers[current].getInt();
+		}
+		return (int) getSplit(4);
+	}
+
+	public long getLong(){
+		if(current < buffers.length && buffers[current].remaining() > 8){
+			return buffers[current].getLong();
+		}
+		return getSplit(8);
+	}
+
+	//value crossing a buffer boundary, or ending one
+	private long getSplit(int bytes){
+		long value = 0;
+		for (int i = 0; i < bytes; i++) {
+			value = (value << 8) | (get() & 0xFF);
+		}
+		return value;
+	}
+
+	public void get(byte[] dst){
+		get(dst, 0, dst.length);
+	}
+
+	public void get(byte[] dst, int offset, int length){
+		while(length > 0){
+			if(current == buffers.length){
+				throw new BufferUnderflowException();
+			}
+
+			ByteBuffer bb = buffers[current];
+			int n = Math.min(length, bb.remaining());
+			bb.get(dst, offset, n);
+			offset += n;
+			length -= n;
+
+			if(!bb.hasRemaining()){
+				current++;
+				skipEmpty();
+			}
+		}
+	}
+
+	public long getVarLong(){
+		long value = 0;
+		int shift = 0;
+
+		while(true){
+			byte b = get();
+			value |= (long) (b & 0x7F) << shift;
+
+			if((b & 0x80) == 0){
+				return value;
+			}
+
+			shift += 7;
+			if(shift > 63){
+				throw new IllegalArgumentException("Malformed variable length integer.");
+			}
+		}
+	}
+
+	public int getVarInt(){
+		return (int) getVarLong();
+	}
+}
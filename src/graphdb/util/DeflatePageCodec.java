@@ -0,0 +1,134 @@
+package graphdb.util;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of java.util.zip without the zlib wrapper. It is slower than
+ * lz4 but the pages are smaller, for when the disk is the bottleneck.
+ */
+public class DeflatePageCodec implements PageCodec {
+	public static final int ID = 2;
+
+	private static final int CHUNK_SIZE = 8 * 1024; // output steps of direct buffers
+
+	private final int level;
+
+	public DeflatePageCodec() {
+		this(6);
+	}
+
+	/**
+	 * @param level Deflate level, 1 (fastest) to 9 (smallest).
+	 */
+	public DeflatePageCodec(int level) {
+		this.level = level;
+	}
+
+	@Override
+	public int getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return "deflate";
+	}
+
+	@Override
+	public int maxCompressedLength(int rawLength) {
+		//zlib's deflateBound, with room for the block headers of stored data
+		return rawLength + (rawLength >> 12) + (rawLength >> 14) + 64;
+	}
+
+	@Override
+	public int compress(ByteBuffer raw, ByteBuffer dst) {
+		int length = raw.remaining();
+		int start = dst.position();
+
+		Deflater deflater = new Deflater(level, true);
+		try {
+			//the deflater of this java level only reads arrays, a direct buffer is copied
+			if(raw.hasArray()){
+				deflater.setInput(raw.array(), raw.arrayOffset() + raw.position(), length);
+			}
+			else {
+				byte[] input = new byte[length];
+				raw.duplicate().get(input);
+				deflater.setInput(input);
+			}
+			deflater.finish();
+
+			byte[] chunk = dst.hasArray() ? null : new byte[Math.min(CHUNK_SIZE, dst.remaining())];
+			while(!deflater.finished()){
+				if(!dst.hasRemaining()){
+					throw new BufferOverflowException();
+				}
+
+				if(chunk == null){
+					int n = deflater.deflate(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+					dst.position(dst.position() + n);
+				}
+				else {
+					int n = deflater.deflate(chunk, 0, Math.min(chunk.length, dst.remaining()));
+					dst.put(chunk, 0, n);
+				}
+			}
+
+			raw.position(raw.limit());
+			return dst.position() - start;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	@Override
+	public void decompress(ByteBuffer src, ByteBuffer raw) {
+		int length = src.remaining();
+		int want = raw.remaining();
+
+		//raw inflate needs a dummy byte after the input
+		byte[] input = new byte[length + 1];
+		src.duplicate().get(input, 0, length);
+
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(input);
+
+			byte[] chunk = raw.hasArray() ? null : new byte[Math.min(CHUNK_SIZE, Math.max(1, want))];
+			int n = 0;
+			while(n < want && !inflater.finished()){
+				int inflated;
+				if(chunk == null){
+					inflated = inflater.inflate(raw.array(), raw.arrayOffset() + raw.position() + n, want - n);
+				}
+				else {
+					inflated = inflater.inflate(chunk, 0, Math.min(chunk.length, want - n));
+
+					ByteBuffer out = raw.duplicate();
+					out.position(raw.position() + n);
+					out.put(chunk, 0, inflated);
+				}
+
+				if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())){
+					break;
+				}
+				n += inflated;
+			}
+
+			if(n != want){
+				throw new IllegalArgumentException("Malformed deflate page, " + n + " bytes decompressed instead of " + want + ".");
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException("Malformed deflate page: " + e);
+		} finally {
+			inflater.end();
+		}
+
+		src.position(src.limit());
+		raw.position(raw.position() + want);
+	}
+}
@@ -0,0 +1,235 @@
+package graphdb.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Fast LZ77 compression in the LZ4 block format. A single hash table of the last
+ * positions of 4 byte sequences is used to find matches, there is no chain search.
+ * Decompression is a loop of literal and match copies.
+ *
+ * <pre>
+ * sequence: token (literal length << 4 | match length - 4), literal length extension,
+ *           literals, 2 byte little endian match offset, match length extension
+ * </pre>
+ *
+ * A length nibble of 15 is followed by extension bytes which are added to it until
+ * a byte below 255. The last sequence has only literals.
+ */
+public class LZ4PageCodec implements PageCodec {
+	public static final int ID = 1;
+
+	private static final int MIN_MATCH = 4;
+	private static final int LAST_LITERALS = 5; // the data always ends with literals
+	private static final int MF_LIMIT = 12; // a match can't start in the last 12 bytes
+	private static final int MAX_OFFSET = 65535;
+	private static final int HASH_LOG = 14;
+	private static final int SKIP_TRIGGER = 6; // misses before the search step grows
+
+	@Override
+	public int getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return "lz4";
+	}
+
+	@Override
+	public int maxCompressedLength(int rawLength) {
+		return rawLength + rawLength / 255 + 16;
+	}
+
+	@Override
+	public int compress(ByteBuffer src, ByteBuffer dst) {
+		int base = src.position();
+		int length = src.remaining();
+		int start = dst.position();
+		int op = start;
+		int anchor = 0;
+
+		//positions are relative to base, the buffer is read with absolute gets
+		if(length > MF_LIMIT){
+			int[] table = new int[1 << HASH_LOG];
+			Arrays.fill(table, -1);
+
+			int limit = length - MF_LIMIT;
+			int matchLimit = length - LAST_LITERALS;
+			int ip = 0;
+			int misses = 0;
+
+			while(ip < limit){
+				int sequence = src.getInt(base + ip);
+				int h = hash(sequence);
+				int ref = table[h];
+				table[h] = ip;
+
+				if(ref < 0 || ip - ref > MAX_OFFSET || src.getInt(base + ref) != sequence){
+					//incompressible data is skipped faster
+					ip += 1 + (misses++ >>> SKIP_TRIGGER);
+					continue;
+				}
+				misses = 0;
+
+				//extend the match backwards over the pending literals
+				while(ip > anchor && ref > 0 && src.get(base + ip - 1) == src.get(base + ref - 1)){
+					ip--;
+					ref--;
+				}
+
+				int matchLength = MIN_MATCH;
+				while(ip + matchLength < matchLimit && src.get(base + ref + matchLength) == src.get(base + ip + matchLength)){
+					matchLength++;
+				}
+
+				op = writeSequence(src, base + anchor, ip - anchor, ip - ref, matchLength, dst, op);
+
+				ip += matchLength;
+				anchor = ip;
+
+				//positions inside the match are not indexed, except the one before its end
+				if(ip - 2 < limit){
+					table[hash(src.getInt(base + ip - 2))] = ip - 2;
+				}
+			}
+		}
+
+		op = writeLiterals(src, base + anchor, length - anchor, dst, op, 0);
+
+		src.position(base + length);
+		dst.position(op);
+		return op - start;
+	}
+
+	@Override
+	public void decompress(ByteBuffer src, ByteBuffer raw) {
+		int ip = src.position();
+		int end = src.limit();
+		int base = raw.position();
+		int op = base;
+
+		try {
+			while(true){
+				int token = src.get(ip++) & 0xFF;
+
+				int literalLength = token >>> 4;
+				if(literalLength == 15){
+					int b;
+					do {
+						b = src.get(ip++) & 0xFF;
+						literalLength += b;
+					} while(b == 255);
+				}
+
+				copy(src, ip, raw, op, literalLength);
+				ip += literalLength;
+				op += literalLength;
+
+				if(ip >= end){
+					break;
+				}
+
+				int matchOffset = (src.get(ip) & 0xFF) | ((src.get(ip + 1) & 0xFF) << 8);
+				ip += 2;
+
+				int matchLength = token & 0x0F;
+				if(matchLength == 15){
+					int b;
+					do {
+						b = src.get(ip++) & 0xFF;
+						matchLength += b;
+					} while(b == 255);
+				}
+				matchLength += MIN_MATCH;
+
+				int ref = op - matchOffset;
+				if(matchOffset == 0 || ref < base){
+					throw new IllegalArgumentException("Malformed lz4 page, match offset " + matchOffset + " at " + (op - base) + ".");
+				}
+
+				if(matchOffset >= matchLength){
+					copy(raw, ref, raw, op, matchLength);
+				}
+				else {
+					//overlapping match repeats the last matchOffset bytes
+					for (int i = 0; i < matchLength; i++) {
+						raw.put(op + i, raw.get(ref + i));
+					}
+				}
+				op += matchLength;
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Malformed lz4 page: " + e);
+		}
+
+		if(op != raw.limit()){
+			throw new IllegalArgumentException("Malformed lz4 page, " + (op - base) + " bytes decompressed instead of " + (raw.limit() - base) + ".");
+		}
+
+		src.position(end);
+		raw.position(op);
+	}
+
+	private static int writeSequence(ByteBuffer src, int literalStart, int literalLength, int matchOffset, int matchLength, ByteBuffer dst, int op){
+		int matchCode = matchLength - MIN_MATCH;
+
+		op = writeLiterals(src, literalStart, literalLength, dst, op, Math.min(matchCode, 15));
+
+		dst.put(op++, (byte) matchOffset);
+		dst.put(op++, (byte) (matchOffset >>> 8));
+
+		if(matchCode >= 15){
+			op = writeLengthExtension(matchCode - 15, dst, op);
+		}
+		return op;
+	}
+
+	//writes the token and the literals of a sequence
+	private static int writeLiterals(ByteBuffer src, int literalStart, int literalLength, ByteBuffer dst, int op, int matchNibble){
+		dst.put(op++, (byte) ((Math.min(literalLength, 15) << 4) | matchNibble));
+
+		if(literalLength >= 15){
+			op = writeLengthExtension(literalLength - 15, dst, op);
+		}
+
+		copy(src, literalStart, dst, op, literalLength);
+		return op + literalLength;
+	}
+
+	private static int writeLengthExtension(int length, ByteBuffer dst, int op){
+		while(length >= 255){
+			dst.put(op++, (byte) 255);
+			length -= 255;
+		}
+		dst.put(op++, (byte) length);
+		return op;
+	}
+
+	//copies between absolute positions within the limits, short runs byte by byte
+	private static void copy(ByteBuffer src, int from, ByteBuffer dst, int to, int length){
+		if(from + length > src.limit() || to + length > dst.limit()){
+			throw new IndexOutOfBoundsException("Copy of " + length + " bytes from " + from + " to " + to + " is out of the limits.");
+		}
+
+		if(length < 16){
+			for (int i = 0; i < length; i++) {
+				dst.put(to + i, src.get(from + i));
+			}
+			return;
+		}
+
+		ByteBuffer in = src.duplicate();
+		in.limit(from + length);
+		in.position(from);
+
+		ByteBuffer out = dst.duplicate();
+		out.limit(to + length);
+		out.position(to);
+		out.put(in);
+	}
+
+	private static int hash(int sequence){
+		return (sequence * -1640531535) >>> (32 - HASH_LOG);
+	}
+}
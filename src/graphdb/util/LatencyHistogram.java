@@ -0,0 +1,131 @@
+package graphdb.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies. Values are kept in microseconds, every power of two
+ * range is split into SUB_BUCKETS linear buckets as in HdrHistogram. Recording is a few
+ * atomic increments and percentiles are accurate within 1 / SUB_BUCKETS, about 3%.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS; // linear buckets per power of two
+	private static final int MAX_EXPONENT = 38; // last bucket holds everything above 2^39 us
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets;
+	private final AtomicLong count;
+	private final AtomicLong total; // sum of the values in microseconds
+	private final AtomicLong max;
+
+	public LatencyHistogram() {
+		buckets = new AtomicLongArray(BUCKETS);
+		count = new AtomicLong(0);
+		total = new AtomicLong(0);
+		max = new AtomicLong(0);
+	}
+
+	/**
+	 * @param nanos Elapsed time in nanoseconds, as measured with System.nanoTime.
+	 */
+	public void record(long nanos){
+		long micros = Math.max(0, nanos / 1000);
+
+		buckets.incrementAndGet(bucketOf(micros));
+		count.incrementAndGet();
+		total.addAndGet(micros);
+
+		long m = max.get();
+		while(micros > m && !max.compareAndSet(m, micros)){
+			m = max.get();
+		}
+	}
+
+	//values below SUB_BUCKETS have a bucket each, above the top SUB_BITS bits after the highest one pick the bucket
+	private static int bucketOf(long micros){
+		if(micros < SUB_BUCKETS){
+			return (int) micros;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		if(exponent > MAX_EXPONENT){
+			return BUCKETS - 1;
+		}
+
+		int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	//largest value of bucket i
+	private static long upperBoundOf(int i){
+		if(i < SUB_BUCKETS){
+			return i;
+		}
+
+		int shift = i / SUB_BUCKETS - 1;
+		long lower = (long) (SUB_BUCKETS + i % SUB_BUCKETS) << shift;
+		return lower + (1L << shift) - 1;
+	}
+
+	public long getCount(){
+		return count.get();
+	}
+
+	/**
+	 * @return Mean of the recorded values in microseconds.
+	 */
+	public double getMean(){
+		long c = count.get();
+
+		if(c == 0){
+			return 0.0;
+		}
+		return (double) total.get() / (double) c;
+	}
+
+	/**
+	 * @return Max recorded value in microseconds.
+	 */
+	public long getMax(){
+		return max.get();
+	}
+
+	/**
+	 * @param fraction Between 0 and 1, e.g. 0.99 for the 99th percentile.
+	 * @return Upper bound of the bucket holding the percentile, in microseconds.
+	 */
+	public long getPercentile(double fraction){
+		long c = count.get();
+
+		if(c == 0){
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(fraction * c);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+
+			if(seen >= rank){
+				return Math.min(upperBoundOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	public void reset(){
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + " mean=" + Math.round(getMean()) + "us p50=" + getPercentile(0.5)
+				+ "us p99=" + getPercentile(0.99) + "us max=" + getMax() + "us";
+	}
+}
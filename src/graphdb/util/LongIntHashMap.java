@@ -0,0 +1,161 @@
+package graphdb.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing LongIntMap with linear probing. Keys and values are kept in two
+ * parallel arrays, a slot is free when its value is NO_VALUE. Removal shifts the
+ * following entries of the probe sequence back, so there are no tombstones and the
+ * lookups stay short under churn.
+ */
+public class LongIntHashMap implements LongIntMap {
+	private static final int MIN_CAPACITY = 16;
+	private static final float LOAD_FACTOR = 0.6f;
+
+	private long[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+	private int threshold;
+
+	public LongIntHashMap() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * @param expected Number of entries the map holds before it grows.
+	 */
+	public LongIntHashMap(int expected) {
+		allocate(capacityFor(expected));
+	}
+
+	private static int capacityFor(int expected){
+		int capacity = MIN_CAPACITY;
+		while(capacity * LOAD_FACTOR < expected){
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private void allocate(int capacity){
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(values, NO_VALUE);
+		mask = capacity - 1;
+		threshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	//node ids are mostly sequential, the bits are mixed so they don't form long runs
+	private static int slot(long key, int mask){
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private int find(long key){
+		for (int i = slot(key, mask);; i = (i + 1) & mask) {
+			if(values[i] == NO_VALUE){
+				return -1;
+			}
+			if(keys[i] == key){
+				return i;
+			}
+		}
+	}
+
+	@Override
+	public int get(long key) {
+		int i = find(key);
+		return i < 0 ? NO_VALUE : values[i];
+	}
+
+	@Override
+	public boolean containsKey(long key) {
+		return find(key) >= 0;
+	}
+
+	@Override
+	public int put(long key, int value) {
+		if(value < 0){
+			throw new IllegalArgumentException("Values must be non-negative: " + value);
+		}
+
+		int i = slot(key, mask);
+		for (; values[i] != NO_VALUE; i = (i + 1) & mask) {
+			if(keys[i] == key){
+				int old = values[i];
+				values[i] = value;
+				return old;
+			}
+		}
+
+		keys[i] = key;
+		values[i] = value;
+		if(++size > threshold){
+			rehash(keys.length << 1);
+		}
+		return NO_VALUE;
+	}
+
+	@Override
+	public int remove(long key) {
+		int i = find(key);
+		if(i < 0){
+			return NO_VALUE;
+		}
+
+		int old = values[i];
+		size--;
+
+		//move the entries after the removed one back if their home slot is not between the gap and them
+		int gap = i;
+		for (int j = (gap + 1) & mask; values[j] != NO_VALUE; j = (j + 1) & mask) {
+			int home = slot(keys[j], mask);
+			if(((j - home) & mask) >= ((j - gap) & mask)){
+				keys[gap] = keys[j];
+				values[gap] = values[j];
+				gap = j;
+			}
+		}
+		values[gap] = NO_VALUE;
+
+		return old;
+	}
+
+	private void rehash(int capacity){
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if(oldValues[i] == NO_VALUE){
+				continue;
+			}
+
+			int j = slot(oldKeys[i], mask);
+			while(values[j] != NO_VALUE){
+				j = (j + 1) & mask;
+			}
+			keys[j] = oldKeys[i];
+			values[j] = oldValues[i];
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public void clear() {
+		if(size == 0){
+			return;
+		}
+		Arrays.fill(values, NO_VALUE);
+		size = 0;
+	}
+}
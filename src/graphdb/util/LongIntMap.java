@@ -0,0 +1,32 @@
+package graphdb.util;
+
+/**
+ * Map of primitive long keys to int values, it doesn't box the keys or the values.
+ * Values are expected to be non-negative, a missing key is reported as NO_VALUE.
+ */
+public interface LongIntMap {
+	public static final int NO_VALUE = -1;
+
+	/**
+	 * @return The value of the key, NO_VALUE if the key isn't in the map.
+	 */
+	public int get(long key);
+
+	public boolean containsKey(long key);
+
+	/**
+	 * @return The previous value of the key, NO_VALUE if the key wasn't in the map.
+	 */
+	public int put(long key, int value);
+
+	/**
+	 * @return The removed value, NO_VALUE if the key wasn't in the map.
+	 */
+	public int remove(long key);
+
+	public int size();
+
+	public boolean isEmpty();
+
+	public void clear();
+}
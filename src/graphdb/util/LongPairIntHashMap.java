@@ -0,0 +1,144 @@
+package graphdb.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map of (long, long) keys to non-negative int values, laid out as
+ * LongIntHashMap is: parallel arrays, linear probing and removal by shifting the probe
+ * sequence back. A missing key is reported as LongIntMap.NO_VALUE.
+ */
+public class LongPairIntHashMap {
+	private static final int MIN_CAPACITY = 16;
+	private static final float LOAD_FACTOR = 0.6f;
+
+	private long[] firsts;
+	private long[] seconds;
+	private int[] values;
+	private int mask;
+	private int size;
+	private int threshold;
+
+	public LongPairIntHashMap() {
+		allocate(MIN_CAPACITY);
+	}
+
+	private void allocate(int capacity){
+		firsts = new long[capacity];
+		seconds = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(values, LongIntMap.NO_VALUE);
+		mask = capacity - 1;
+		threshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	private static int slot(long first, long second, int mask){
+		long h = (first * 0x9E3779B97F4A7C15L) ^ (second * 0xC2B2AE3D27D4EB4FL);
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private int find(long first, long second){
+		for (int i = slot(first, second, mask);; i = (i + 1) & mask) {
+			if(values[i] == LongIntMap.NO_VALUE){
+				return -1;
+			}
+			if(firsts[i] == first && seconds[i] == second){
+				return i;
+			}
+		}
+	}
+
+	/**
+	 * @return The value of the key, NO_VALUE if the key isn't in the map.
+	 */
+	public int get(long first, long second) {
+		int i = find(first, second);
+		return i < 0 ? LongIntMap.NO_VALUE : values[i];
+	}
+
+	public boolean containsKey(long first, long second) {
+		return find(first, second) >= 0;
+	}
+
+	/**
+	 * @return The previous value of the key, NO_VALUE if the key wasn't in the map.
+	 */
+	public int put(long first, long second, int value) {
+		if(value < 0){
+			throw new IllegalArgumentException("Values must be non-negative: " + value);
+		}
+
+		int i = slot(first, second, mask);
+		for (; values[i] != LongIntMap.NO_VALUE; i = (i + 1) & mask) {
+			if(firsts[i] == first && seconds[i] == second){
+				int old = values[i];
+				values[i] = value;
+				return old;
+			}
+		}
+
+		firsts[i] = first;
+		seconds[i] = second;
+		values[i] = value;
+		if(++size > threshold){
+			rehash(values.length << 1);
+		}
+		return LongIntMap.NO_VALUE;
+	}
+
+	/**
+	 * @return The removed value, NO_VALUE if the key wasn't in the map.
+	 */
+	public int remove(long first, long second) {
+		int i = find(first, second);
+		if(i < 0){
+			return LongIntMap.NO_VALUE;
+		}
+
+		int old = values[i];
+		size--;
+
+		//move the entries after the removed one back if their home slot is not between the gap and them
+		int gap = i;
+		for (int j = (gap + 1) & mask; values[j] != LongIntMap.NO_VALUE; j = (j + 1) & mask) {
+			int home = slot(firsts[j], seconds[j], mask);
+			if(((j - home) & mask) >= ((j - gap) & mask)){
+				firsts[gap] = firsts[j];
+				seconds[gap] = seconds[j];
+				values[gap] = values[j];
+				gap = j;
+			}
+		}
+		values[gap] = LongIntMap.NO_VALUE;
+
+		return old;
+	}
+
+	private void rehash(int capacity){
+		long[] oldFirsts = firsts;
+		long[] oldSeconds = seconds;
+		int[] oldValues = values;
+
+		allocate(capacity);
+		for (int i = 0; i < oldValues.length; i++) {
+			if(oldValues[i] == LongIntMap.NO_VALUE){
+				continue;
+			}
+
+			int j = slot(oldFirsts[i], oldSeconds[i], mask);
+			while(values[j] != LongIntMap.NO_VALUE){
+				j = (j + 1) & mask;
+			}
+			firsts[j] = oldFirsts[i];
+			seconds[j] = oldSeconds[i];
+			values[j] = oldValues[i];
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+}
@@ -0,0 +1,43 @@
+package graphdb.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compression algorithm of the stored pages. The id is written into the header of
+ * every compressed page, so it must never change once pages are written with it.
+ */
+public interface PageCodec {
+
+	/**
+	 * @return Id of the codec in the page header, 1 to 127. 0 is for stored pages.
+	 */
+	public int getId();
+
+	/**
+	 * @return Name to select the codec with in the buffer configuration.
+	 */
+	public String getName();
+
+	/**
+	 * @return Room compress needs in the destination for rawLength bytes, the data may grow.
+	 */
+	public int maxCompressedLength(int rawLength);
+
+	/**
+	 * Compresses the remaining bytes of raw into dst, the buffers may be direct. The
+	 * positions of both are advanced.
+	 *
+	 * @param dst It must have maxCompressedLength bytes remaining.
+	 * @return Number of bytes written to dst.
+	 */
+	public int compress(ByteBuffer raw, ByteBuffer dst);
+
+	/**
+	 * Decompresses the remaining bytes of src into raw, the buffers may be direct. The
+	 * positions of both are advanced.
+	 *
+	 * @param raw Its remaining bytes are filled, their number is the original length.
+	 * @throws IllegalArgumentException if the data is malformed.
+	 */
+	public void decompress(ByteBuffer src, ByteBuffer raw);
+}
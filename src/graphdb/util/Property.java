@@ -1,7 +1,6 @@
 package graphdb.util;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -9,6 +8,7 @@ import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -27,7 +27,7 @@ import java.util.Set;
 public class Property implements Serializable, Cloneable {
 	private static final long serialVersionUID = -6099648428488182108L;
 	protected transient Map<String, Object> props;
-	private transient int propSize;
+	private transient int propSize; // encoded size of the entries, see PropertyCodec
 
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	private static final Set<Class> knownImmutables = new HashSet<Class>(Arrays.asList(
@@ -104,8 +104,14 @@ public class Property implements Serializable, Cloneable {
 	}
 
 	public void setProperty(String key, Object value) {
+		int size = PropertyCodec.entrySize(key, value);
+
+		if(props.containsKey(key)){
+			propSize -= PropertyCodec.entrySize(key, props.get(key));
+		}
+
 		props.put(key, value);
-		propSize = this._getObjectSize();
+		propSize += size;
 	}
 
 	public Set<String> propertyKeySet() {
@@ -117,7 +123,7 @@ public class Property implements Serializable, Cloneable {
 			Object removed = props.get(key);
 			props.remove(key);
 
-			propSize = this._getObjectSize();
+			propSize -= PropertyCodec.entrySize(key, removed);
 
 			return removed;
 		}
@@ -155,16 +161,16 @@ public class Property implements Serializable, Cloneable {
 		in.defaultReadObject();
 
 		int propNum = in.readInt();
-		propSize = in.readInt();
+		in.readInt(); // size of the object serialized as a whole, not used anymore
 
 		props = new HashMap<String, Object>(propNum);
+		propSize = 0;
 		for (int i = 0; i < propNum; i++) {
 			String key = in.readUTF();
 			Object value = in.readObject();
 			props.put(key, value);
+			propSize += PropertyCodec.entrySize(key, value);
 		}
-
-		//        propSize = _getObjectSize();
 	}
 
 	@Override
@@ -201,39 +207,52 @@ public class Property implements Serializable, Cloneable {
 		}
 		return res;
 	}
+	/**
+	 * @return Number of bytes the object takes when it is written by writePropertyObject.
+	 * It is kept up to date as the properties are set, values aren't encoded to measure it.
+	 */
 	public int getObjectSize(){
-		return propSize;
+		return PropertyCodec.headerSize(props.size()) + propSize;
 	}
 
-	private int _getObjectSize() {
-		//return writePropertyObject(this).length + 4 + 4; // plus 4 is the integer length of the property object
-		return writePropertyObject(this).length;
+	//measures the entries from scratch, for values which were changed in place
+	private void resize() {
+		propSize = 0;
+		for (Iterator<Map.Entry<String, Object>> it = props.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, Object> entry = it.next();
+			propSize += PropertyCodec.entrySize(entry.getKey(), entry.getValue());
+		}
 	}
 
+	/**
+	 * Reads a property object written by writePropertyObject, or by Java serialization
+	 * as older releases did.
+	 */
 	public static Property readPropertyObject(byte[] propData) throws IOException, ClassNotFoundException {
-		ByteArrayInputStream bais = new ByteArrayInputStream(propData);
-		ObjectInputStream ois  = new ObjectInputStream(bais);
+		if(PropertyCodec.isSerialized(propData)){
+			ByteArrayInputStream bais = new ByteArrayInputStream(propData);
+			ObjectInputStream ois  = new ObjectInputStream(bais);
+
+			Property prop = (Property) ois.readObject();
+
+			ois.close();
+			return prop;
+		}
 
-		Property prop = (Property) ois.readObject();
+		Property prop = new Property();
+		PropertyCodec.decode(propData, prop.props);
+		prop.propSize = propData.length - PropertyCodec.headerSize(prop.props.size());
 
-		ois.close();
 		return prop;
 	}
 
 	public static byte[] writePropertyObject(Property prop){
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
 		try {
-			ObjectOutputStream oos = new ObjectOutputStream(baos);
-
-			oos.writeObject(prop);
-			oos.close();
-			baos.close();
-
-		} catch (Exception e) {
-			System.out.println(e);
+			return PropertyCodec.encode(prop.props, prop.getObjectSize());
+		} catch (BufferOverflowException e) {
+			//a value was changed in place after it was set
+			prop.resize();
+			return PropertyCodec.encode(prop.props, prop.getObjectSize());
 		}
-
-		return baos.toByteArray();
 	}
 }
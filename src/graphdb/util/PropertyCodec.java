@@ -0,0 +1,554 @@
+package graphdb.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Binary encoding of the properties of a Property object:
+ *
+ * <pre>
+ * format byte (1), varint entry count
+ * per entry: varint key length, UTF-8 key, type tag, value
+ * </pre>
+ *
+ * Integral values are zigzag varints, floating point values are fixed width, strings
+ * and arrays are prefixed with their varint length. Strings are UTF-8, so an unpaired
+ * surrogate is written as '?'. Any other Serializable value is
+ * written with Java serialization behind the SERIALIZED tag. A Java serialization
+ * stream starts with 0xAC, so the properties written by older releases are still read.
+ */
+public final class PropertyCodec {
+	public static final byte FORMAT = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	//type tags
+	private static final byte NULL = 0;
+	private static final byte TRUE = 1;
+	private static final byte FALSE = 2;
+	private static final byte BYTE = 3;
+	private static final byte SHORT = 4;
+	private static final byte CHAR = 5;
+	private static final byte INT = 6;
+	private static final byte LONG = 7;
+	private static final byte FLOAT = 8;
+	private static final byte DOUBLE = 9;
+	private static final byte STRING = 10;
+	private static final byte BYTE_ARRAY = 11;
+	private static final byte INT_ARRAY = 12;
+	private static final byte LONG_ARRAY = 13;
+	private static final byte FLOAT_ARRAY = 14;
+	private static final byte DOUBLE_ARRAY = 15;
+	private static final byte STRING_ARRAY = 16;
+	private static final byte BOOLEAN_ARRAY = 17;
+	private static final byte SERIALIZED = 127;
+
+	private PropertyCodec() {
+	}
+
+	/**
+	 * @return Encoded size of a property object holding the given number of entries
+	 * without the entries themselves.
+	 */
+	public static int headerSize(int entries){
+		return 1 + VarInt.varIntSize(entries);
+	}
+
+	/**
+	 * @return Number of bytes the entry takes in the encoding.
+	 */
+	public static int entrySize(String key, Object value){
+		return keySize(key) + valueSize(value);
+	}
+
+	/**
+	 * @return Bytes of an entry before its value, the key and the type tag.
+	 */
+	public static int keySize(String key){
+		int keyLength = utf8Length(key);
+		return VarInt.varIntSize(keyLength) + keyLength + 1;
+	}
+
+	/**
+	 * Receives the entries of a decoded property object.
+	 */
+	public interface EntrySink {
+		public void put(String key, Object value);
+	}
+
+	/**
+	 * @param size Encoded size measured by headerSize and entrySize, the data is cut to
+	 * the actual size if a value shrank since it was measured.
+	 * @throws BufferOverflowException if a value grew since it was measured.
+	 */
+	public static byte[] encode(Map<String, Object> props, int size){
+		ByteBuffer bb = ByteBuffer.allocate(size);
+
+		putHeader(bb, props.size());
+
+		for (Iterator<Map.Entry<String, Object>> it = props.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, Object> entry = it.next();
+
+			putKey(bb, entry.getKey().getBytes(UTF8));
+			putValue(bb, entry.getValue());
+		}
+
+		if(bb.position() < size){
+			return Arrays.copyOf(bb.array(), bb.position());
+		}
+		return bb.array();
+	}
+
+	/**
+	 * Writes the format byte and the entry count, the entries follow as putKey and putValue pairs.
+	 */
+	public static void putHeader(ByteBuffer bb, int entries){
+		bb.put(FORMAT);
+		VarInt.putVarInt(bb, entries);
+	}
+
+	/**
+	 * @param key UTF-8 bytes of the key.
+	 */
+	public static void putKey(ByteBuffer bb, byte[] key){
+		VarInt.putVarInt(bb, key.length);
+		bb.put(key);
+	}
+
+	/**
+	 * @param props Decoded entries are put into it.
+	 */
+	public static void decode(byte[] data, final Map<String, Object> props) throws IOException, ClassNotFoundException {
+		decode(data, new EntrySink() {
+			@Override
+			public void put(String key, Object value) {
+				props.put(key, value);
+			}
+		});
+	}
+
+	public static void decode(byte[] data, EntrySink sink) throws IOException, ClassNotFoundException {
+		ByteBuffer bb = ByteBuffer.wrap(data);
+
+		if(bb.get() != FORMAT){
+			throw new IOException("Unknown property format: " + data[0]);
+		}
+
+		int entries = VarInt.getVarInt(bb);
+		for (int i = 0; i < entries; i++) {
+			String key = getString(bb);
+			sink.put(key, getValue(bb));
+		}
+	}
+
+	/**
+	 * @return true if the data was written by Java serialization.
+	 */
+	public static boolean isSerialized(byte[] data){
+		return data.length > 0 && data[0] == (byte) 0xAC;
+	}
+
+	public static int valueSize(int value){
+		return VarInt.varIntSize(zigzag(value));
+	}
+
+	public static int valueSize(long value){
+		return VarInt.varLongSize(zigzag(value));
+	}
+
+	public static int valueSize(double value){
+		return 8;
+	}
+
+	public static int valueSize(boolean value){
+		return 0;
+	}
+
+	/**
+	 * @return Bytes the value takes after its type tag.
+	 */
+	public static int valueSize(Object value){
+		if(value == null || value instanceof Boolean){
+			return 0;
+		}
+		else if(value instanceof Byte){
+			return 1;
+		}
+		else if(value instanceof Short){
+			return VarInt.varIntSize(zigzag((Short) value));
+		}
+		else if(value instanceof Character){
+			return VarInt.varIntSize((Character) value);
+		}
+		else if(value instanceof Integer){
+			return VarInt.varIntSize(zigzag((Integer) value));
+		}
+		else if(value instanceof Long){
+			return VarInt.varLongSize(zigzag((Long) value));
+		}
+		else if(value instanceof Float){
+			return 4;
+		}
+		else if(value instanceof Double){
+			return 8;
+		}
+		else if(value instanceof String){
+			int length = utf8Length((String) value);
+			return VarInt.varIntSize(length) + length;
+		}
+		else if(value instanceof byte[]){
+			int length = ((byte[]) value).length;
+			return VarInt.varIntSize(length) + length;
+		}
+		else if(value instanceof boolean[]){
+			int length = ((boolean[]) value).length;
+			return VarInt.varIntSize(length) + (length + 7) / 8;
+		}
+		else if(value instanceof int[]){
+			int[] array = (int[]) value;
+			int size = VarInt.varIntSize(array.length);
+			for (int i = 0; i < array.length; i++) {
+				size += VarInt.varIntSize(zigzag(array[i]));
+			}
+			return size;
+		}
+		else if(value instanceof long[]){
+			long[] array = (long[]) value;
+			int size = VarInt.varIntSize(array.length);
+			for (int i = 0; i < array.length; i++) {
+				size += VarInt.varLongSize(zigzag(array[i]));
+			}
+			return size;
+		}
+		else if(value instanceof float[]){
+			int length = ((float[]) value).length;
+			return VarInt.varIntSize(length) + 4 * length;
+		}
+		else if(value instanceof double[]){
+			int length = ((double[]) value).length;
+			return VarInt.varIntSize(length) + 8 * length;
+		}
+		else if(value instanceof String[]){
+			String[] array = (String[]) value;
+			int size = VarInt.varIntSize(array.length);
+			for (int i = 0; i < array.length; i++) {
+				int length = utf8Length(array[i]);
+				size += VarInt.varIntSize(length) + length;
+			}
+			return size;
+		}
+		else {
+			int length = serialize(value).length;
+			return VarInt.varIntSize(length) + length;
+		}
+	}
+
+	public static void putValue(ByteBuffer bb, boolean value){
+		bb.put(value ? TRUE : FALSE);
+	}
+
+	public static void putValue(ByteBuffer bb, int value){
+		bb.put(INT);
+		VarInt.putVarInt(bb, zigzag(value));
+	}
+
+	public static void putValue(ByteBuffer bb, long value){
+		bb.put(LONG);
+		VarInt.putVarLong(bb, zigzag(value));
+	}
+
+	public static void putValue(ByteBuffer bb, double value){
+		bb.put(DOUBLE);
+		bb.putDouble(value);
+	}
+
+	/**
+	 * Writes the type tag and the value.
+	 */
+	public static void putValue(ByteBuffer bb, Object value){
+		if(value == null){
+			bb.put(NULL);
+		}
+		else if(value instanceof Boolean){
+			bb.put((Boolean) value ? TRUE : FALSE);
+		}
+		else if(value instanceof Byte){
+			bb.put(BYTE);
+			bb.put((Byte) value);
+		}
+		else if(value instanceof Short){
+			bb.put(SHORT);
+			VarInt.putVarInt(bb, zigzag((Short) value));
+		}
+		else if(value instanceof Character){
+			bb.put(CHAR);
+			VarInt.putVarInt(bb, (Character) value);
+		}
+		else if(value instanceof Integer){
+			bb.put(INT);
+			VarInt.putVarInt(bb, zigzag((Integer) value));
+		}
+		else if(value instanceof Long){
+			bb.put(LONG);
+			VarInt.putVarLong(bb, zigzag((Long) value));
+		}
+		else if(value instanceof Float){
+			bb.put(FLOAT);
+			bb.putFloat((Float) value);
+		}
+		else if(value instanceof Double){
+			bb.put(DOUBLE);
+			bb.putDouble((Double) value);
+		}
+		else if(value instanceof String){
+			bb.put(STRING);
+			putString(bb, (String) value);
+		}
+		else if(value instanceof byte[]){
+			byte[] array = (byte[]) value;
+			bb.put(BYTE_ARRAY);
+			VarInt.putVarInt(bb, array.length);
+			bb.put(array);
+		}
+		else if(value instanceof boolean[]){
+			boolean[] array = (boolean[]) value;
+			bb.put(BOOLEAN_ARRAY);
+			VarInt.putVarInt(bb, array.length);
+			for (int i = 0; i < array.length; i += 8) {
+				int bits = 0;
+				for (int j = i; j < i + 8 && j < array.length; j++) {
+					if(array[j]){
+						bits |= 1 << (j - i);
+					}
+				}
+				bb.put((byte) bits);
+			}
+		}
+		else if(value instanceof int[]){
+			int[] array = (int[]) value;
+			bb.put(INT_ARRAY);
+			VarInt.putVarInt(bb, array.length);
+			for (int i = 0; i < array.length; i++) {
+				VarInt.putVarInt(bb, zigzag(array[i]));
+			}
+		}
+		else if(value instanceof long[]){
+			long[] array = (long[]) value;
+			bb.put(LONG_ARRAY);
+			VarInt.putVarInt(bb, array.length);
+			for (int i = 0; i < array.length; i++) {
+				VarInt.putVarLong(bb, zigzag(array[i]));
+			}
+		}
+		else if(value instanceof float[]){
+			float[] array = (float[]) value;
+			bb.put(FLOAT_ARRAY);
+			VarInt.putVarInt(bb, array.length);
+			for (int i = 0; i < array.length; i++) {
+				bb.putFloat(array[i]);
+			}
+		}
+		else if(value instanceof double[]){
+			double[] array = (double[]) value;
+			bb.put(DOUBLE_ARRAY);
+			VarInt.putVarInt(bb, array.length);
+			for (int i = 0; i < array.length; i++) {
+				bb.putDouble(array[i]);
+			}
+		}
+		else if(value instanceof String[]){
+			String[] array = (String[]) value;
+			bb.put(STRING_ARRAY);
+			VarInt.putVarInt(bb, array.length);
+			for (int i = 0; i < array.length; i++) {
+				putString(bb, array[i]);
+			}
+		}
+		else {
+			byte[] data = serialize(value);
+			bb.put(SERIALIZED);
+			VarInt.putVarInt(bb, data.length);
+			bb.put(data);
+		}
+	}
+
+	private static Object getValue(ByteBuffer bb) throws IOException, ClassNotFoundException {
+		byte tag = bb.get();
+
+		switch (tag) {
+		case NULL:
+			return null;
+		case TRUE:
+			return Boolean.TRUE;
+		case FALSE:
+			return Boolean.FALSE;
+		case BYTE:
+			return bb.get();
+		case SHORT:
+			return (short) unzigzag(VarInt.getVarInt(bb));
+		case CHAR:
+			return (char) VarInt.getVarInt(bb);
+		case INT:
+			return unzigzag(VarInt.getVarInt(bb));
+		case LONG:
+			return unzigzag(VarInt.getVarLong(bb));
+		case FLOAT:
+			return bb.getFloat();
+		case DOUBLE:
+			return bb.getDouble();
+		case STRING:
+			return getString(bb);
+		case BYTE_ARRAY: {
+			byte[] array = new byte[VarInt.getVarInt(bb)];
+			bb.get(array);
+			return array;
+		}
+		case BOOLEAN_ARRAY: {
+			boolean[] array = new boolean[VarInt.getVarInt(bb)];
+			for (int i = 0; i < array.length; i += 8) {
+				int bits = bb.get();
+				for (int j = i; j < i + 8 && j < array.length; j++) {
+					array[j] = (bits & (1 << (j - i))) != 0;
+				}
+			}
+			return array;
+		}
+		case INT_ARRAY: {
+			int[] array = new int[VarInt.getVarInt(bb)];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = unzigzag(VarInt.getVarInt(bb));
+			}
+			return array;
+		}
+		case LONG_ARRAY: {
+			long[] array = new long[VarInt.getVarInt(bb)];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = unzigzag(VarInt.getVarLong(bb));
+			}
+			return array;
+		}
+		case FLOAT_ARRAY: {
+			float[] array = new float[VarInt.getVarInt(bb)];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = bb.getFloat();
+			}
+			return array;
+		}
+		case DOUBLE_ARRAY: {
+			double[] array = new double[VarInt.getVarInt(bb)];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = bb.getDouble();
+			}
+			return array;
+		}
+		case STRING_ARRAY: {
+			String[] array = new String[VarInt.getVarInt(bb)];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = getString(bb);
+			}
+			return array;
+		}
+		case SERIALIZED: {
+			byte[] data = new byte[VarInt.getVarInt(bb)];
+			bb.get(data);
+			return deserialize(data);
+		}
+		default:
+			throw new IOException("Unknown property value type: " + tag);
+		}
+	}
+
+	private static void putString(ByteBuffer bb, String s){
+		byte[] data = s.getBytes(UTF8);
+		VarInt.putVarInt(bb, data.length);
+		bb.put(data);
+	}
+
+	private static String getString(ByteBuffer bb){
+		int length = VarInt.getVarInt(bb);
+		String s = new String(bb.array(), bb.arrayOffset() + bb.position(), length, UTF8);
+		bb.position(bb.position() + length);
+		return s;
+	}
+
+	/**
+	 * @return Length of the string in UTF-8 without encoding it. An unpaired
+	 * surrogate is replaced by a single byte, as String.getBytes does.
+	 */
+	static int utf8Length(String s){
+		int length = 0;
+
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+
+			if(c < 0x80){
+				length += 1;
+			}
+			else if(c < 0x800){
+				length += 2;
+			}
+			else if(Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))){
+				length += 4;
+				i++;
+			}
+			else if(c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE){
+				length += 1;
+			}
+			else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	private static int zigzag(int value){
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static long zigzag(long value){
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static int unzigzag(int value){
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static long unzigzag(long value){
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static byte[] serialize(Object value){
+		if(!(value instanceof Serializable)){
+			throw new IllegalArgumentException("Property value is not serializable: " + value.getClass().getName());
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try {
+			ObjectOutputStream oos = new ObjectOutputStream(baos);
+			oos.writeObject(value);
+			oos.close();
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Property value couldn't be serialized: " + e);
+		}
+		return baos.toByteArray();
+	}
+
+	private static Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data));
+		try {
+			return ois.readObject();
+		} finally {
+			ois.close();
+		}
+	}
+}
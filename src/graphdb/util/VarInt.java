@@ -0,0 +1,65 @@
+package graphdb.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length encoding of non-negative integers, 7 bits per byte with the high
+ * bit set on every byte but the last (LEB128). Small values take a single byte, a
+ * negative value takes the full 10 bytes.
+ */
+public final class VarInt {
+
+	private VarInt() {
+	}
+
+	public static void putVarLong(ByteBuffer bb, long value){
+		while((value & ~0x7FL) != 0){
+			bb.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		bb.put((byte) value);
+	}
+
+	public static long getVarLong(ByteBuffer bb){
+		long value = 0;
+		int shift = 0;
+
+		while(true){
+			byte b = bb.get();
+			value |= (long) (b & 0x7F) << shift;
+
+			if((b & 0x80) == 0){
+				return value;
+			}
+
+			shift += 7;
+			if(shift > 63){
+				throw new IllegalArgumentException("Malformed variable length integer.");
+			}
+		}
+	}
+
+	public static void putVarInt(ByteBuffer bb, int value){
+		putVarLong(bb, value & 0xFFFFFFFFL);
+	}
+
+	public static int getVarInt(ByteBuffer bb){
+		return (int) getVarLong(bb);
+	}
+
+	/**
+	 * @return Number of bytes the value takes.
+	 */
+	public static int varLongSize(long value){
+		int size = 1;
+		while((value & ~0x7FL) != 0){
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	public static int varIntSize(int value){
+		return varLongSize(value & 0xFFFFFFFFL);
+	}
+}